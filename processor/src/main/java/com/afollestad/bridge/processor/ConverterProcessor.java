@@ -0,0 +1,435 @@
+package com.afollestad.bridge.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a converter for each class annotated with {@code @ContentType} whose content type is
+ * JSON or CBOR. The converter reads and writes the class's fields directly, binding them the way
+ * Ason does: by field name, or the dotted path of {@code @AsonName}, skipping static, transient and
+ * {@code @AsonIgnore} fields. Bridge finds it at runtime by name and uses it instead of Ason.
+ *
+ * <p>A class is left to Ason, with a note, if its converter can't be generated: it must have a
+ * non-private no-arg constructor and no superclass, and its fields must be non-private, non-final
+ * primitives, boxed primitives, Strings, or other classes that get a converter.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SupportedAnnotationTypes(ConverterProcessor.CONTENT_TYPE)
+public final class ConverterProcessor extends AbstractProcessor {
+
+  static final String CONTENT_TYPE = "com.afollestad.bridge.annotations.ContentType";
+  private static final String ASON_NAME = "com.afollestad.ason.AsonName";
+  private static final String ASON_IGNORE = "com.afollestad.ason.AsonIgnore";
+  /** Must match ClassConverter.SUFFIX. */
+  private static final String SUFFIX = "_BridgeConverter";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+    final TypeElement contentType = processingEnv.getElementUtils().getTypeElement(CONTENT_TYPE);
+    if (contentType == null) return false;
+
+    final Map<String, Binding> bindings = new LinkedHashMap<>();
+    for (TypeElement type : ElementFilter.typesIn(round.getElementsAnnotatedWith(contentType))) {
+      final Binding binding = new Binding(type);
+      final String reason = binding.bind();
+      if (reason != null) {
+        skip(type, reason);
+      } else {
+        bindings.put(type.getQualifiedName().toString(), binding);
+      }
+    }
+    // A class can only use the converter of a nested class if that one gets generated too
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Binding binding : new ArrayList<>(bindings.values())) {
+        for (Field field : binding.fields) {
+          if (field.kind == Kind.NESTED && !bindings.containsKey(field.typeName)) {
+            skip(binding.type, "field " + field.name + " has no generated converter");
+            bindings.remove(binding.type.getQualifiedName().toString());
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+    for (Binding binding : bindings.values()) {
+      binding.write(bindings);
+    }
+    return false;
+  }
+
+  private void skip(TypeElement type, String reason) {
+    processingEnv
+        .getMessager()
+        .printMessage(
+            Diagnostic.Kind.NOTE,
+            "Not generating a converter for "
+                + type.getQualifiedName()
+                + ", "
+                + reason
+                + ". It's converted with reflection instead.",
+            type);
+  }
+
+  private enum Kind {
+    PRIMITIVE,
+    BOXED,
+    STRING,
+    NESTED
+  }
+
+  /** A bound field. For primitives and boxed primitives, typeName is the primitive's name. */
+  private static final class Field {
+
+    final String name;
+    final String path;
+    final Kind kind;
+    final String typeName;
+
+    Field(String name, String path, Kind kind, String typeName) {
+      this.name = name;
+      this.path = path;
+      this.kind = kind;
+      this.typeName = typeName;
+    }
+  }
+
+  private final class Binding {
+
+    final TypeElement type;
+    final List<Field> fields = new ArrayList<>();
+    String contentType;
+
+    Binding(TypeElement type) {
+      this.type = type;
+    }
+
+    /** Collects the fields, returning why the class can't be generated for, or null. */
+    String bind() {
+      contentType = annotationValue(type, CONTENT_TYPE, "value");
+      if (contentType == null || !(isJson(contentType) || isCbor(contentType))) {
+        return "its content type isn't JSON or CBOR";
+      }
+      if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+        return "it isn't a concrete class";
+      } else if (!type.getTypeParameters().isEmpty()) {
+        return "it has type parameters";
+      } else if (!type.getSuperclass().toString().equals("java.lang.Object")) {
+        return "it has a superclass";
+      }
+      for (Element element = type;
+          element.getKind().isClass() || element.getKind().isInterface();
+          element = element.getEnclosingElement()) {
+        final TypeElement enclosing = (TypeElement) element;
+        if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+          return "it isn't accessible from its package";
+        } else if (enclosing.getNestingKind() == NestingKind.MEMBER
+            && !enclosing.getModifiers().contains(Modifier.STATIC)) {
+          return "it's an inner class";
+        } else if (enclosing.getNestingKind() == NestingKind.LOCAL
+            || enclosing.getNestingKind() == NestingKind.ANONYMOUS) {
+          return "it's a local class";
+        }
+      }
+      if (!hasNoArgConstructor()) {
+        return "it has no non-private no-arg constructor";
+      }
+
+      for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+        final Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC)
+            || modifiers.contains(Modifier.TRANSIENT)
+            || hasAnnotation(field, ASON_IGNORE)) {
+          continue;
+        }
+        final String name = field.getSimpleName().toString();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+          return "field " + name + " is private";
+        } else if (modifiers.contains(Modifier.FINAL)) {
+          return "field " + name + " is final";
+        }
+        final String asonName = annotationValue(field, ASON_NAME, "name");
+        final String path = asonName != null && !asonName.isEmpty() ? asonName : name;
+        final Field bound = bindField(name, path, field.asType());
+        if (bound == null) {
+          return "field " + name + " is a " + field.asType() + ", which isn't supported";
+        }
+        fields.add(bound);
+      }
+      return null;
+    }
+
+    private boolean hasNoArgConstructor() {
+      for (ExecutableElement constructor :
+          ElementFilter.constructorsIn(type.getEnclosedElements())) {
+        if (constructor.getParameters().isEmpty()
+            && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private Field bindField(String name, String path, TypeMirror fieldType) {
+      if (fieldType.getKind().isPrimitive()) {
+        return new Field(name, path, Kind.PRIMITIVE, fieldType.toString());
+      } else if (fieldType.getKind() != TypeKind.DECLARED) {
+        return null;
+      }
+      final TypeElement element = (TypeElement) ((DeclaredType) fieldType).asElement();
+      final String qualifiedName = element.getQualifiedName().toString();
+      if (qualifiedName.equals("java.lang.String")) {
+        return new Field(name, path, Kind.STRING, qualifiedName);
+      }
+      try {
+        final TypeKind primitive = processingEnv.getTypeUtils().unboxedType(fieldType).getKind();
+        return new Field(name, path, Kind.BOXED, primitive.name().toLowerCase());
+      } catch (IllegalArgumentException notBoxed) {
+        // Falls through to nested classes
+      }
+      if (hasAnnotation(element, CONTENT_TYPE)) {
+        return new Field(name, path, Kind.NESTED, qualifiedName);
+      }
+      return null;
+    }
+
+    void write(Map<String, Binding> bindings) {
+      final String packageName =
+          processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+      final String className = converterName(type);
+      final String typeName = type.getQualifiedName().toString();
+      final StringBuilder source = new StringBuilder();
+      if (!packageName.isEmpty()) {
+        source.append("package ").append(packageName).append(";\n\n");
+      }
+      source
+          .append("import com.afollestad.bridge.conversion.ClassConverter;\n")
+          .append("import org.json.JSONObject;\n\n")
+          .append("/** Generated by bridge-processor for {@link ")
+          .append(typeName)
+          .append("}, do not edit. */\n")
+          .append("public final class ")
+          .append(className)
+          .append(" extends ClassConverter<")
+          .append(typeName)
+          .append("> {\n\n")
+          .append("  public static final ")
+          .append(className)
+          .append(" INSTANCE = new ")
+          .append(className)
+          .append("();\n\n")
+          .append("  public ")
+          .append(className)
+          .append("() {\n")
+          .append("    super(")
+          .append(literal(contentType))
+          .append(");\n")
+          .append("  }\n\n");
+
+      source
+          .append("  @Override\n")
+          .append("  public JSONObject toJson(")
+          .append(typeName)
+          .append(" object) {\n")
+          .append("    final JSONObject json = new JSONObject();\n");
+      for (Field field : fields) {
+        source.append("    put(json, ").append(literal(field.path)).append(", ");
+        if (field.kind == Kind.NESTED) {
+          source
+              .append("object.")
+              .append(field.name)
+              .append(" != null ? ")
+              .append(converterReference(bindings.get(field.typeName)))
+              .append(".toJson(object.")
+              .append(field.name)
+              .append(") : null");
+        } else {
+          source.append("object.").append(field.name);
+        }
+        source.append(");\n");
+      }
+      source.append("    return json;\n").append("  }\n\n");
+
+      source
+          .append("  @Override\n")
+          .append("  public ")
+          .append(typeName)
+          .append(" fromJson(JSONObject json) {\n")
+          .append("    final ")
+          .append(typeName)
+          .append(" object = new ")
+          .append(typeName)
+          .append("();\n");
+      if (!fields.isEmpty()) {
+        source.append("    Object value;\n");
+      }
+      for (Field field : fields) {
+        source
+            .append("    value = get(json, ")
+            .append(literal(field.path))
+            .append(");\n")
+            .append("    if (value != null) object.")
+            .append(field.name)
+            .append(" = ")
+            .append(readExpression(field, bindings))
+            .append(";\n");
+      }
+      source.append("    return object;\n").append("  }\n\n");
+
+      source
+          .append("  @Override\n")
+          .append("  protected ")
+          .append(typeName)
+          .append("[] newArray(int length) {\n")
+          .append("    return new ")
+          .append(typeName)
+          .append("[length];\n")
+          .append("  }\n")
+          .append("}\n");
+
+      final String qualifiedName =
+          packageName.isEmpty() ? className : packageName + "." + className;
+      try {
+        final Writer writer =
+            processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+        try {
+          writer.write(source.toString());
+        } finally {
+          writer.close();
+        }
+      } catch (IOException e) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                "Failed to write " + qualifiedName + ": " + e.getMessage(),
+                type);
+      }
+    }
+  }
+
+  private String readExpression(Field field, Map<String, Binding> bindings) {
+    switch (field.kind) {
+      case STRING:
+        return "value.toString()";
+      case NESTED:
+        return converterReference(bindings.get(field.typeName)) + ".fromJson((JSONObject) value)";
+      default:
+        switch (field.typeName) {
+          case "boolean":
+            return "(Boolean) value";
+          case "char":
+            return "character(value)";
+          default:
+            return "number(value)." + field.typeName + "Value()";
+        }
+    }
+  }
+
+  private String converterReference(Binding binding) {
+    final String packageName =
+        processingEnv.getElementUtils().getPackageOf(binding.type).getQualifiedName().toString();
+    final String className = converterName(binding.type);
+    return (packageName.isEmpty() ? className : packageName + "." + className) + ".INSTANCE";
+  }
+
+  /**
+   * The binary name after the package, so nested classes get a top-level converter. The $ is kept:
+   * binary names are unique, but with it replaced, a.B$C and a top-level a.B_C would collide.
+   */
+  private String converterName(TypeElement type) {
+    final String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+    final String packageName =
+        processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    final String simpleName =
+        packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+    return simpleName + SUFFIX;
+  }
+
+  private static boolean isJson(String contentType) {
+    final String type = baseType(contentType);
+    return type.equals("application/json") || type.equals("text/plain") || type.endsWith("+json");
+  }
+
+  private static boolean isCbor(String contentType) {
+    final String type = baseType(contentType);
+    return type.equals("application/cbor") || type.endsWith("+cbor");
+  }
+
+  private static String baseType(String contentType) {
+    final int params = contentType.indexOf(';');
+    return (params != -1 ? contentType.substring(0, params) : contentType).trim();
+  }
+
+  private static boolean hasAnnotation(Element element, String annotation) {
+    return mirror(element, annotation) != null;
+  }
+
+  private static String annotationValue(Element element, String annotation, String member) {
+    final AnnotationMirror mirror = mirror(element, annotation);
+    if (mirror == null) return null;
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        mirror.getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals(member)) {
+        return (String) entry.getValue().getValue();
+      }
+    }
+    return null;
+  }
+
+  private static AnnotationMirror mirror(Element element, String annotation) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      final TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotation)) {
+        return mirror;
+      }
+    }
+    return null;
+  }
+
+  /** A Java string literal, escaping what a content type or field path could contain. */
+  private static String literal(String value) {
+    final StringBuilder literal = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        literal.append('\\').append(c);
+      } else if (c < 0x20 || c > 0x7e) {
+        literal.append(String.format("\\u%04x", (int) c));
+      } else {
+        literal.append(c);
+      }
+    }
+    return literal.append('"').toString();
+  }
+}
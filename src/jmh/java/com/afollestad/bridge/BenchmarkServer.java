@@ -0,0 +1,163 @@
+package com.afollestad.bridge;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process HTTP server for the benchmarks, bound to an ephemeral port on the loopback
+ * interface so results don't depend on the network.
+ *
+ * <ul>
+ *   <li>/json responds with a small JSON object
+ *   <li>/list responds with a JSON array of {@link #LIST_SIZE} objects
+ *   <li>/gzip responds with the /list payload, gzip encoded
+ *   <li>/bytes?size=n responds with n bytes
+ *   <li>/upload reads the request body and responds with its length
+ *   <li>/headers responds with a small JSON object and headers typical of an API
+ * </ul>
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class BenchmarkServer {
+
+  static final int LIST_SIZE = 100;
+  static final String PERSON =
+      "{\"id\":1,\"name\":\"Aidan\",\"email\":\"aidan@example.com\",\"age\":24,\"admin\":false}";
+
+  static {
+    // Without this, small responses are held back by Nagle's algorithm for the client's ~40ms
+    // delayed ACK, which would dwarf everything being measured.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  BenchmarkServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newCachedThreadPool(BridgeUtil.daemonThreadFactory("BenchmarkServer"));
+    server.setExecutor(executor);
+
+    final byte[] person = PERSON.getBytes("UTF-8");
+    final byte[] list = list().getBytes("UTF-8");
+    final byte[] gzipped = gzip(list);
+    server.createContext("/json", fixed(person, "application/json", null));
+    server.createContext("/list", fixed(list, "application/json", null));
+    server.createContext("/gzip", fixed(gzipped, "application/json", "gzip"));
+    server.createContext(
+        "/headers",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            drain(exchange.getRequestBody());
+            final com.sun.net.httpserver.Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "application/json; charset=utf-8");
+            headers.set("Cache-Control", "no-cache, no-store, must-revalidate");
+            headers.set("ETag", "W/\"4f-1a2b3c\"");
+            headers.set("Vary", "Accept-Encoding");
+            headers.set("Server", "BenchmarkServer");
+            headers.set("X-Request-Id", "0f8fad5b-d9cb-469f-a165-70867728950e");
+            headers.add("Set-Cookie", "session=abc; Path=/; HttpOnly");
+            headers.add("Set-Cookie", "theme=dark; Path=/");
+            exchange.sendResponseHeaders(200, person.length);
+            exchange.getResponseBody().write(person);
+            exchange.close();
+          }
+        });
+    server.createContext(
+        "/bytes",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            final String query = exchange.getRequestURI().getQuery();
+            final int size = Integer.parseInt(query.substring(query.indexOf('=') + 1));
+            final byte[] chunk = new byte[8192];
+            Arrays.fill(chunk, (byte) 'a');
+            drain(exchange.getRequestBody());
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, size);
+            final OutputStream os = exchange.getResponseBody();
+            for (int written = 0; written < size; written += chunk.length) {
+              os.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+            exchange.close();
+          }
+        });
+    server.createContext(
+        "/upload",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            final byte[] body = Long.toString(drain(exchange.getRequestBody())).getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+          }
+        });
+    server.start();
+  }
+
+  private static String list() {
+    final StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < LIST_SIZE; i++) {
+      if (i > 0) sb.append(',');
+      sb.append(PERSON.replace("\"id\":1", "\"id\":" + i));
+    }
+    return sb.append(']').toString();
+  }
+
+  static byte[] gzip(byte[] data) throws IOException {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final GZIPOutputStream gos = new GZIPOutputStream(bos);
+    gos.write(data);
+    gos.close();
+    return bos.toByteArray();
+  }
+
+  private static long drain(InputStream is) throws IOException {
+    final byte[] buf = new byte[8192];
+    long total = 0;
+    int read;
+    while ((read = is.read(buf)) != -1) total += read;
+    is.close();
+    return total;
+  }
+
+  private static HttpHandler fixed(
+      final byte[] body, final String contentType, final String contentEncoding) {
+    return new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (contentEncoding != null) {
+          exchange.getResponseHeaders().set("Content-Encoding", contentEncoding);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    };
+  }
+
+  String url(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
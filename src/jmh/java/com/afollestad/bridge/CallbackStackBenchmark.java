@@ -0,0 +1,92 @@
+package com.afollestad.bridge;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Pushing callbacks onto a {@link CallbackStack}, then firing a response and progress to all of
+ * them, as happens when identical async requests are de-duplicated. {@link #progressPerRead()}
+ * reports progress the way a download does, after every buffer read.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CallbackStackBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int fanOut;
+
+  private RequestBuilder builder;
+  private Request request;
+  private Response response;
+  private Callback[] callbacks;
+
+  @Setup
+  public void setup(final Blackhole blackhole) throws IOException {
+    builder = Bridge.get("http://127.0.0.1/fan-out");
+    request = new Request(builder);
+    response = new Response(new byte[0], request.url(), 200, "OK", new Headers(), false, 0);
+    callbacks = new Callback[fanOut];
+    for (int i = 0; i < fanOut; i++) {
+      callbacks[i] =
+          new Callback() {
+            @Override
+            public void response(
+                @NotNull Request request,
+                @Nullable Response response,
+                @Nullable BridgeException e) {
+              blackhole.consume(response);
+            }
+
+            @Override
+            public void progress(Request request, int current, int total, int percent) {
+              blackhole.consume(percent);
+            }
+          };
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    Bridge.destroy();
+  }
+
+  @Benchmark
+  public void pushAndFire() {
+    final CallbackStack stack = new CallbackStack();
+    for (Callback callback : callbacks) {
+      stack.push(callback, request);
+    }
+    stack.fireAllProgress(request, 50, 100);
+    stack.fireAll(response, null);
+  }
+
+  /** A 1 MB download read 4 KB at a time, with progress reported after every read. */
+  @Benchmark
+  public void progressPerRead() {
+    final BridgeClient client = Bridge.client();
+    final Request request = new Request(builder);
+    for (Callback callback : callbacks) {
+      client.pushCallback(request, callback);
+    }
+    final int reads = 256;
+    for (int read = 0; read <= reads; read++) {
+      client.fireProgress(request, read * 4096, reads * 4096);
+    }
+    client.fireCallbacks(request, response, null);
+  }
+}
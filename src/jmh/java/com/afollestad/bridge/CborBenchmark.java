@@ -0,0 +1,101 @@
+package com.afollestad.bridge;
+
+import com.afollestad.bridge.conversion.CborConverter;
+import com.afollestad.bridge.conversion.IConverter;
+import com.afollestad.bridge.conversion.JsonConverter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Encodes and decodes the same list of objects as JSON and as CBOR, without any I/O. The payload
+ * size of each is printed during setup.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CborBenchmark {
+
+  public static class Person {
+    public int id;
+    public String name;
+    public String email;
+    public int age;
+    public double score;
+    public boolean admin;
+
+    public Person() {}
+  }
+
+  @Param({"100"})
+  public int size;
+
+  private final IConverter json = new JsonConverter();
+  private final IConverter cbor = new CborConverter();
+  private List<Object> people;
+  private byte[] jsonBody;
+  private byte[] cborBody;
+
+  @Setup
+  public void setup() throws Exception {
+    people = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      final Person person = new Person();
+      person.id = i;
+      person.name = "Person " + i;
+      person.email = "person" + i + "@example.com";
+      person.age = 20 + i % 50;
+      person.score = i * 1.25;
+      person.admin = i % 10 == 0;
+      people.add(person);
+    }
+    jsonBody = json.serializeList(people);
+    cborBody = cbor.serializeList(people);
+    System.out.printf(
+        "%nPayload for %d objects: JSON %d bytes, CBOR %d bytes%n",
+        size, jsonBody.length, cborBody.length);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Bridge.destroy();
+  }
+
+  private static Response response(byte[] data, String contentType) throws IOException {
+    final Headers headers = new Headers();
+    headers.add("Content-Type", contentType);
+    return new Response(data, "http://127.0.0.1/", 200, "OK", headers, false, 0);
+  }
+
+  @Benchmark
+  public byte[] encodeJson() throws Exception {
+    return json.serializeList(people);
+  }
+
+  @Benchmark
+  public byte[] encodeCbor() throws Exception {
+    return cbor.serializeList(people);
+  }
+
+  @Benchmark
+  public List<Person> decodeJson() throws Exception {
+    return response(jsonBody, "application/json").asClassList(Person.class);
+  }
+
+  @Benchmark
+  public List<Person> decodeCbor() throws Exception {
+    return response(cborBody, "application/cbor").asClassList(Person.class);
+  }
+}
@@ -0,0 +1,85 @@
+package com.afollestad.bridge;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Response decoding and conversion, without any I/O. A new {@link Response} is created for each
+ * operation so its internal caches don't skew the results.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversionBenchmark {
+
+  public static class Person {
+    public int id;
+    public String name;
+    public String email;
+    public int age;
+    public boolean admin;
+
+    public Person() {}
+  }
+
+  private byte[] person;
+  private byte[] list;
+  private byte[] gzipped;
+
+  @Setup
+  public void setup() throws IOException {
+    person = BenchmarkServer.PERSON.getBytes("UTF-8");
+    final StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < BenchmarkServer.LIST_SIZE; i++) {
+      if (i > 0) sb.append(',');
+      sb.append(BenchmarkServer.PERSON);
+    }
+    list = sb.append(']').toString().getBytes("UTF-8");
+    gzipped = BenchmarkServer.gzip(list);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Bridge.destroy();
+  }
+
+  private static Response response(byte[] data, String contentEncoding) throws IOException {
+    final Headers headers = new Headers();
+    headers.add("Content-Type", "application/json");
+    if (contentEncoding != null) {
+      headers.add("Content-Encoding", contentEncoding);
+    }
+    return new Response(data, "http://127.0.0.1/", 200, "OK", headers, false, 0);
+  }
+
+  @Benchmark
+  public Person asClass() throws Exception {
+    return response(person, null).asClass(Person.class);
+  }
+
+  @Benchmark
+  public List<Person> asClassList() throws Exception {
+    return response(list, null).asClassList(Person.class);
+  }
+
+  @Benchmark
+  public byte[] gzipDecode() throws Exception {
+    return response(gzipped, "gzip").asBytes();
+  }
+
+  @Benchmark
+  public List<Person> gzipDecodeAndConvert() throws Exception {
+    return response(gzipped, "gzip").asClassList(Person.class);
+  }
+}
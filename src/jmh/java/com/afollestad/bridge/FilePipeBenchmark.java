@@ -0,0 +1,75 @@
+package com.afollestad.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Writes a file through {@link FilePipe} into an output stream that discards it, so only the cost
+ * of reading the file is measured. The file is written once in setup and stays in the page cache.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilePipeBenchmark {
+
+  @Param({"1048576", "67108864"})
+  public int fileSize;
+
+  private File file;
+
+  @Setup
+  public void setup() throws IOException {
+    file = File.createTempFile("bridge-bench", ".bin");
+    final byte[] block = new byte[1024 * 1024];
+    new Random(0).nextBytes(block);
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      for (int written = 0; written < fileSize; written += block.length) {
+        raf.write(block, 0, Math.min(block.length, fileSize - written));
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void writeTo(final Blackhole blackhole) throws IOException {
+    final Pipe pipe = Pipe.forFile(file);
+    pipe.writeTo(
+        new OutputStream() {
+          @Override
+          public void write(int b) {
+            blackhole.consume(b);
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) {
+            blackhole.consume(b[off]);
+          }
+        },
+        null,
+        8192);
+    pipe.close();
+  }
+}
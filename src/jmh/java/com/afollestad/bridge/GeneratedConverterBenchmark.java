@@ -0,0 +1,94 @@
+package com.afollestad.bridge;
+
+import com.afollestad.ason.AsonName;
+import com.afollestad.bridge.annotations.ContentType;
+import com.afollestad.bridge.conversion.ClassConverter;
+import com.afollestad.bridge.conversion.IConverter;
+import com.afollestad.bridge.conversion.JsonConverter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Converts a small object with Ason's reflection and with the converter bridge-processor generates
+ * for it, without any I/O.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeneratedConverterBenchmark {
+
+  @ContentType("application/json")
+  public static class Person {
+    public int id;
+    public String name;
+    public String email;
+    public int age;
+    public boolean admin;
+
+    @AsonName(name = "address.city")
+    public String city;
+
+    public Person() {}
+  }
+
+  private final IConverter reflection = new JsonConverter();
+  private IConverter generated;
+  private Person person;
+  private byte[] body;
+
+  @Setup
+  public void setup() throws Exception {
+    generated = ClassConverter.generatedFor(Person.class);
+    if (generated == null) {
+      throw new IllegalStateException("No converter was generated for Person.");
+    }
+    person = new Person();
+    person.id = 1;
+    person.name = "Aidan";
+    person.email = "aidan@example.com";
+    person.age = 21;
+    person.city = "Minneapolis";
+    body = reflection.serialize(person);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Bridge.destroy();
+  }
+
+  private Response response() throws IOException {
+    final Headers headers = new Headers();
+    headers.add("Content-Type", "application/json");
+    return new Response(body, "http://127.0.0.1/", 200, "OK", headers, false, 0);
+  }
+
+  @Benchmark
+  public byte[] serializeReflection() throws Exception {
+    return reflection.serialize(person);
+  }
+
+  @Benchmark
+  public byte[] serializeGenerated() throws Exception {
+    return generated.serialize(person);
+  }
+
+  @Benchmark
+  public Person deserializeReflection() throws Exception {
+    return reflection.deserialize(response(), Person.class);
+  }
+
+  @Benchmark
+  public Person deserializeGenerated() throws Exception {
+    return generated.deserialize(response(), Person.class);
+  }
+}
@@ -0,0 +1,85 @@
+package com.afollestad.bridge;
+
+import com.afollestad.bridge.annotations.Header;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Binds @Header fields to and from headers, with the cached binding and with the annotations looked
+ * up on every call.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeaderBindingBenchmark {
+
+  public static class Tagged {
+    public String name;
+    public int age;
+
+    @Header(name = "X-Request-Id")
+    public String requestId;
+
+    @Header(name = "X-Rate-Limit")
+    public int rateLimit;
+
+    public Tagged() {}
+  }
+
+  private Tagged tagged;
+  private Response response;
+
+  @Setup
+  public void setup() throws IOException {
+    tagged = new Tagged();
+    tagged.requestId = "3f2a";
+    tagged.rateLimit = 100;
+    final Headers headers = new Headers();
+    headers.add("X-Request-Id", "3f2a");
+    headers.add("X-Rate-Limit", "100");
+    response = new Response(new byte[0], "http://127.0.0.1/", 200, "OK", headers, false, 0);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Bridge.destroy();
+  }
+
+  @Benchmark
+  public RequestBuilder writeCached() {
+    final RequestBuilder builder = Bridge.post("http://127.0.0.1/");
+    HeaderBinding.of(Tagged.class).writeTo(tagged, builder);
+    return builder;
+  }
+
+  @Benchmark
+  public RequestBuilder writeUncached() throws Exception {
+    final RequestBuilder builder = Bridge.post("http://127.0.0.1/");
+    for (Field field : Tagged.class.getDeclaredFields()) {
+      final Header header = field.getAnnotation(Header.class);
+      if (header == null) continue;
+      field.setAccessible(true);
+      final Object value = field.get(tagged);
+      if (value != null) builder.header(header.name(), value);
+    }
+    return builder;
+  }
+
+  @Benchmark
+  public Tagged readCached() {
+    final Tagged result = new Tagged();
+    HeaderBinding.of(Tagged.class).readFrom(response, result);
+    return result;
+  }
+}
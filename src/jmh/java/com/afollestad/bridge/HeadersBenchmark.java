@@ -0,0 +1,70 @@
+package com.afollestad.bridge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The header handling done for each request: applying the default headers plus one of its own, and
+ * reading about ten response headers then looking up the ones Bridge uses. Run with -prof gc to see
+ * the allocation per operation.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeadersBenchmark {
+
+  private BenchmarkServer server;
+  private String url;
+  private HttpURLConnection connection;
+
+  @Setup
+  public void setup() throws IOException {
+    server = new BenchmarkServer();
+    url = server.url("/headers");
+    // The connection keeps the parsed response headers, so it can be read from repeatedly
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    final InputStream is = connection.getInputStream();
+    //noinspection StatementWithEmptyBody
+    while (is.read() != -1) {}
+    is.close();
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop();
+    Bridge.destroy();
+  }
+
+  @Benchmark
+  public void requestHeaders(Blackhole blackhole) {
+    final Headers headers = Bridge.get(url).header("X-Request-Id", "1").headers;
+    for (int i = 0; i < headers.size(); i++) {
+      blackhole.consume(headers.name(i));
+      blackhole.consume(headers.value(i));
+    }
+  }
+
+  @Benchmark
+  public void responseHeaders(Blackhole blackhole) throws IOException {
+    final Response response =
+        new Response(null, url, 200, "OK", Request.readHeaders(connection), false, 0);
+    blackhole.consume(response.contentType());
+    blackhole.consume(response.contentEncoding());
+    blackhole.consume(response.contentLength());
+    blackhole.consume(response.header("Location"));
+  }
+}
@@ -0,0 +1,69 @@
+package com.afollestad.bridge;
+
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Makes the log calls a single successful GET request makes. Run with -prof gc; with logging
+ * disabled, gc.alloc.rate.norm should be 0 bytes per operation.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggingBenchmark {
+
+  @Param({"false", "true"})
+  public boolean logging;
+
+  private final String url = "https://api.example.com/users/1";
+  private final String key = "GET:" + url;
+  private final String body = "{\"name\":\"Aidan\",\"password\":\"hunter2\"}";
+  private int responseCode = 200;
+  private long bytesRead = 1024;
+
+  @Setup
+  public void setup() {
+    Bridge.config()
+        .logging(logging)
+        .logRedact("\"password\":\"[^\"]*\"")
+        .logger(
+            new BridgeLogger() {
+              @Override
+              public void d(@NotNull String tag, @NotNull String message) {}
+
+              @Override
+              public void e(@NotNull String tag, @NotNull String message) {}
+            });
+  }
+
+  @TearDown
+  public void tearDown() {
+    Bridge.destroy();
+  }
+
+  @Benchmark
+  public void request() {
+    LogCompat.d(this, "%s %s", "GET", url);
+    LogCompat.body(this, "Body", body);
+    LogCompat.d(this, "Pushing callback to NEW stack for %s", key);
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(this, "%s %s status: %s %s", "GET", url, responseCode, "OK");
+    }
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(this, "Read %d bytes from the %s %s response.", bytesRead, "GET", url);
+    }
+    LogCompat.d(this, "%s %s request completed successfully.", "GET", url);
+    LogCompat.d(this, "Attempting to fire callbacks for %s", key);
+  }
+}
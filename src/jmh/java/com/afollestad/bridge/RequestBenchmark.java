@@ -0,0 +1,85 @@
+package com.afollestad.bridge;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Full round trips through {@link Bridge} against a {@link BenchmarkServer}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestBenchmark {
+
+  @Param({"1048576"})
+  public int downloadSize;
+
+  @Param({"262144"})
+  public int uploadSize;
+
+  private BenchmarkServer server;
+  private String jsonUrl;
+  private String gzipUrl;
+  private String bytesUrl;
+  private String uploadUrl;
+  private byte[] upload;
+
+  @Setup
+  public void setup() throws IOException {
+    server = new BenchmarkServer();
+    jsonUrl = server.url("/json");
+    gzipUrl = server.url("/gzip");
+    bytesUrl = server.url("/bytes?size=" + downloadSize);
+    uploadUrl = server.url("/upload");
+    upload = new byte[uploadSize];
+    new Random(0).nextBytes(upload);
+    Bridge.config().bufferSize(8192);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop();
+    Bridge.destroy();
+  }
+
+  @Benchmark
+  public String smallJsonGet() throws BridgeException {
+    return Bridge.get(jsonUrl).asString();
+  }
+
+  @Benchmark
+  public byte[] largeBodyDownload() throws BridgeException {
+    return Bridge.get(bytesUrl).asBytes();
+  }
+
+  @Benchmark
+  public String gzipGet() throws BridgeException {
+    return Bridge.get(gzipUrl).asString();
+  }
+
+  @Benchmark
+  public String multipartUpload() throws Exception {
+    final MultipartForm form =
+        new MultipartForm()
+            .add("name", "benchmark")
+            .add(
+                "file",
+                "upload.bin",
+                Pipe.forStream(
+                    new ByteArrayInputStream(upload), "application/octet-stream", "upload"));
+    return Bridge.post(uploadUrl).body(form).asString();
+  }
+}
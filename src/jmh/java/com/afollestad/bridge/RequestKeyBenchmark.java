@@ -0,0 +1,47 @@
+package com.afollestad.bridge;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Builds the duplicate avoidance key of a POST request, which hashes its whole body before the
+ * request is sent.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestKeyBenchmark {
+
+  @Param({"1024", "1048576"})
+  public int bodySize;
+
+  private Request request;
+
+  @Setup
+  public void setup() {
+    final byte[] body = new byte[bodySize];
+    new Random(0).nextBytes(body);
+    request = new Request(Bridge.post("http://127.0.0.1/upload").body(body));
+  }
+
+  @TearDown
+  public void tearDown() {
+    Bridge.destroy();
+  }
+
+  @Benchmark
+  public String postKey() {
+    return CallbackStack.createKey(request);
+  }
+}
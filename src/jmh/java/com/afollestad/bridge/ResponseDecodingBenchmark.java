@@ -0,0 +1,85 @@
+package com.afollestad.bridge;
+
+import com.afollestad.ason.AsonArray;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reads a gzipped JSON array body the way callers tend to, as a String and then parsed, a few times
+ * over from the same Response. The cold benchmarks use a fresh Response each time, so they measure
+ * the single decode; the warm ones reuse one, so they measure what asking again costs.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseDecodingBenchmark {
+
+  private byte[] gzipped;
+  private Headers headers;
+  private Response warm;
+
+  @Setup
+  public void setup() throws IOException {
+    final StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 500; i++) {
+      if (i > 0) json.append(',');
+      json.append("{\"id\":").append(i).append(",\"name\":\"Caf\u00e9 ").append(i).append("\"}");
+    }
+    json.append(']');
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    final GZIPOutputStream gzip = new GZIPOutputStream(os);
+    gzip.write(json.toString().getBytes("UTF-8"));
+    gzip.close();
+    gzipped = os.toByteArray();
+    headers = new Headers();
+    headers.add("Content-Type", "application/json; charset=utf-8");
+    headers.add("Content-Encoding", "gzip");
+  }
+
+  @Setup(Level.Iteration)
+  public void newResponse() throws IOException {
+    warm = newResponse(gzipped);
+  }
+
+  private Response newResponse(byte[] body) throws IOException {
+    return new Response(body, "http://127.0.0.1/", 200, "OK", headers, false, 0);
+  }
+
+  @Benchmark
+  public String coldString() throws IOException {
+    return newResponse(gzipped).asString();
+  }
+
+  @Benchmark
+  public int coldCharSequence() throws IOException {
+    return newResponse(gzipped).asCharSequence().length();
+  }
+
+  @Benchmark
+  public JSONArray coldJsonArray() throws Exception {
+    return newResponse(gzipped).asJsonArray();
+  }
+
+  @Benchmark
+  public int warmStringTwice() {
+    return warm.asString().length() + warm.asString().length();
+  }
+
+  @Benchmark
+  public AsonArray<?> warmAsonArray() throws BridgeException {
+    return warm.asAsonArray();
+  }
+}
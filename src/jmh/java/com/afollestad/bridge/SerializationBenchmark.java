@@ -0,0 +1,100 @@
+package com.afollestad.bridge;
+
+import com.afollestad.bridge.conversion.IConverter;
+import com.afollestad.bridge.conversion.JsonConverter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Serializes a list request body into a sink that discards it, standing in for the connection. Run
+ * with -prof gc to compare how much each approach allocates per body.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+  public static class Person {
+    public int id;
+    public String name;
+    public String email;
+    public int age;
+    public boolean admin;
+
+    public Person() {}
+  }
+
+  @Param({"100", "10000"})
+  public int size;
+
+  private final IConverter converter = new JsonConverter();
+  private List<Object> people;
+
+  @Setup
+  public void setup() {
+    people = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      final Person person = new Person();
+      person.id = i;
+      person.name = "Person " + i;
+      person.email = "person" + i + "@example.com";
+      person.age = 20 + i % 50;
+      person.admin = i % 10 == 0;
+      people.add(person);
+    }
+  }
+
+  /** What {@link RequestBuilder#body(List)} does before the request is sent. */
+  @Benchmark
+  public void eager(Blackhole bh) throws Exception {
+    new BlackholeStream(bh).write(converter.serializeList(people));
+  }
+
+  @Benchmark
+  public void streamedChunked(Blackhole bh) throws Exception {
+    new SerializedPipe(converter, people, "application/json", true)
+        .writeTo(new BlackholeStream(bh), null);
+  }
+
+  /** Includes the counting pass made for Content-Length. */
+  @Benchmark
+  public void streamedLength(Blackhole bh) throws Exception {
+    final SerializedPipe pipe = new SerializedPipe(converter, people, "application/json", false);
+    bh.consume(pipe.contentLength());
+    pipe.writeTo(new BlackholeStream(bh), null);
+  }
+
+  private static final class BlackholeStream extends OutputStream {
+
+    private final Blackhole bh;
+
+    BlackholeStream(Blackhole bh) {
+      this.bh = bh;
+    }
+
+    @Override
+    public void write(int b) {
+      bh.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      bh.consume(b);
+      bh.consume(len);
+    }
+  }
+}
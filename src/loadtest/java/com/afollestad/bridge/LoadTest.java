@@ -0,0 +1,318 @@
+package com.afollestad.bridge;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Drives {@link Bridge} against a {@link StubServer} and reports throughput, latency percentiles,
+ * allocation and thread counts. Exits with status 1 if retries, redirects or cancellation
+ * misbehave, or too few requests succeed, so it can run in CI.
+ *
+ * <p>Options, given as --name=value:
+ *
+ * <ul>
+ *   <li>requests: requests to measure (2000), after warmup unmeasured ones (200)
+ *   <li>concurrency: threads making requests (16)
+ *   <li>size: response body size in bytes (1024)
+ *   <li>latency: server think time in ms (0)
+ *   <li>errorRate: share of responses which are a 503 (0)
+ *   <li>slowRate: share of bodies trickled out over slowMs ms (0, 500)
+ *   <li>redirectRate: share of requests which are redirected once (0)
+ *   <li>cancelRate: share of requests which stall and are cancelled after cancelAfter ms (0, 20)
+ *   <li>retries: retries per request, with exponential backoff (0)
+ *   <li>minSuccessRate: fails the run if fewer requests succeed (0)
+ * </ul>
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class LoadTest {
+
+  private static final long CANCEL_TIMEOUT_MS = 1000;
+
+  private final Map<String, String> options;
+  private final int concurrency;
+  private final int size;
+  private final double redirectRate;
+  private final double cancelRate;
+  private final int cancelAfterMs;
+  private final int retries;
+  private StubServer server;
+
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong redirected = new AtomicLong();
+
+  private static final class Stats {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LatencyHistogram cancelLatency = new LatencyHistogram();
+    final AtomicLong succeeded = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong cancelled = new AtomicLong();
+    final AtomicLong allocatedBytes = new AtomicLong();
+    final List<String> problems = new ArrayList<>();
+
+    synchronized void problem(String problem) {
+      if (problems.size() < 20) problems.add(problem);
+    }
+  }
+
+  private LoadTest(Map<String, String> options) {
+    this.options = options;
+    concurrency = intOption("concurrency", 16);
+    size = intOption("size", 1024);
+    redirectRate = doubleOption("redirectRate", 0);
+    cancelRate = doubleOption("cancelRate", 0);
+    cancelAfterMs = intOption("cancelAfter", 20);
+    retries = intOption("retries", 0);
+  }
+
+  private int intOption(String name, int defaultValue) {
+    final String value = options.get(name);
+    return value != null ? Integer.parseInt(value) : defaultValue;
+  }
+
+  private double doubleOption(String name, double defaultValue) {
+    final String value = options.get(name);
+    return value != null ? Double.parseDouble(value) : defaultValue;
+  }
+
+  private void makeRequest(Stats stats, Random random, int id) throws Exception {
+    final double roll = random.nextDouble();
+    if (roll < cancelRate) {
+      cancelRequest(stats, id);
+      return;
+    }
+    final String payloadUrl = server.url("/payload?size=" + size + "&id=" + id);
+    final boolean redirect = roll < cancelRate + redirectRate;
+    final String url =
+        redirect
+            ? server.url("/redirect?to=" + URLEncoder.encode(payloadUrl, "UTF-8"))
+            : payloadUrl;
+    final RequestBuilder builder = Bridge.get(url).throwIfNotSuccess();
+    if (retries > 0) builder.retries(retries, Backoff.exponential(10, 200));
+
+    final long start = System.nanoTime();
+    try {
+      final Response response = builder.response();
+      stats.latency.record(System.nanoTime() - start);
+      stats.succeeded.incrementAndGet();
+      final byte[] body = response != null ? response.asBytes() : null;
+      if ((body != null ? body.length : 0) != size) {
+        stats.problem(
+            String.format(
+                "Expected %d bytes from %s, got %s", size, url, body == null ? null : body.length));
+      }
+      if (redirect && !response.didRedirect()) {
+        stats.problem("Redirect wasn't followed for " + url);
+      }
+    } catch (BridgeException e) {
+      stats.latency.record(System.nanoTime() - start);
+      stats.failed.incrementAndGet();
+    }
+  }
+
+  private void cancelRequest(Stats stats, int id) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicReference<BridgeException> error = new AtomicReference<>();
+    final Request request =
+        Bridge.get(server.url("/stall?id=" + id))
+            .request(
+                new Callback() {
+                  @Override
+                  public void response(
+                      @NotNull Request request,
+                      @Nullable Response response,
+                      @Nullable BridgeException e) {
+                    error.set(e);
+                    done.countDown();
+                  }
+                });
+    Thread.sleep(cancelAfterMs);
+    final long start = System.nanoTime();
+    request.cancel();
+    if (!done.await(CANCEL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      stats.problem("No callback within " + CANCEL_TIMEOUT_MS + "ms of cancelling " + request);
+      return;
+    }
+    stats.cancelLatency.record(System.nanoTime() - start);
+    final BridgeException e = error.get();
+    if (e == null || e.reason() != BridgeException.REASON_REQUEST_CANCELLED) {
+      stats.problem("Cancelled " + request + " completed with " + e);
+    } else {
+      stats.cancelled.incrementAndGet();
+    }
+  }
+
+  private long runPhase(final Stats stats, int requests) throws InterruptedException {
+    final AtomicInteger next = new AtomicInteger();
+    final int total = requests;
+    final Thread[] workers = new Thread[concurrency];
+    final long start = System.nanoTime();
+    for (int i = 0; i < concurrency; i++) {
+      final long seed = i;
+      workers[i] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  final Random random = new Random(seed);
+                  final long allocatedBefore = allocatedBytes();
+                  int id;
+                  while ((id = next.getAndIncrement()) < total) {
+                    try {
+                      makeRequest(stats, random, id);
+                    } catch (Exception e) {
+                      stats.problem("Unexpected " + e);
+                    }
+                  }
+                  stats.allocatedBytes.addAndGet(allocatedBytes() - allocatedBefore);
+                }
+              },
+              "LoadTest-" + i);
+      workers[i].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long allocatedBytes() {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  private static long[] gcTotals() {
+    long count = 0;
+    long time = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(bean.getCollectionCount(), 0);
+      time += Math.max(bean.getCollectionTime(), 0);
+    }
+    return new long[] {count, time};
+  }
+
+  private int run() throws Exception {
+    server =
+        new StubServer()
+            .latency(intOption("latency", 0))
+            .errorRate(doubleOption("errorRate", 0))
+            .slowBodies(doubleOption("slowRate", 0), intOption("slowMs", 500));
+    Bridge.config()
+        .eventListener(
+            new EventListener() {
+              @Override
+              public void retry(
+                  @NotNull Request request,
+                  @NotNull BridgeException cause,
+                  int attempt,
+                  long delayMs) {
+                retried.incrementAndGet();
+              }
+
+              @Override
+              public void redirect(
+                  @NotNull Request request, @NotNull String fromUrl, @NotNull String toUrl) {
+                redirected.incrementAndGet();
+              }
+            });
+    try {
+      runPhase(new Stats(), intOption("warmup", 200));
+      retried.set(0);
+      redirected.set(0);
+      server.served.set(0);
+      server.errors.set(0);
+
+      final int requests = intOption("requests", 2000);
+      final Stats stats = new Stats();
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      threads.resetPeakThreadCount();
+      final long[] gcBefore = gcTotals();
+      final long elapsed = runPhase(stats, requests);
+      final long[] gcAfter = gcTotals();
+      return report(stats, requests, elapsed, threads.getPeakThreadCount(), gcAfter, gcBefore);
+    } finally {
+      server.stop();
+      Bridge.destroy();
+    }
+  }
+
+  private int report(
+      Stats stats,
+      int requests,
+      long elapsedNanos,
+      int peakThreads,
+      long[] gcAfter,
+      long[] gcBefore) {
+    final double seconds = elapsedNanos / 1e9;
+    System.out.println("Options: " + options);
+    System.out.printf(
+        "Requests: %d in %.2fs, %.1f/s, with %d threads%n",
+        requests, seconds, requests / seconds, concurrency);
+    System.out.printf(
+        "Outcomes: %d succeeded, %d failed, %d cancelled%n",
+        stats.succeeded.get(), stats.failed.get(), stats.cancelled.get());
+    System.out.printf(
+        "Server: %d served, %d errors injected; client: %d retries, %d redirects%n",
+        server.served.get(), server.errors.get(), retried.get(), redirected.get());
+    System.out.println("Latency: " + stats.latency);
+    if (stats.cancelLatency.count() > 0) {
+      System.out.println("Cancel to callback: " + stats.cancelLatency);
+    }
+    System.out.printf(
+        "Allocated: %.1f MB on request threads, %.1f KB per request, %.1f MB/s%n",
+        stats.allocatedBytes.get() / 1048576d,
+        stats.allocatedBytes.get() / 1024d / requests,
+        stats.allocatedBytes.get() / 1048576d / seconds);
+    System.out.printf(
+        "GC: %d collections, %dms; threads: %d peak, %d live%n",
+        gcAfter[0] - gcBefore[0],
+        gcAfter[1] - gcBefore[1],
+        peakThreads,
+        ManagementFactory.getThreadMXBean().getThreadCount());
+
+    final double minSuccessRate = doubleOption("minSuccessRate", 0);
+    final long attempted = requests - stats.cancelled.get();
+    if (attempted > 0 && (double) stats.succeeded.get() / attempted < minSuccessRate) {
+      stats.problem(
+          String.format(
+              "%d of %d requests succeeded, below the minimum of %.1f%%",
+              stats.succeeded.get(), attempted, minSuccessRate * 100));
+    }
+    if (stats.problems.isEmpty()) return 0;
+    System.out.println("FAILED:");
+    for (String problem : stats.problems) {
+      System.out.println("  " + problem);
+    }
+    return 1;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+      }
+      final int index = arg.indexOf('=');
+      options.put(arg.substring(2, index), arg.substring(index + 1));
+    }
+    System.exit(new LoadTest(options).run());
+  }
+}
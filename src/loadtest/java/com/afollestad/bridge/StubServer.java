@@ -0,0 +1,188 @@
+package com.afollestad.bridge;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server for {@link LoadTest} which can inject faults, bound to an ephemeral port on
+ * the loopback interface.
+ *
+ * <ul>
+ *   <li>/payload responds with size bytes after latency ms. With probability errorRate it responds
+ *       with a 503 instead, and with probability slowRate the body is trickled out over slowMs.
+ *   <li>/redirect responds with a 302 to the URL-encoded to parameter.
+ *   <li>/stall never responds, until the client goes away or the server is stopped.
+ * </ul>
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class StubServer {
+
+  static {
+    // Otherwise small responses wait on the client's delayed ACK, adding ~40ms to each.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private final Random random = new Random();
+  final AtomicLong served = new AtomicLong();
+  final AtomicLong errors = new AtomicLong();
+
+  private volatile int latencyMs;
+  private volatile double errorRate;
+  private volatile double slowRate;
+  private volatile int slowMs = 1000;
+
+  StubServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+    executor = Executors.newCachedThreadPool(BridgeUtil.daemonThreadFactory("StubServer"));
+    server.setExecutor(executor);
+    server.createContext(
+        "/payload",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            served.incrementAndGet();
+            drain(exchange.getRequestBody());
+            final Map<String, String> query = query(exchange);
+            final int size = query.containsKey("size") ? Integer.parseInt(query.get("size")) : 0;
+            sleep(latencyMs);
+            if (chance(errorRate)) {
+              errors.incrementAndGet();
+              exchange.sendResponseHeaders(503, -1);
+              exchange.close();
+              return;
+            }
+            final byte[] chunk = new byte[Math.min(Math.max(size, 1), 8192)];
+            Arrays.fill(chunk, (byte) 'a');
+            final boolean slow = chance(slowRate);
+            final int chunks = slow ? 10 : 1;
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, size > 0 ? size : -1);
+            final OutputStream os = exchange.getResponseBody();
+            int written = 0;
+            try {
+              for (int i = 0; i < chunks; i++) {
+                final int target = (int) ((long) size * (i + 1) / chunks);
+                while (written < target) {
+                  final int count = Math.min(chunk.length, target - written);
+                  os.write(chunk, 0, count);
+                  written += count;
+                }
+                if (slow) {
+                  os.flush();
+                  sleep(slowMs / chunks);
+                }
+              }
+            } finally {
+              exchange.close();
+            }
+          }
+        });
+    server.createContext(
+        "/redirect",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            served.incrementAndGet();
+            drain(exchange.getRequestBody());
+            exchange.getResponseHeaders().set("Location", query(exchange).get("to"));
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+          }
+        });
+    server.createContext(
+        "/stall",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            served.incrementAndGet();
+            drain(exchange.getRequestBody());
+            try {
+              stopped.await(60, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.close();
+          }
+        });
+    server.start();
+  }
+
+  private static Map<String, String> query(HttpExchange exchange) throws IOException {
+    final Map<String, String> result = new HashMap<>();
+    final String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) return result;
+    for (String pair : query.split("&")) {
+      final int index = pair.indexOf('=');
+      if (index == -1) continue;
+      result.put(pair.substring(0, index), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+    }
+    return result;
+  }
+
+  private static void drain(InputStream is) throws IOException {
+    final byte[] buf = new byte[8192];
+    //noinspection StatementWithEmptyBody
+    while (is.read(buf) != -1) {}
+    is.close();
+  }
+
+  private static void sleep(int ms) {
+    if (ms <= 0) return;
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException ignored) {
+    }
+  }
+
+  private boolean chance(double rate) {
+    if (rate <= 0) return false;
+    synchronized (random) {
+      return random.nextDouble() < rate;
+    }
+  }
+
+  StubServer latency(int ms) {
+    latencyMs = ms;
+    return this;
+  }
+
+  StubServer errorRate(double rate) {
+    errorRate = rate;
+    return this;
+  }
+
+  StubServer slowBodies(double rate, int overMs) {
+    slowRate = rate;
+    slowMs = overMs;
+    return this;
+  }
+
+  String url(String path) {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  void stop() {
+    stopped.countDown();
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
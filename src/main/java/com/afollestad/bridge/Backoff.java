@@ -0,0 +1,104 @@
+package com.afollestad.bridge;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how long to wait before each retry of a failed request.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public abstract class Backoff implements Serializable {
+
+  /** Waits the same amount of time before every retry. */
+  public static Backoff fixed(long delayMs) {
+    return new Fixed(delayMs);
+  }
+
+  /**
+   * Doubles the delay with every retry, starting at baseMs and capped at maxMs. A random amount of
+   * "full jitter" is applied so that clients failing together don't retry together.
+   */
+  public static Backoff exponential(long baseMs, long maxMs) {
+    return new Exponential(baseMs, maxMs);
+  }
+
+  /**
+   * Each delay is picked randomly between baseMs and three times the previous delay, capped at
+   * maxMs. Spreads retries out better than plain exponential backoff under contention.
+   */
+  public static Backoff decorrelatedJitter(long baseMs, long maxMs) {
+    return new DecorrelatedJitter(baseMs, maxMs);
+  }
+
+  /**
+   * @param attempt the retry about to be made, starting at 1.
+   * @param previousDelayMs the delay returned for the previous retry, or 0 for the first.
+   * @return how many milliseconds to wait before making the retry.
+   */
+  public abstract long delayMs(int attempt, long previousDelayMs);
+
+  private static void checkRange(long baseMs, long maxMs) {
+    if (baseMs < 0 || maxMs < baseMs) {
+      throw new IllegalArgumentException("Backoff must satisfy 0 <= baseMs <= maxMs.");
+    }
+  }
+
+  private static final class Fixed extends Backoff {
+
+    private final long delayMs;
+
+    Fixed(long delayMs) {
+      if (delayMs < 0) {
+        throw new IllegalArgumentException("Retry delay cannot be negative.");
+      }
+      this.delayMs = delayMs;
+    }
+
+    @Override
+    public long delayMs(int attempt, long previousDelayMs) {
+      return delayMs;
+    }
+  }
+
+  private static final class Exponential extends Backoff {
+
+    private final long baseMs;
+    private final long maxMs;
+
+    Exponential(long baseMs, long maxMs) {
+      checkRange(baseMs, maxMs);
+      this.baseMs = baseMs;
+      this.maxMs = maxMs;
+    }
+
+    @Override
+    public long delayMs(int attempt, long previousDelayMs) {
+      // Cap the shift so large attempt counts can't overflow
+      final int shift = Math.min(Math.max(attempt - 1, 0), 30);
+      final long ceiling = Math.min(maxMs, baseMs << shift);
+      if (ceiling <= 0) return 0;
+      return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+  }
+
+  private static final class DecorrelatedJitter extends Backoff {
+
+    private final long baseMs;
+    private final long maxMs;
+
+    DecorrelatedJitter(long baseMs, long maxMs) {
+      checkRange(baseMs, maxMs);
+      this.baseMs = baseMs;
+      this.maxMs = maxMs;
+    }
+
+    @Override
+    public long delayMs(int attempt, long previousDelayMs) {
+      final long upper = Math.min(maxMs, Math.max(baseMs, previousDelayMs) * 3);
+      if (upper <= baseMs) return baseMs;
+      return baseMs + ThreadLocalRandom.current().nextLong(upper - baseMs + 1);
+    }
+  }
+}
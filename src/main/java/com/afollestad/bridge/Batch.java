@@ -0,0 +1,393 @@
+package com.afollestad.bridge;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sends a list of requests with bounded parallelism, delivering each result as it completes.
+ * Requests are started in list order, as far as the per-host limit allows. Created with {@link
+ * BridgeClient#batch(List)}; each builder should only be given to one batch.
+ *
+ * <p>By default every request is sent and every result is delivered (collect-all). With {@link
+ * #failFast()}, the first failure is delivered immediately, requests in flight are cancelled, and
+ * the rest are never sent.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class Batch {
+
+  private static final Object END = new Object();
+
+  private final Object LOCK = new Object();
+  private final Object DELIVERY_LOCK = new Object();
+  private final BridgeClient client;
+  private final RequestBuilder[] builders;
+  private int parallelism = 8;
+  private int perHostLimit;
+  private boolean ordered;
+  private boolean failFast;
+
+  // Everything below is guarded by LOCK
+  private boolean started;
+  private boolean stopped;
+  private Sink sink;
+  private LinkedHashMap<String, Host> hosts;
+  private Request[] inFlight;
+  private BatchResult[] outOfOrder;
+  private int nextInOrder;
+  private final ArrayDeque<BatchResult> ready = new ArrayDeque<>();
+  private int undispatched;
+  private int workers;
+  private int succeeded;
+  private int failed;
+  private boolean completed;
+
+  Batch(@NotNull BridgeClient client, @NotNull List<RequestBuilder> builders) {
+    this.client = client;
+    this.builders = builders.toArray(new RequestBuilder[builders.size()]);
+    for (RequestBuilder builder : this.builders) {
+      if (builder == null) throw new IllegalArgumentException("Batch can't contain null requests.");
+    }
+  }
+
+  /** The maximum number of requests in flight at once, 8 by default. */
+  public Batch parallelism(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be greater than 0.");
+    }
+    checkNotStarted();
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * The maximum number of requests in flight at once to a single scheme, host and port. By default
+   * only {@link #parallelism(int)} applies.
+   */
+  public Batch perHostLimit(int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Per-host limit must be greater than 0.");
+    }
+    checkNotStarted();
+    perHostLimit = limit;
+    return this;
+  }
+
+  /**
+   * Delivers results in the order of the list rather than the order they complete in. A slow
+   * request holds back the results after it, which are kept in memory meanwhile.
+   */
+  public Batch ordered() {
+    checkNotStarted();
+    ordered = true;
+    return this;
+  }
+
+  /** Stops the batch at the first failure, see the class description. */
+  public Batch failFast() {
+    checkNotStarted();
+    failFast = true;
+    return this;
+  }
+
+  /**
+   * Starts the batch and returns immediately. Results are passed to the callback one at a time; in
+   * stock Java that happens on the batch's worker threads.
+   */
+  public Batch execute(@NotNull final BatchCallback callback) {
+    final HandlerCompat handler = new HandlerCompat();
+    start(
+        new Sink() {
+          @Override
+          public void result(final BatchResult result) {
+            handler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    callback.result(result);
+                  }
+                });
+          }
+
+          @Override
+          public void complete(final int succeeded, final int failed) {
+            handler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    callback.complete(succeeded, failed);
+                  }
+                });
+          }
+        });
+    return this;
+  }
+
+  /**
+   * Starts the batch and returns its results as they become available. The iterator's hasNext()
+   * blocks until the next result arrives or the batch has finished. If the iterating thread is
+   * interrupted, the batch is cancelled.
+   */
+  @NotNull
+  public Iterator<BatchResult> results() {
+    final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    start(
+        new Sink() {
+          @Override
+          public void result(BatchResult result) {
+            queue.add(result);
+          }
+
+          @Override
+          public void complete(int succeeded, int failed) {
+            queue.add(END);
+          }
+        });
+    return new Iterator<BatchResult>() {
+      private Object next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          try {
+            next = queue.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            next = END;
+          }
+        }
+        return next != END;
+      }
+
+      @Override
+      public BatchResult next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        final BatchResult result = (BatchResult) next;
+        next = null;
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** Stops sending requests and cancels those in flight. No further results are delivered. */
+  public void cancel() {
+    final List<Request> toCancel;
+    final boolean wasStarted;
+    synchronized (LOCK) {
+      if (stopped) return;
+      toCancel = stopLocked();
+      wasStarted = started;
+    }
+    for (Request request : toCancel) request.cancel(true);
+    if (wasStarted) drain();
+  }
+
+  private void checkNotStarted() {
+    synchronized (LOCK) {
+      if (started) throw new IllegalStateException("This batch has already been started.");
+    }
+  }
+
+  private void start(Sink sink) {
+    final int workerCount;
+    synchronized (LOCK) {
+      checkNotStarted();
+      started = true;
+      this.sink = sink;
+      hosts = new LinkedHashMap<>();
+      for (int i = 0; i < builders.length; i++) {
+        final String origin = BridgeUtil.origin(builders[i].url);
+        Host host = hosts.get(origin);
+        if (host == null) {
+          host = new Host();
+          hosts.put(origin, host);
+        }
+        host.pending.add(i);
+      }
+      inFlight = new Request[builders.length];
+      if (ordered) outOfOrder = new BatchResult[builders.length];
+      undispatched = builders.length;
+      workerCount = Math.min(parallelism, builders.length);
+      workers = workerCount;
+    }
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(
+          this, "Starting batch of %d requests with %d workers.", builders.length, workerCount);
+    }
+    if (workerCount == 0) {
+      drain();
+      return;
+    }
+    for (int i = 0; i < workerCount; i++) {
+      client.execute(new Worker());
+    }
+  }
+
+  /** The host whose next request should be sent, or null if every host is at its limit. */
+  private Host nextHostLocked() {
+    Host next = null;
+    for (Host host : hosts.values()) {
+      if (host.pending.isEmpty() || (perHostLimit > 0 && host.active >= perHostLimit)) continue;
+      if (next == null || host.pending.peek() < next.pending.peek()) next = host;
+    }
+    return next;
+  }
+
+  private List<Request> stopLocked() {
+    stopped = true;
+    ready.clear();
+    final List<Request> toCancel = new ArrayList<>();
+    if (inFlight != null) {
+      for (Request request : inFlight) {
+        if (request != null) toCancel.add(request);
+      }
+    }
+    LOCK.notifyAll();
+    return toCancel;
+  }
+
+  /** Returns the requests to cancel if this result stopped the batch. */
+  private List<Request> recordLocked(BatchResult result) {
+    if (stopped) return null;
+    if (result.isSuccess()) succeeded++;
+    else failed++;
+    if (failFast && !result.isSuccess()) {
+      final List<Request> toCancel = stopLocked();
+      ready.add(result);
+      return toCancel;
+    }
+    if (!ordered) {
+      ready.add(result);
+      return null;
+    }
+    outOfOrder[result.index()] = result;
+    while (nextInOrder < outOfOrder.length && outOfOrder[nextInOrder] != null) {
+      ready.add(outOfOrder[nextInOrder]);
+      outOfOrder[nextInOrder++] = null;
+    }
+    return null;
+  }
+
+  /**
+   * Hands ready results to the sink, one thread at a time so they stay in order, followed by the
+   * completion once the last worker has finished.
+   */
+  private void drain() {
+    synchronized (DELIVERY_LOCK) {
+      while (true) {
+        final BatchResult result;
+        final int succeededCount;
+        final int failedCount;
+        synchronized (LOCK) {
+          result = ready.poll();
+          if (result == null && (workers > 0 || completed)) return;
+          if (result == null) completed = true;
+          succeededCount = succeeded;
+          failedCount = failed;
+        }
+        if (result != null) {
+          sink.result(result);
+        } else {
+          if (LogCompat.isEnabled()) {
+            LogCompat.d(
+                this, "Batch complete, %d succeeded and %d failed.", succeededCount, failedCount);
+          }
+          sink.complete(succeededCount, failedCount);
+          return;
+        }
+      }
+    }
+  }
+
+  private final class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        while (sendNext()) {
+          drain();
+        }
+      } finally {
+        synchronized (LOCK) {
+          workers--;
+        }
+        drain();
+      }
+    }
+
+    /** Sends the next request and records its result, or returns false if there's none left. */
+    private boolean sendNext() {
+      final int index;
+      final Host host;
+      final Request request;
+      synchronized (LOCK) {
+        Host next;
+        while (true) {
+          if (stopped || undispatched == 0) return false;
+          next = nextHostLocked();
+          if (next != null) break;
+          try {
+            LOCK.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+          }
+        }
+        host = next;
+        index = host.pending.poll();
+        host.active++;
+        undispatched--;
+        request = builders[index].prepare();
+        inFlight[index] = request;
+      }
+
+      BridgeException error = null;
+      try {
+        request.start();
+      } catch (BridgeException e) {
+        error = e;
+      } catch (RuntimeException e) {
+        // e.g. too many redirects, reported like any other failure so the batch carries on
+        error = new BridgeException(request, e);
+      }
+
+      final List<Request> toCancel;
+      synchronized (LOCK) {
+        inFlight[index] = null;
+        host.active--;
+        LOCK.notifyAll();
+        toCancel = recordLocked(new BatchResult(index, builders[index], request.response(), error));
+      }
+      if (toCancel != null) {
+        for (Request other : toCancel) other.cancel(true);
+      }
+      return true;
+    }
+  }
+
+  private static final class Host {
+
+    final ArrayDeque<Integer> pending = new ArrayDeque<>();
+    int active;
+  }
+
+  private interface Sink {
+
+    void result(BatchResult result);
+
+    void complete(int succeeded, int failed);
+  }
+}
@@ -0,0 +1,22 @@
+package com.afollestad.bridge;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the results of a {@link Batch} one at a time, as they become available. On Android, both
+ * methods are called on the main thread.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class BatchCallback {
+
+  public abstract void result(@NotNull BatchResult result);
+
+  /**
+   * Called once after the last result. With fail-fast, requests that were skipped or cancelled
+   * because of a failure aren't counted.
+   */
+  @SuppressWarnings("unused")
+  public void complete(int succeeded, int failed) {}
+}
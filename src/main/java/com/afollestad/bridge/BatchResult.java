@@ -0,0 +1,60 @@
+package com.afollestad.bridge;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The outcome of one request in a {@link Batch}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class BatchResult {
+
+  private final int index;
+  private final RequestBuilder builder;
+  @Nullable private final Response response;
+  @Nullable private final BridgeException error;
+
+  BatchResult(
+      int index,
+      @NotNull RequestBuilder builder,
+      @Nullable Response response,
+      @Nullable BridgeException error) {
+    this.index = index;
+    this.builder = builder;
+    this.response = response;
+    this.error = error;
+  }
+
+  /** The position of the request in the list given to the batch. */
+  public int index() {
+    return index;
+  }
+
+  @NotNull
+  public RequestBuilder builder() {
+    return builder;
+  }
+
+  /** The response, if one was received. It can be set even if the request failed. */
+  @Nullable
+  public Response response() {
+    return response;
+  }
+
+  @Nullable
+  public BridgeException error() {
+    return error;
+  }
+
+  public boolean isSuccess() {
+    return error == null;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "#%d %s", index, error != null ? error.getMessage() : String.valueOf(response));
+  }
+}
@@ -1,130 +1,105 @@
 package com.afollestad.bridge;
 
+import java.io.File;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.HashMap;
+import java.util.List;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-/** @author Aidan Follestad (afollestad) */
+/**
+ * Static access to a default {@link BridgeClient}, created on first use. Create more clients to
+ * configure them independently.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class Bridge implements Serializable {
 
   private static final Object LOCK = new Object();
-  private static Bridge bridge;
-  private static Config config;
-  HashMap<String, CallbackStack> requestMap;
+  private static volatile BridgeClient client;
 
-  private Bridge() {
-    config = new Config();
-  }
+  private Bridge() {}
 
+  /** The default client used by the static methods of this class. */
   @NotNull
-  private static Bridge client() {
-    if (bridge == null) bridge = new Bridge();
-    return bridge;
+  public static BridgeClient client() {
+    BridgeClient result = client;
+    if (result == null) {
+      synchronized (LOCK) {
+        result = client;
+        if (result == null) result = client = new BridgeClient();
+      }
+    }
+    return result;
   }
 
   @NotNull
   public static Config config() {
-    if (bridge == null) bridge = new Bridge();
-    if (config == null) config = new Config();
-    return config;
-  }
-
-  private static String processUrl(String url, @Nullable Object... formatArgs) {
-    if (formatArgs != null && formatArgs.length > 0) {
-      for (int i = 0; i < formatArgs.length; i++) {
-        if (formatArgs[i] instanceof String) {
-          try {
-            formatArgs[i] = URLEncoder.encode((String) formatArgs[i], "UTF-8");
-          } catch (UnsupportedEncodingException e) {
-            // this should never happen
-            throw new RuntimeException(e);
-          }
-        }
-      }
-      return String.format(url, formatArgs);
-    } else return url;
+    return client().config();
   }
 
   public static RequestBuilder get(@NotNull String url, @Nullable Object... formatArgs) {
-    return new RequestBuilder(processUrl(url, formatArgs), Method.GET, client());
+    return client().get(url, formatArgs);
   }
 
   public static RequestBuilder post(@NotNull String url, @Nullable Object... formatArgs) {
-    return new RequestBuilder(processUrl(url, formatArgs), Method.POST, client());
+    return client().post(url, formatArgs);
   }
 
   public static RequestBuilder put(@NotNull String url, @Nullable Object... formatArgs) {
-    return new RequestBuilder(processUrl(url, formatArgs), Method.PUT, client());
+    return client().put(url, formatArgs);
   }
 
   public static RequestBuilder delete(@NotNull String url, @Nullable Object... formatArgs) {
-    return new RequestBuilder(processUrl(url, formatArgs), Method.DELETE, client());
+    return client().delete(url, formatArgs);
+  }
+
+  public static Batch batch(@NotNull List<RequestBuilder> requests) {
+    return client().batch(requests);
+  }
+
+  public static ChunkedUpload chunkedUpload(@NotNull File file) {
+    return client().chunkedUpload(file);
   }
 
   public static CancelCriteria cancelAll() {
-    return new CancelCriteria(client(), LOCK);
+    return client().cancelAll();
   }
 
-  public static void destroy() {
-    if (bridge != null) {
-      if (config != null) {
-        config.destroy();
-        config = null;
-      }
-      cancelAll().commit();
-      LogCompat.d(bridge, "Bridge singleton was destroyed.");
-    }
+  /** The number of duplicate requests sent by hedged requests. */
+  public static long hedgesFired() {
+    return client().hedgesFired();
   }
 
-  boolean pushCallback(Request request, Callback callback) {
-    synchronized (LOCK) {
-      if (requestMap == null) requestMap = new HashMap<>();
-      final String key = CallbackStack.createKey(request);
-      CallbackStack cbs = requestMap.get(key);
-      if (cbs != null) {
-        LogCompat.d(this, "Pushing callback to EXISTING stack for %s", key);
-        cbs.push(callback, request);
-        return false;
-      } else {
-        LogCompat.d(this, "Pushing callback to NEW stack for %s", key);
-        cbs = new CallbackStack();
-        cbs.push(callback, request);
-        requestMap.put(key, cbs);
-        return true;
-      }
-    }
+  /** The number of hedged requests that were answered by a duplicate rather than the original. */
+  public static long hedgesWon() {
+    return client().hedgesWon();
   }
 
-  void fireProgress(Request request, int current, int total) {
-    synchronized (LOCK) {
-      if (requestMap == null) return;
-      final String key = CallbackStack.createKey(request);
-      final CallbackStack cbs = requestMap.get(key);
-      if (cbs != null) cbs.fireAllProgress(request, current, total);
-    }
+  /** The number of async requests sent by per-origin workers. */
+  public static long originRequests() {
+    return client().originRequests();
   }
 
-  void fireCallbacks(final Request request, final Response response, final BridgeException error) {
+  /** The number of per-origin workers started, each of which keeps reusing one connection. */
+  public static long originConnections() {
+    return client().originConnections();
+  }
+
+  /**
+   * Destroys the default client and resets logging settings. A new default client is created the
+   * next time one is needed.
+   */
+  public static void destroy() {
+    final BridgeClient destroyed;
     synchronized (LOCK) {
-      final String key = CallbackStack.createKey(request);
-      LogCompat.d(this, "Attempting to fire callbacks for %s", key);
-      if (requestMap == null) {
-        LogCompat.d(this, "Request map is null, can't fire callbacks.");
-        return;
-      }
-      final CallbackStack cbs = requestMap.get(key);
-      if (cbs != null) {
-        LogCompat.d(this, "Firing %d callback(s) for %s", cbs.size(), key);
-        cbs.fireAll(response, error);
-        requestMap.remove(key);
-        if (requestMap.size() == 0) requestMap = null;
-      } else {
-        LogCompat.d(this, "No callback stack found for %s", key);
-      }
+      destroyed = client;
+      client = null;
+    }
+    if (destroyed != null) {
+      destroyed.destroy();
+      LogCompat.d(Bridge.class, "Bridge singleton was destroyed.");
+      LogCompat.reset();
     }
   }
 }
@@ -0,0 +1,270 @@
+package com.afollestad.bridge;
+
+import java.io.File;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An independently configured client. Each has its own {@link Config}, executor, scheduler and
+ * in-flight request tracking, so e.g. a latency-critical upstream can be isolated from bulk traffic
+ * in the same process. The static methods of {@link Bridge} use a default client.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class BridgeClient implements Serializable {
+
+  private final Object LOCK = new Object();
+  private final transient Config config;
+  HashMap<String, CallbackStack> requestMap;
+  final AtomicLong hedgesFired = new AtomicLong();
+  final AtomicLong hedgesWon = new AtomicLong();
+  private final transient OriginDispatcher originDispatcher = new OriginDispatcher(this);
+  private transient ScheduledExecutorService scheduler;
+  private volatile boolean destroyed;
+
+  public BridgeClient() {
+    config = new Config();
+  }
+
+  @NotNull
+  public Config config() {
+    return config;
+  }
+
+  static String processUrl(String url, @Nullable Object... formatArgs) {
+    if (formatArgs != null && formatArgs.length > 0) {
+      for (int i = 0; i < formatArgs.length; i++) {
+        if (formatArgs[i] instanceof String) {
+          try {
+            formatArgs[i] = URLEncoder.encode((String) formatArgs[i], "UTF-8");
+          } catch (UnsupportedEncodingException e) {
+            // this should never happen
+            throw new RuntimeException(e);
+          }
+        }
+      }
+      return String.format(url, formatArgs);
+    } else return url;
+  }
+
+  private RequestBuilder newRequest(String url, int method, @Nullable Object... formatArgs) {
+    if (destroyed) throw new IllegalStateException("This client has been destroyed.");
+    return new RequestBuilder(processUrl(url, formatArgs), method, this);
+  }
+
+  public RequestBuilder get(@NotNull String url, @Nullable Object... formatArgs) {
+    return newRequest(url, Method.GET, formatArgs);
+  }
+
+  public RequestBuilder post(@NotNull String url, @Nullable Object... formatArgs) {
+    return newRequest(url, Method.POST, formatArgs);
+  }
+
+  public RequestBuilder put(@NotNull String url, @Nullable Object... formatArgs) {
+    return newRequest(url, Method.PUT, formatArgs);
+  }
+
+  public RequestBuilder delete(@NotNull String url, @Nullable Object... formatArgs) {
+    return newRequest(url, Method.DELETE, formatArgs);
+  }
+
+  /** Creates a {@link Batch} to send the requests with bounded parallelism. */
+  public Batch batch(@NotNull List<RequestBuilder> requests) {
+    if (destroyed) throw new IllegalStateException("This client has been destroyed.");
+    return new Batch(this, requests);
+  }
+
+  /** Creates a {@link ChunkedUpload} to send the file in parallel byte ranges. */
+  public ChunkedUpload chunkedUpload(@NotNull File file) {
+    if (destroyed) throw new IllegalStateException("This client has been destroyed.");
+    return new ChunkedUpload(this, file);
+  }
+
+  public CancelCriteria cancelAll() {
+    return new CancelCriteria(this, LOCK);
+  }
+
+  /** The number of duplicate requests sent by hedged requests. */
+  public long hedgesFired() {
+    return hedgesFired.get();
+  }
+
+  /** The number of hedged requests that were answered by a duplicate rather than the original. */
+  public long hedgesWon() {
+    return hedgesWon.get();
+  }
+
+  /**
+   * The number of async requests sent by per-origin workers, see {@link
+   * Config#connectionsPerOrigin(int)}. Divided by {@link #originConnections()}, it gives the
+   * average number of requests sent per connection.
+   */
+  public long originRequests() {
+    return originDispatcher.requests.get();
+  }
+
+  /** The number of per-origin workers started, each of which keeps reusing one connection. */
+  public long originConnections() {
+    return originDispatcher.connections.get();
+  }
+
+  /** Cancels all requests and releases the client's resources. It can't be used afterwards. */
+  public void destroy() {
+    if (destroyed) return;
+    destroyed = true;
+    cancelAll().commit();
+    config.destroy();
+    shutdownScheduler();
+    LogCompat.d(this, "Client was destroyed.");
+  }
+
+  void execute(@NotNull Runnable runnable) {
+    final Executor executor = config.snapshot().executor;
+    if (executor != null) {
+      executor.execute(runnable);
+    } else {
+      new Thread(runnable).start();
+    }
+  }
+
+  /** Runs an async request, queued behind others to the same origin if the config asks for that. */
+  void dispatch(@NotNull Request request, @NotNull Runnable runnable) {
+    final int maxConnections = request.builder().config.connectionsPerOrigin;
+    if (maxConnections > 0) {
+      originDispatcher.dispatch(request.url(), runnable, maxConnections);
+    } else {
+      execute(runnable);
+    }
+  }
+
+  /**
+   * Runs the Runnable on a new worker thread after a delay, without blocking a thread meanwhile.
+   * Returns null if there's no delay and the Runnable was started immediately.
+   */
+  @Nullable
+  ScheduledFuture<?> execute(@NotNull final Runnable runnable, long delayMs) {
+    if (delayMs <= 0) {
+      execute(runnable);
+      return null;
+    }
+    return scheduler()
+        .schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                execute(runnable);
+              }
+            },
+            delayMs,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Dispatches an async request after a delay, like {@link #dispatch(Request, Runnable)}, without
+   * blocking a thread meanwhile. Retries go through here, so they're queued per origin along with
+   * everything else. Returns null if there's no delay and the request was dispatched immediately.
+   */
+  @Nullable
+  ScheduledFuture<?> dispatch(
+      @NotNull final Request request, @NotNull final Runnable runnable, long delayMs) {
+    if (delayMs <= 0) {
+      dispatch(request, runnable);
+      return null;
+    }
+    return scheduler()
+        .schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                dispatch(request, runnable);
+              }
+            },
+            delayMs,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /** Runs a short task on the timer thread after a delay. */
+  ScheduledFuture<?> schedule(@NotNull Runnable runnable, long delay, @NotNull TimeUnit unit) {
+    return scheduler().schedule(runnable, delay, unit);
+  }
+
+  private ScheduledExecutorService scheduler() {
+    synchronized (LOCK) {
+      if (scheduler == null) {
+        scheduler =
+            Executors.newSingleThreadScheduledExecutor(
+                BridgeUtil.daemonThreadFactory("Bridge-Scheduler"));
+      }
+      return scheduler;
+    }
+  }
+
+  private void shutdownScheduler() {
+    synchronized (LOCK) {
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+        scheduler = null;
+      }
+    }
+  }
+
+  boolean pushCallback(Request request, Callback callback) {
+    synchronized (LOCK) {
+      if (requestMap == null) requestMap = new HashMap<>();
+      final String key = request.callbackKey();
+      CallbackStack cbs = requestMap.get(key);
+      if (cbs != null) {
+        LogCompat.d(this, "Pushing callback to EXISTING stack for %s", key);
+        cbs.push(callback, request);
+        return false;
+      } else {
+        LogCompat.d(this, "Pushing callback to NEW stack for %s", key);
+        cbs = new CallbackStack();
+        cbs.push(callback, request);
+        requestMap.put(key, cbs);
+        request.builder().callbackStack = cbs;
+        return true;
+      }
+    }
+  }
+
+  /** Called for every buffer read, so it goes straight to the stack without taking LOCK. */
+  void fireProgress(Request request, long current, long total) {
+    final CallbackStack cbs = request.builder().callbackStack;
+    if (cbs != null) cbs.fireAllProgress(request, current, total);
+  }
+
+  void fireCallbacks(final Request request, final Response response, final BridgeException error) {
+    synchronized (LOCK) {
+      final String key = request.callbackKey();
+      LogCompat.d(this, "Attempting to fire callbacks for %s", key);
+      if (requestMap == null) {
+        LogCompat.d(this, "Request map is null, can't fire callbacks.");
+        return;
+      }
+      final CallbackStack cbs = requestMap.get(key);
+      if (cbs != null) {
+        if (LogCompat.isEnabled()) {
+          LogCompat.d(this, "Firing %d callback(s) for %s", cbs.size(), key);
+        }
+        cbs.fireAll(response, error);
+        requestMap.remove(key);
+        if (requestMap.size() == 0) requestMap = null;
+      } else {
+        LogCompat.d(this, "No callback stack found for %s", key);
+      }
+    }
+  }
+}
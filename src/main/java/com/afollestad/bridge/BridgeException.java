@@ -20,6 +20,9 @@ public class BridgeException extends Exception {
 
   public static final int REASON_RESPONSE_VALIDATOR_FALSE = 8;
   public static final int REASON_RESPONSE_VALIDATOR_ERROR = 9;
+
+  public static final int REASON_CIRCUIT_OPEN = 10;
+  public static final int REASON_REQUEST_DEADLINE = 11;
   @Nullable protected Request request;
   private int reason;
   @Nullable private Response response;
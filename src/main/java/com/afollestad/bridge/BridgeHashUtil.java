@@ -1,23 +1,38 @@
 package com.afollestad.bridge;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.jetbrains.annotations.NotNull;
 
 /** @author Aidan Follestad (afollestad) */
 @SuppressWarnings("WeakerAccess")
 public final class BridgeHashUtil {
 
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final long MURMUR_M = 0xc6a4a7935bd1e995L;
+  private static final int MURMUR_R = 47;
+
   private static String toHexString(byte[] bytes) {
-    StringBuilder hexString = new StringBuilder();
-    for (byte aByte : bytes) {
-      String hex = Integer.toHexString(0xFF & aByte);
-      if (hex.length() == 1) {
-        hexString.append('0');
-      }
-      hexString.append(hex);
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+  private static String toHexString(long value) {
+    final char[] chars = new char[16];
+    for (int i = 15; i >= 0; i--) {
+      chars[i] = HEX[(int) (value & 0xF)];
+      value >>>= 4;
     }
-    return hexString.toString();
+    return new String(chars);
   }
 
+  /** The MD5 of the data, in hex. */
   public static String hash(byte[] data) {
     try {
       final MessageDigest md = MessageDigest.getInstance("MD5");
@@ -36,4 +51,55 @@ public final class BridgeHashUtil {
       throw new RuntimeException(t);
     }
   }
+
+  /**
+   * A 64-bit MurmurHash64A of the data, in hex. Several times faster than {@link #hash(byte[])} and
+   * just as good at telling bodies apart, but not suitable where collisions could be crafted.
+   */
+  public static String fastHash(@NotNull byte[] data) {
+    return fastHash(data, 0, data.length);
+  }
+
+  public static String fastHash(@NotNull byte[] data, int offset, int length) {
+    long h = length * MURMUR_M;
+    final int end = offset + (length & ~7);
+    // Reads eight bytes at a time, rather than assembling each word from single bytes
+    final ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    int i = offset;
+    for (; i < end; i += 8) {
+      long k = words.getLong(i);
+      k *= MURMUR_M;
+      k ^= k >>> MURMUR_R;
+      k *= MURMUR_M;
+      h ^= k;
+      h *= MURMUR_M;
+    }
+    final int remaining = offset + length - i;
+    if (remaining > 0) {
+      for (int j = remaining - 1; j >= 0; j--) {
+        h ^= (data[i + j] & 0xFFL) << (j * 8);
+      }
+      h *= MURMUR_M;
+    }
+    h ^= h >>> MURMUR_R;
+    h *= MURMUR_M;
+    h ^= h >>> MURMUR_R;
+    return toHexString(h);
+  }
+
+  public static String fastHash(@NotNull String str) {
+    try {
+      return fastHash(str.getBytes("UTF-8"));
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  static MessageDigest newDigest(@NotNull String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+    }
+  }
 }
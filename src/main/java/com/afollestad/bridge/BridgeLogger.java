@@ -0,0 +1,16 @@
+package com.afollestad.bridge;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives Bridge's log output when logging is enabled, see {@link Config#logger(BridgeLogger)}. By
+ * default, logs go to android.util.Log on Android and to System.out elsewhere.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface BridgeLogger {
+
+  void d(@NotNull String tag, @NotNull String message);
+
+  void e(@NotNull String tag, @NotNull String message);
+}
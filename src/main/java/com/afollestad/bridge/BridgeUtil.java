@@ -6,6 +6,9 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -23,12 +26,25 @@ class BridgeUtil {
     }
   }
 
-  static byte[] readEntireStream(@Nullable InputStream is) throws IOException {
+  static ThreadFactory daemonThreadFactory(@NotNull final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(@NotNull Runnable runnable) {
+        final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  static byte[] readEntireStream(@Nullable InputStream is, int bufferSize) throws IOException {
     if (is == null) return null;
     ByteArrayOutputStream os = null;
     try {
       os = new ByteArrayOutputStream();
-      byte[] buffer = new byte[Bridge.config().bufferSize];
+      byte[] buffer = new byte[bufferSize];
       int read;
       while ((read = is.read(buffer)) != -1) os.write(buffer, 0, read);
       os.flush();
@@ -39,6 +55,22 @@ class BridgeUtil {
     }
   }
 
+  /** The scheme, host and port of a URL, lower-cased, e.g. "https://example.com:8080". */
+  @NotNull
+  static String origin(@NotNull String url) {
+    final int schemeEnd = url.indexOf("://");
+    final int hostStart = schemeEnd != -1 ? schemeEnd + 3 : 0;
+    int end = url.length();
+    for (int i = hostStart; i < url.length(); i++) {
+      final char c = url.charAt(i);
+      if (c == '/' || c == '?' || c == '#') {
+        end = i;
+        break;
+      }
+    }
+    return url.substring(0, end).toLowerCase(Locale.US);
+  }
+
   static void throwIfNotSuccess(Response response) throws BridgeException {
     if (!response.isSuccess())
       throw new BridgeException(
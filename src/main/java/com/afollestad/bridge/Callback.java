@@ -13,6 +13,24 @@ public abstract class Callback {
   public abstract void response(
       @NotNull Request request, @Nullable Response response, @Nullable BridgeException e);
 
+  /**
+   * Download progress, passed on from {@link #progress(Request, long, long, int)} with the byte
+   * counts capped at Integer.MAX_VALUE. Override the long version for bodies over 2 GB.
+   */
   @SuppressWarnings("unused")
   public void progress(Request request, int current, int total, int percent) {}
+
+  /**
+   * Download progress. Updates are throttled to at most one per {@link
+   * Config#progressInterval(long)}, and one per percent; if callbacks fall behind, only the latest
+   * update is delivered.
+   */
+  @SuppressWarnings("unused")
+  public void progress(Request request, long current, long total, int percent) {
+    progress(
+        request,
+        (int) Math.min(current, Integer.MAX_VALUE),
+        (int) Math.min(total, Integer.MAX_VALUE),
+        percent);
+  }
 }
@@ -11,7 +11,34 @@ final class CallbackStack {
   private List<Callback> callbacks;
   private Request driverRequest;
   private int percent = -1;
+  private long lastProgressNanos;
   private HandlerCompat handler;
+  // The latest progress, waiting to be delivered by deliverProgress
+  private Request progressRequest;
+  private long progressCurrent;
+  private long progressTotal;
+  private boolean progressPosted;
+  private final Runnable deliverProgress =
+      new Runnable() {
+        @Override
+        public void run() {
+          final Callback[] targets;
+          final Request request;
+          final long current;
+          final long total;
+          final int percent;
+          synchronized (LOCK) {
+            progressPosted = false;
+            if (callbacks == null) return;
+            targets = callbacks.toArray(new Callback[callbacks.size()]);
+            request = progressRequest;
+            current = progressCurrent;
+            total = progressTotal;
+            percent = CallbackStack.this.percent;
+          }
+          for (Callback cb : targets) cb.progress(request, current, total, percent);
+        }
+      };
 
   CallbackStack() {
     callbacks = new ArrayList<>();
@@ -31,7 +58,7 @@ final class CallbackStack {
       if (builder.pipe != null) {
         hash = builder.pipe.hash();
       } else if (builder.body != null) {
-        hash = BridgeHashUtil.hash(builder.body);
+        hash = BridgeHashUtil.fastHash(builder.body);
       }
       key += String.format("\0%s\0", hash);
     }
@@ -73,25 +100,32 @@ final class CallbackStack {
     }
   }
 
-  void fireAllProgress(final Request request, final int current, final int total) {
+  /**
+   * Passes download progress to the callbacks, at most once per percent and once per the config's
+   * progress interval, except for the final update. Updates made while one is waiting to be
+   * delivered replace its values rather than queueing another.
+   */
+  void fireAllProgress(final Request request, final long current, final long total) {
+    if (total <= 0) return;
+    final int newPercent = (int) (((double) current / (double) total) * 100d);
+    final long now = System.nanoTime();
     synchronized (LOCK) {
-      if (callbacks == null) throw new IllegalStateException("This stack has already been fired.");
-      int newPercent = (int) (((float) current / (float) total) * 100f);
-      if (newPercent != percent) {
-        percent = newPercent;
-        synchronized (LOCK) {
-          for (final Callback cb : callbacks) {
-            handler.post(
-                new Runnable() {
-                  @Override
-                  public void run() {
-                    cb.progress(request, current, total, percent);
-                  }
-                });
-          }
-        }
+      // Progress can race with the stack being fired or cancelled
+      if (callbacks == null || newPercent == percent) return;
+      if (current < total
+          && percent != -1
+          && now - lastProgressNanos < request.builder().config.progressIntervalNanos) {
+        return;
       }
+      percent = newPercent;
+      lastProgressNanos = now;
+      progressRequest = request;
+      progressCurrent = current;
+      progressTotal = total;
+      if (progressPosted) return;
+      progressPosted = true;
     }
+    handler.post(deliverProgress);
   }
 
   boolean cancelAll(Object tag, boolean force) {
@@ -12,13 +12,13 @@ public class CancelCriteria {
 
   private final Object LOCK;
   private final HandlerCompat handler;
-  private Bridge client;
+  private BridgeClient client;
   private int method = Method.UNSPECIFIED;
   private String urlRegex = null;
   private Object tag = null;
   private boolean force = false;
 
-  CancelCriteria(Bridge client, Object lock) {
+  CancelCriteria(BridgeClient client, Object lock) {
     this.client = client;
     LOCK = lock;
     handler = new HandlerCompat();
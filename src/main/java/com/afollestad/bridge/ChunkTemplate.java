@@ -0,0 +1,56 @@
+package com.afollestad.bridge;
+
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Builds the requests of a {@link ChunkedUpload}, describing each chunk the way the server expects,
+ * e.g. in headers or query parameters.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public abstract class ChunkTemplate {
+
+  /**
+   * Sends each chunk with PUT to chunkUrl, describing it in a Content-Range header. If finishUrl
+   * isn't null, an empty POST is sent to it once every chunk has been uploaded.
+   */
+  public static ChunkTemplate contentRange(
+      @NotNull final String chunkUrl, @Nullable final String finishUrl) {
+    return new ChunkTemplate() {
+      @NotNull
+      @Override
+      public RequestBuilder chunk(@NotNull BridgeClient client, @NotNull UploadChunk chunk) {
+        final String range =
+            chunk.length() == 0
+                ? "bytes */" + chunk.fileLength()
+                : String.format(
+                    "bytes %d-%d/%d",
+                    chunk.offset(), chunk.offset() + chunk.length() - 1, chunk.fileLength());
+        return client.put(chunkUrl).header("Content-Range", range);
+      }
+
+      @Nullable
+      @Override
+      public RequestBuilder finish(@NotNull BridgeClient client, @NotNull List<Response> chunks) {
+        return finishUrl != null ? client.post(finishUrl) : null;
+      }
+    };
+  }
+
+  /** Builds the request for one chunk. Its body is set afterwards to the chunk's byte range. */
+  @NotNull
+  public abstract RequestBuilder chunk(@NotNull BridgeClient client, @NotNull UploadChunk chunk);
+
+  /**
+   * Builds the request made once every chunk has been uploaded, or returns null if none is needed.
+   *
+   * @param chunks the response to each chunk, in file order.
+   */
+  @Nullable
+  public RequestBuilder finish(@NotNull BridgeClient client, @NotNull List<Response> chunks) {
+    return null;
+  }
+}
@@ -0,0 +1,298 @@
+package com.afollestad.bridge;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Uploads a file as byte ranges sent in parallel, each as its own request, followed by an optional
+ * finishing request. A chunk that fails is retried on its own, so a failure doesn't send the whole
+ * file again. How each chunk is described to the server is up to the {@link ChunkTemplate}. Created
+ * with {@link BridgeClient#chunkedUpload(File)}.
+ *
+ * <p>Chunks are sent through a fail-fast {@link Batch}: once a chunk has failed all its retries,
+ * the chunks in flight are cancelled, the rest are never sent, and the upload fails.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class ChunkedUpload {
+
+  private final Object LOCK = new Object();
+  private final Object PROGRESS_LOCK = new Object();
+  private final BridgeClient client;
+  private final File file;
+  private ChunkTemplate template;
+  private long chunkSize = 8 * 1024 * 1024;
+  private int parallelism = 4;
+  private int retryCount;
+  private Backoff backoff;
+  private ProgressCallback progress;
+
+  // Guarded by LOCK
+  private boolean started;
+  private boolean cancelled;
+  private Batch batch;
+  private Response[] chunkResponses;
+  private Request finishRequest;
+
+  // Guarded by PROGRESS_LOCK
+  private long fileLength;
+  private long[] chunkSent;
+  private long totalSent;
+
+  ChunkedUpload(@NotNull BridgeClient client, @NotNull File file) {
+    this.client = client;
+    this.file = file;
+  }
+
+  /** Builds the request for each chunk and the finishing request. Required. */
+  public ChunkedUpload template(@NotNull ChunkTemplate template) {
+    checkNotStarted();
+    this.template = template;
+    return this;
+  }
+
+  /** The number of bytes in each chunk, 8MB by default. The last chunk may be smaller. */
+  public ChunkedUpload chunkSize(long chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Chunk size must be greater than 0.");
+    }
+    checkNotStarted();
+    this.chunkSize = chunkSize;
+    return this;
+  }
+
+  /** The maximum number of chunks uploaded at once, 4 by default. */
+  public ChunkedUpload parallelism(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be greater than 0.");
+    }
+    checkNotStarted();
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Retries each chunk that fails, see {@link RequestBuilder#retries(int, Backoff)}. Retries set by
+   * the template are used otherwise.
+   */
+  public ChunkedUpload retries(int count, @NotNull Backoff backoff) {
+    if (count < 0) {
+      throw new IllegalArgumentException("Retry count must be 0 or greater.");
+    }
+    checkNotStarted();
+    this.retryCount = count;
+    this.backoff = backoff;
+    return this;
+  }
+
+  /**
+   * Receives the progress of the whole file, added up across the chunks in flight. It's called on
+   * whichever thread is uploading the chunk that made progress, with that chunk's request.
+   */
+  public ChunkedUpload progress(@NotNull ProgressCallback progress) {
+    checkNotStarted();
+    this.progress = progress;
+    return this;
+  }
+
+  /**
+   * Uploads the file, blocking until it's done.
+   *
+   * @return the response to the finishing request, or null if the template doesn't make one.
+   */
+  @Nullable
+  public Response upload() throws BridgeException {
+    final long fileLength = file.length();
+    if (!file.isFile()) {
+      throw new BridgeException(
+          (Request) null, file + " doesn't exist.", BridgeException.REASON_REQUEST_FAILED);
+    }
+    final List<RequestBuilder> builders = buildChunks(fileLength);
+    final Batch chunkBatch = client.batch(builders).parallelism(parallelism).failFast();
+    synchronized (LOCK) {
+      if (cancelled) throw cancelled();
+      batch = chunkBatch;
+    }
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(this, "Uploading %s in %d chunks.", file, builders.size());
+    }
+
+    final Response[] responses = new Response[builders.size()];
+    int uploaded = 0;
+    final Iterator<BatchResult> results = chunkBatch.results();
+    while (results.hasNext()) {
+      final BatchResult result = results.next();
+      if (!result.isSuccess()) {
+        //noinspection ConstantConditions
+        throw result.error();
+      }
+      responses[result.index()] = result.response();
+      chunkUploaded(result.index(), Math.min(chunkSize, fileLength - result.index() * chunkSize));
+      uploaded++;
+    }
+    synchronized (LOCK) {
+      if (uploaded < responses.length || cancelled) throw cancelled();
+      chunkResponses = responses;
+    }
+
+    final RequestBuilder finish = template.finish(client, Arrays.asList(responses));
+    if (finish == null) return null;
+    final Request request = finish.throwIfNotSuccess().prepare();
+    synchronized (LOCK) {
+      if (cancelled) throw cancelled();
+      finishRequest = request;
+    }
+    return request.start().response();
+  }
+
+  /**
+   * Uploads the file on a background thread. The callback receives the finishing request, or the
+   * last chunk's if the template doesn't make one; on failure, the request that failed. It isn't
+   * called if the upload is cancelled.
+   */
+  public ChunkedUpload upload(@NotNull final Callback callback) {
+    checkNotStarted();
+    checkTemplate();
+    final HandlerCompat handler = new HandlerCompat();
+    client.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            Response response = null;
+            BridgeException error = null;
+            try {
+              response = upload();
+            } catch (BridgeException e) {
+              error = e;
+            }
+            final Request request;
+            synchronized (LOCK) {
+              if (cancelled) return;
+              request = requestFor(error);
+            }
+            final Response finalResponse = response;
+            final BridgeException finalError = error;
+            handler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    callback.response(request, finalResponse, finalError);
+                  }
+                });
+          }
+        });
+    return this;
+  }
+
+  /** Stops the upload, cancelling the requests in flight. */
+  public void cancel() {
+    final Batch chunkBatch;
+    final Request finish;
+    synchronized (LOCK) {
+      if (cancelled) return;
+      cancelled = true;
+      chunkBatch = batch;
+      finish = finishRequest;
+    }
+    if (chunkBatch != null) chunkBatch.cancel();
+    if (finish != null) finish.cancel(true);
+  }
+
+  public boolean isCancelled() {
+    synchronized (LOCK) {
+      return cancelled;
+    }
+  }
+
+  private void checkNotStarted() {
+    synchronized (LOCK) {
+      if (started) throw new IllegalStateException("This upload has already been started.");
+    }
+  }
+
+  private void checkTemplate() {
+    if (template == null) {
+      throw new IllegalStateException("A chunk template is required, see template().");
+    }
+  }
+
+  private List<RequestBuilder> buildChunks(long fileLength) {
+    synchronized (LOCK) {
+      checkTemplate();
+      checkNotStarted();
+      started = true;
+    }
+    final int count = (int) Math.max(1, (fileLength + chunkSize - 1) / chunkSize);
+    synchronized (PROGRESS_LOCK) {
+      this.fileLength = fileLength;
+      chunkSent = new long[count];
+    }
+    final List<RequestBuilder> builders = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final long offset = i * chunkSize;
+      final UploadChunk chunk =
+          new UploadChunk(i, count, offset, Math.min(chunkSize, fileLength - offset), fileLength);
+      final RequestBuilder builder = template.chunk(client, chunk);
+      // Keep a content type set by the template, body() would replace it with the file's
+      final Object contentType = builder.headers.get("Content-Type");
+      builder.body(Pipe.forFile(file, chunk.offset(), chunk.length()));
+      if (contentType != null) builder.header("Content-Type", contentType);
+      builder.throwIfNotSuccess();
+      if (backoff != null) builder.retries(retryCount, backoff);
+      if (progress != null) builder.uploadProgress(new ChunkProgress(i));
+      builders.add(builder);
+    }
+    return builders;
+  }
+
+  /** A retried chunk may not report its last percent again, so count it as done here. */
+  private void chunkUploaded(int index, long length) {
+    if (progress == null) return;
+    synchronized (PROGRESS_LOCK) {
+      totalSent += length - chunkSent[index];
+      chunkSent[index] = length;
+      progress.publishProgress(totalSent, fileLength);
+    }
+  }
+
+  @Nullable
+  private Request requestFor(@Nullable BridgeException error) {
+    if (error != null) {
+      if (error.request() != null) return error.request();
+      return error.response() != null ? error.response().request : null;
+    }
+    if (finishRequest != null) return finishRequest;
+    return chunkResponses != null ? chunkResponses[chunkResponses.length - 1].request : null;
+  }
+
+  private BridgeException cancelled() {
+    return new BridgeException(
+        (Request) null, "Upload was cancelled.", BridgeException.REASON_REQUEST_CANCELLED);
+  }
+
+  private final class ChunkProgress extends ProgressCallback {
+
+    private final int index;
+
+    ChunkProgress(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public void progress(Request request, long current, long total, int percent) {
+      synchronized (PROGRESS_LOCK) {
+        // A retry starts the chunk over, so its count can go down as well as up
+        totalSent += current - chunkSent[index];
+        chunkSent[index] = current;
+        progress.request = request;
+        progress.publishProgress(totalSent, fileLength);
+      }
+    }
+  }
+}
@@ -0,0 +1,337 @@
+package com.afollestad.bridge;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stops sending traffic to an endpoint that keeps failing or responding slowly. While a circuit is
+ * open, requests fail immediately with {@link BridgeException#REASON_CIRCUIT_OPEN} instead of
+ * waiting out their timeouts. After a cool-down, a few probe requests are let through (half-open);
+ * if they succeed the circuit closes again.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class CircuitBreaker {
+
+  public static final int STATE_CLOSED = 0;
+  public static final int STATE_OPEN = 1;
+  public static final int STATE_HALF_OPEN = 2;
+
+  /** Circuits are tracked per host and port. */
+  public static final int KEY_HOST = 1;
+  /** Circuits are tracked per host, port and path (the query string is ignored). */
+  public static final int KEY_ROUTE = 2;
+
+  private final HashMap<String, Circuit> circuits = new HashMap<>();
+  private int keyMode = KEY_HOST;
+  private int windowSize = 20;
+  private int minimumCalls = 10;
+  private float failureRateThreshold = 0.5f;
+  private float slowCallRateThreshold = 0.5f;
+  private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(10);
+  private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+  private int halfOpenProbes = 3;
+  @Nullable private StateListener listener;
+
+  private CircuitBreaker() {}
+
+  public static CircuitBreaker create() {
+    return new CircuitBreaker();
+  }
+
+  public static String stateName(int state) {
+    switch (state) {
+      default:
+        return "CLOSED";
+      case STATE_OPEN:
+        return "OPEN";
+      case STATE_HALF_OPEN:
+        return "HALF_OPEN";
+    }
+  }
+
+  /** Either {@link #KEY_HOST} (the default) or {@link #KEY_ROUTE}. */
+  public CircuitBreaker keyBy(int keyMode) {
+    if (keyMode != KEY_HOST && keyMode != KEY_ROUTE) {
+      throw new IllegalArgumentException("Unknown key mode: " + keyMode);
+    }
+    this.keyMode = keyMode;
+    return this;
+  }
+
+  /**
+   * @param windowSize how many of the most recent calls are considered, per circuit.
+   * @param minimumCalls how many calls must be recorded before the circuit can trip.
+   */
+  public CircuitBreaker window(int windowSize, int minimumCalls) {
+    if (windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize) {
+      throw new IllegalArgumentException("Must satisfy 0 < minimumCalls <= windowSize.");
+    }
+    this.windowSize = windowSize;
+    this.minimumCalls = minimumCalls;
+    return this;
+  }
+
+  /** Trips the circuit once this fraction (0-1) of calls in the window fail. */
+  public CircuitBreaker failureRateThreshold(float threshold) {
+    if (threshold <= 0f || threshold > 1f) {
+      throw new IllegalArgumentException("Failure rate threshold must be in (0, 1].");
+    }
+    this.failureRateThreshold = threshold;
+    return this;
+  }
+
+  /** Trips the circuit once this fraction (0-1) of calls in the window take longer than slowMs. */
+  public CircuitBreaker slowCallThreshold(long slowMs, float threshold) {
+    if (slowMs <= 0) {
+      throw new IllegalArgumentException("Slow call duration must be greater than 0.");
+    }
+    if (threshold <= 0f || threshold > 1f) {
+      throw new IllegalArgumentException("Slow call rate threshold must be in (0, 1].");
+    }
+    this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(slowMs);
+    this.slowCallRateThreshold = threshold;
+    return this;
+  }
+
+  /** How long an open circuit rejects calls before letting probes through. */
+  public CircuitBreaker openDuration(long ms) {
+    if (ms <= 0) {
+      throw new IllegalArgumentException("Open duration must be greater than 0.");
+    }
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(ms);
+    return this;
+  }
+
+  /** How many successful probes a half-open circuit needs before it closes. */
+  public CircuitBreaker halfOpenProbes(int probes) {
+    if (probes <= 0) {
+      throw new IllegalArgumentException("Half-open probe count must be greater than 0.");
+    }
+    this.halfOpenProbes = probes;
+    return this;
+  }
+
+  public CircuitBreaker listener(@Nullable StateListener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /** Returns the current state of the circuit for a key, e.g. "api.example.com:443". */
+  public int state(@NotNull String key) {
+    final Circuit circuit;
+    synchronized (circuits) {
+      circuit = circuits.get(key);
+    }
+    return circuit != null ? circuit.state() : STATE_CLOSED;
+  }
+
+  /** Forgets the state of all circuits. */
+  public void reset() {
+    synchronized (circuits) {
+      circuits.clear();
+    }
+  }
+
+  String key(String url) {
+    try {
+      final URL parsed = new URL(url);
+      final int port = parsed.getPort() != -1 ? parsed.getPort() : parsed.getDefaultPort();
+      final String host = parsed.getHost().toLowerCase() + ":" + port;
+      return keyMode == KEY_ROUTE ? host + parsed.getPath() : host;
+    } catch (Exception e) {
+      return url;
+    }
+  }
+
+  /** Returns the request's permit to call its circuit, or throws if the circuit won't allow it. */
+  Permit acquire(Request request) throws BridgeException {
+    final String key = key(request.url());
+    Circuit circuit;
+    synchronized (circuits) {
+      circuit = circuits.get(key);
+      if (circuit == null) {
+        circuit = new Circuit();
+        circuits.put(key, circuit);
+      }
+    }
+    final Permit permit = new Permit(key, circuit);
+    notifyIfChanged(key, circuit.tryAcquire(permit));
+    if (!permit.granted) {
+      LogCompat.d(this, "Circuit for %s is open, failing %s fast.", key, request);
+      throw new BridgeException(
+          request, "Circuit breaker is open for " + key, BridgeException.REASON_CIRCUIT_OPEN);
+    }
+    return permit;
+  }
+
+  void onResult(
+      Permit permit,
+      @Nullable Response response,
+      @Nullable BridgeException error,
+      long durationNanos) {
+    if (error != null && error.reason() == BridgeException.REASON_REQUEST_CANCELLED) {
+      // Cancellation says nothing about the health of the endpoint
+      permit.circuit.release(permit);
+      return;
+    }
+    final boolean failed = error != null || response == null || response.code() >= 500;
+    notifyIfChanged(
+        permit.key, permit.circuit.record(permit, failed, durationNanos >= slowCallDurationNanos));
+  }
+
+  /** Reports a transition applied by a circuit, so each one is reported exactly once. */
+  private void notifyIfChanged(String key, @Nullable Transition transition) {
+    if (transition == null) return;
+    LogCompat.d(
+        this, "Circuit %s: %s -> %s", key, stateName(transition.from), stateName(transition.to));
+    final StateListener listener = this.listener;
+    if (listener != null) {
+      listener.onStateChanged(key, transition.from, transition.to);
+    }
+  }
+
+  public interface StateListener {
+
+    void onStateChanged(@NotNull String key, int fromState, int toState);
+  }
+
+  /** A call let through by a circuit, tied to the state it was let through in. */
+  static final class Permit {
+
+    final String key;
+    private final Circuit circuit;
+    private boolean granted;
+    private int round;
+
+    private Permit(String key, Circuit circuit) {
+      this.key = key;
+      this.circuit = circuit;
+    }
+  }
+
+  private static final class Transition {
+
+    final int from;
+    final int to;
+
+    Transition(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+  private final class Circuit {
+
+    private final boolean[] failures = new boolean[windowSize];
+    private final boolean[] slows = new boolean[windowSize];
+    private int state = STATE_CLOSED;
+    /** Counts state changes, so results of calls let through in an earlier state are ignored. */
+    private int round;
+
+    private int recorded;
+    private int index;
+    private int failureCount;
+    private int slowCount;
+    private long openedAtNanos;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    synchronized int state() {
+      return state;
+    }
+
+    /** Grants the permit if the circuit allows a call, returning the transition it caused. */
+    @Nullable
+    synchronized Transition tryAcquire(Permit permit) {
+      Transition transition = null;
+      if (state == STATE_OPEN) {
+        if (System.nanoTime() - openedAtNanos < openDurationNanos) {
+          return null;
+        }
+        transition = moveTo(STATE_HALF_OPEN);
+        probesInFlight = 0;
+        probeSuccesses = 0;
+      }
+      if (state == STATE_HALF_OPEN) {
+        if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+          return transition;
+        }
+        probesInFlight++;
+      }
+      permit.granted = true;
+      permit.round = round;
+      return transition;
+    }
+
+    synchronized void release(Permit permit) {
+      if (state == STATE_HALF_OPEN && permit.round == round && probesInFlight > 0) {
+        probesInFlight--;
+      }
+    }
+
+    /** Records the outcome of the permitted call, returning the transition it caused. */
+    @Nullable
+    synchronized Transition record(Permit permit, boolean failed, boolean slow) {
+      if (permit.round != round) {
+        // Let through before the circuit last changed state, so it says nothing about this one
+        return null;
+      }
+      switch (state) {
+        case STATE_CLOSED:
+          if (recorded == failures.length) {
+            // Evict the oldest outcome from the window
+            if (failures[index]) failureCount--;
+            if (slows[index]) slowCount--;
+          } else {
+            recorded++;
+          }
+          failures[index] = failed;
+          slows[index] = slow;
+          if (failed) failureCount++;
+          if (slow) slowCount++;
+          index = (index + 1) % failures.length;
+          if (recorded >= minimumCalls
+              && (failureCount >= failureRateThreshold * recorded
+                  || slowCount >= slowCallRateThreshold * recorded)) {
+            return open();
+          }
+          return null;
+        case STATE_HALF_OPEN:
+          if (probesInFlight > 0) probesInFlight--;
+          if (failed || slow) {
+            return open();
+          } else if (++probeSuccesses >= halfOpenProbes) {
+            return close();
+          }
+          return null;
+        default:
+          return null;
+      }
+    }
+
+    private Transition open() {
+      openedAtNanos = System.nanoTime();
+      return moveTo(STATE_OPEN);
+    }
+
+    private Transition close() {
+      recorded = 0;
+      index = 0;
+      failureCount = 0;
+      slowCount = 0;
+      return moveTo(STATE_CLOSED);
+    }
+
+    private Transition moveTo(int newState) {
+      final Transition transition = new Transition(state, newState);
+      state = newState;
+      round++;
+      return transition;
+    }
+  }
+}
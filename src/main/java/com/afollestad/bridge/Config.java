@@ -1,17 +1,28 @@
 package com.afollestad.bridge;
 
+import com.afollestad.bridge.conversion.CborConverter;
+import com.afollestad.bridge.conversion.ClassConverter;
 import com.afollestad.bridge.conversion.IConverter;
 import com.afollestad.bridge.conversion.JsonConverter;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-/** @author Aidan Follestad (afollestad) */
+/**
+ * Configures a {@link BridgeClient}. Changes are thread safe, and apply to requests built after
+ * them; each request works from an immutable snapshot taken when it's built. Logging settings are
+ * shared by all clients.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public final class Config {
 
   String host;
-  HashMap<String, Object> defaultHeaders;
+  Headers defaultHeaders;
   int connectTimeout = 10000;
   int readTimeout = 15000;
   int bufferSize = 1024 * 4;
@@ -19,68 +30,147 @@ public final class Config {
   ResponseValidator[] validators;
   boolean autoFollowRedirects = true;
   int maxRedirects = 4;
+  RetryBudget retryBudget;
+  CircuitBreaker circuitBreaker;
+  EventListener eventListener;
+  Executor executor;
+  int connectionsPerOrigin;
+  long progressIntervalMs = 50;
   private HashMap<String, Class<? extends IConverter>> converters;
+  private volatile ConfigSnapshot snapshot;
 
   Config() {
-    defaultHeaders = new HashMap<>();
-    defaultHeaders.put("User-Agent", "afollestad/Bridge");
-    defaultHeaders.put("Content-Type", "text/plain");
+    defaultHeaders = new Headers();
+    defaultHeaders.set("User-Agent", "afollestad/Bridge");
+    defaultHeaders.set("Content-Type", "text/plain");
 
     converters = new HashMap<>();
     converters.put("application/json", JsonConverter.class);
     converters.put("text/plain", JsonConverter.class);
+    converters.put("application/cbor", CborConverter.class);
   }
 
-  public Config host(@Nullable String host) {
+  /** Returns an immutable copy of the current configuration, cached until the next change. */
+  @NotNull
+  ConfigSnapshot snapshot() {
+    ConfigSnapshot result = snapshot;
+    if (result == null) {
+      synchronized (this) {
+        result = snapshot;
+        if (result == null) {
+          if (defaultHeaders == null) {
+            throw new IllegalStateException("This client has been destroyed.");
+          }
+          result = snapshot = new ConfigSnapshot(this, converters);
+        }
+      }
+    }
+    return result;
+  }
+
+  public synchronized Config host(@Nullable String host) {
     this.host = host;
+    snapshot = null;
     return this;
   }
 
   public Config logging(boolean enabled) {
     logging = enabled;
+    LogCompat.setEnabled(enabled);
     return this;
   }
 
-  public Config defaultHeader(@NotNull String name, @Nullable Object value) {
-    if (value == null) {
-      defaultHeaders.remove(name);
-    } else {
-      defaultHeaders.put(name, value);
+  /** Where log output goes when logging is enabled. Pass null to restore the default. */
+  public Config logger(@Nullable BridgeLogger logger) {
+    LogCompat.setLogger(logger);
+    return this;
+  }
+
+  /**
+   * The max number of characters of a request body that are logged, 256 by default. Pass 0 to never
+   * log bodies, or -1 to log them in full.
+   */
+  public Config logBodyLimit(int limit) {
+    if (limit < -1) {
+      throw new IllegalArgumentException("The log body limit must be -1 or greater.");
     }
+    LogCompat.setBodyLimit(limit);
     return this;
   }
 
-  public Config connectTimeout(int timeout) {
+  /** Regular expressions whose matches are replaced with *** in logged bodies. */
+  public Config logRedact(@NotNull String... regexes) {
+    final Pattern[] patterns = new Pattern[regexes.length];
+    for (int i = 0; i < regexes.length; i++) {
+      patterns[i] = Pattern.compile(regexes[i]);
+    }
+    LogCompat.setRedactions(patterns);
+    return this;
+  }
+
+  public synchronized Config defaultHeader(@NotNull String name, @Nullable Object value) {
+    defaultHeaders.set(name, value);
+    snapshot = null;
+    return this;
+  }
+
+  public synchronized Config connectTimeout(int timeout) {
     if (timeout <= 0) {
       throw new IllegalArgumentException("Connect timeout must be greater than 0.");
     }
     connectTimeout = timeout;
+    snapshot = null;
     return this;
   }
 
-  public Config readTimeout(int timeout) {
+  public synchronized Config readTimeout(int timeout) {
     if (timeout <= 0) {
       throw new IllegalArgumentException("Read timeout must be greater than 0.");
     }
     readTimeout = timeout;
+    snapshot = null;
     return this;
   }
 
-  public Config bufferSize(int size) {
+  public synchronized Config bufferSize(int size) {
     if (size <= 0) {
       throw new IllegalArgumentException("The buffer size must be greater than 0.");
     }
     bufferSize = size;
+    snapshot = null;
     return this;
   }
 
-  public Config validators(ResponseValidator... validators) {
+  public synchronized Config validators(ResponseValidator... validators) {
     this.validators = validators;
+    snapshot = null;
     return this;
   }
 
   @NotNull
-  public IConverter converter(@Nullable String contentType) {
+  public synchronized IConverter converter(@Nullable String contentType) {
+    return BridgeUtil.newInstance(converterClass(converters, contentType));
+  }
+
+  /**
+   * The converter for objects of forClass. That's the one bridge-processor generated for it, if
+   * there is one and the built-in converter it stands in for is registered for contentType;
+   * otherwise the converter registered for contentType.
+   */
+  @NotNull
+  public synchronized IConverter converterFor(
+      @Nullable String contentType, @NotNull Class<?> forClass) {
+    final Class<? extends IConverter> registered = converterClass(converters, contentType);
+    final ClassConverter<?> generated = ClassConverter.generatedFor(forClass);
+    if (generated != null && generated.replaces() == registered) {
+      return generated;
+    }
+    return BridgeUtil.newInstance(registered);
+  }
+
+  @NotNull
+  static Class<? extends IConverter> converterClass(
+      Map<String, Class<? extends IConverter>> converters, @Nullable String contentType) {
     if (contentType == null || contentType.trim().isEmpty()) {
       contentType = "application/json";
     } else if (contentType.contains(";")) {
@@ -90,32 +180,94 @@ public final class Config {
     if (converterCls == null) {
       throw new IllegalStateException("No converter available for content type: " + contentType);
     }
-    return BridgeUtil.newInstance(converterCls);
+    return converterCls;
   }
 
-  public Config converter(
+  public synchronized Config converter(
       @NotNull String contentType, @Nullable Class<? extends IConverter> converter) {
     if (converter == null) {
       converters.remove(contentType);
     } else {
       converters.put(contentType, converter);
     }
+    snapshot = null;
     return this;
   }
 
-  public Config autoFollowRedirects(boolean follow) {
+  public synchronized Config autoFollowRedirects(boolean follow) {
     autoFollowRedirects = follow;
+    snapshot = null;
     return this;
   }
 
-  public Config maxRedirects(int maxRedirects) {
+  public synchronized Config maxRedirects(int maxRedirects) {
     this.maxRedirects = maxRedirects;
+    snapshot = null;
+    return this;
+  }
+
+  /** Caps retries across all requests, see {@link RetryBudget}. Pass null to remove the cap. */
+  public synchronized Config retryBudget(@Nullable RetryBudget budget) {
+    this.retryBudget = budget;
+    snapshot = null;
+    return this;
+  }
+
+  /** Fails requests fast while their endpoint is unhealthy. Pass null to disable. */
+  public synchronized Config circuitBreaker(@Nullable CircuitBreaker breaker) {
+    this.circuitBreaker = breaker;
+    snapshot = null;
+    return this;
+  }
+
+  /** Receives timing events for every request, e.g. a {@link LatencyRecorder}. */
+  public synchronized Config eventListener(@Nullable EventListener listener) {
+    this.eventListener = listener;
+    snapshot = null;
+    return this;
+  }
+
+  /**
+   * Runs async requests, e.g. a bounded thread pool to keep bulk traffic from starving other
+   * clients. By default, each async request gets a new thread. Pass null to restore the default.
+   */
+  public synchronized Config executor(@Nullable Executor executor) {
+    this.executor = executor;
+    snapshot = null;
+    return this;
+  }
+
+  /**
+   * Queues async requests by origin (scheme, host and port) and sends each origin's requests one
+   * after another over at most this many connections, which are kept alive between requests. With
+   * thousands of small requests to one host, that avoids opening a connection per request. 0, the
+   * default, sends every async request on its own as soon as possible.
+   */
+  public synchronized Config connectionsPerOrigin(int max) {
+    if (max < 0) {
+      throw new IllegalArgumentException("Connections per origin cannot be negative.");
+    }
+    connectionsPerOrigin = max;
+    snapshot = null;
+    return this;
+  }
+
+  /**
+   * The minimum time between download progress updates passed to a {@link Callback}, 50ms by
+   * default. The final update is always delivered. 0 delivers every change in percent.
+   */
+  public synchronized Config progressInterval(long intervalMs) {
+    if (intervalMs < 0) {
+      throw new IllegalArgumentException("Progress interval cannot be negative.");
+    }
+    progressIntervalMs = intervalMs;
+    snapshot = null;
     return this;
   }
 
-  void destroy() {
+  synchronized void destroy() {
+    snapshot = null;
     host = null;
-    defaultHeaders.clear();
     defaultHeaders = null;
     bufferSize = 0;
   }
@@ -0,0 +1,80 @@
+package com.afollestad.bridge;
+
+import com.afollestad.bridge.conversion.ClassConverter;
+import com.afollestad.bridge.conversion.IConverter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An immutable copy of a {@link Config}, captured when a request is built so that changing the
+ * config later doesn't affect requests in flight. Converters are instantiated once per snapshot.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class ConfigSnapshot {
+
+  final String host;
+  final Headers defaultHeaders;
+  final int connectTimeout;
+  final int readTimeout;
+  final int bufferSize;
+  final ResponseValidator[] validators;
+  final boolean autoFollowRedirects;
+  final int maxRedirects;
+  final RetryBudget retryBudget;
+  final CircuitBreaker circuitBreaker;
+  final EventListener eventListener;
+  final Executor executor;
+  final int connectionsPerOrigin;
+  final long progressIntervalNanos;
+  private final Map<String, Class<? extends IConverter>> converters;
+  private final ConcurrentHashMap<Class<? extends IConverter>, IConverter> converterCache =
+      new ConcurrentHashMap<>();
+
+  ConfigSnapshot(Config source, Map<String, Class<? extends IConverter>> converters) {
+    host = source.host;
+    defaultHeaders = source.defaultHeaders.copy().share();
+    connectTimeout = source.connectTimeout;
+    readTimeout = source.readTimeout;
+    bufferSize = source.bufferSize;
+    validators = source.validators != null ? source.validators.clone() : null;
+    autoFollowRedirects = source.autoFollowRedirects;
+    maxRedirects = source.maxRedirects;
+    retryBudget = source.retryBudget;
+    circuitBreaker = source.circuitBreaker;
+    eventListener = source.eventListener;
+    executor = source.executor;
+    connectionsPerOrigin = source.connectionsPerOrigin;
+    progressIntervalNanos = TimeUnit.MILLISECONDS.toNanos(source.progressIntervalMs);
+    this.converters = Collections.unmodifiableMap(new HashMap<>(converters));
+  }
+
+  /** See {@link Config#converterFor(String, Class)}. */
+  @NotNull
+  IConverter converterFor(@Nullable String contentType, @NotNull Class<?> forClass) {
+    final ClassConverter<?> generated = ClassConverter.generatedFor(forClass);
+    if (generated != null
+        && generated.replaces() == Config.converterClass(converters, contentType)) {
+      return generated;
+    }
+    return converter(contentType);
+  }
+
+  @NotNull
+  IConverter converter(@Nullable String contentType) {
+    final Class<? extends IConverter> converterCls = Config.converterClass(converters, contentType);
+    IConverter converter = converterCache.get(converterCls);
+    if (converter == null) {
+      converter = BridgeUtil.newInstance(converterCls);
+      final IConverter existing = converterCache.putIfAbsent(converterCls, converter);
+      if (existing != null) converter = existing;
+    }
+    return converter;
+  }
+}
@@ -0,0 +1,28 @@
+package com.afollestad.bridge;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the events of an {@link EventSource}. Methods are called one at a time, in order: on the
+ * config's executor if one is set, otherwise on Android's main thread or, in stock Java, on the
+ * thread reading the stream.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public abstract class EventCallback {
+
+  public abstract void event(@NotNull ServerSentEvent event);
+
+  /** A connection was opened, including each reconnection. */
+  public void open(@NotNull Response response) {}
+
+  /**
+   * A connection failed. If willReconnect is false, the source has stopped, e.g. because the server
+   * responded with an error status or something other than an event stream.
+   */
+  public void error(@NotNull BridgeException e, boolean willReconnect) {}
+
+  /** Called once when the source stops for good, including after {@link EventSource#close()}. */
+  public void closed() {}
+}
@@ -0,0 +1,56 @@
+package com.afollestad.bridge;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Receives timing events for every request made through the {@link Config} it's set on. All
+ * durations are measured with {@link System#nanoTime()}. Methods are called on the thread doing the
+ * work, so implementations must be thread safe and fast; the default implementations do nothing.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public abstract class EventListener {
+
+  /** The request was started, before any hedging, retries or redirects. */
+  public void callStart(@NotNull Request request) {}
+
+  /** The host of the request was resolved. Lookups answered by the JVM's DNS cache are quick. */
+  public void dnsEnd(@NotNull Request request, @NotNull String host, long durationNanos) {}
+
+  /**
+   * A connection was established. For HTTPS this includes the TLS handshake, as URLConnection
+   * doesn't expose it separately; secure tells you whether one took place.
+   */
+  public void connectEnd(@NotNull Request request, boolean secure, long durationNanos) {}
+
+  /** The request body was written to the connection. */
+  public void requestBodyEnd(@NotNull Request request, long byteCount, long durationNanos) {}
+
+  /** The response status and headers arrived, measured from when the request was fully sent. */
+  public void responseHeadersEnd(@NotNull Request request, int code, long timeToFirstByteNanos) {}
+
+  /** The response body was read from the connection. */
+  public void responseBodyEnd(@NotNull Request request, long byteCount, long durationNanos) {}
+
+  /** A compressed response body was decompressed. */
+  public void decompressionEnd(@NotNull Request request, long byteCount, long durationNanos) {}
+
+  /** A response body was converted into an object, array or list of cls. */
+  public void conversionEnd(@NotNull Request request, @NotNull Class<?> cls, long durationNanos) {}
+
+  /** An attempt failed and will be retried after delayMs. */
+  public void retry(
+      @NotNull Request request, @NotNull BridgeException cause, int attempt, long delayMs) {}
+
+  /** A redirect is being followed. */
+  public void redirect(@NotNull Request request, @NotNull String fromUrl, @NotNull String toUrl) {}
+
+  /** The call succeeded, durationNanos spans everything since {@link #callStart(Request)}. */
+  public void callEnd(@NotNull Request request, @Nullable Response response, long durationNanos) {}
+
+  /** The call failed, durationNanos spans everything since {@link #callStart(Request)}. */
+  public void callFailed(
+      @NotNull Request request, @NotNull BridgeException e, long durationNanos) {}
+}
@@ -0,0 +1,337 @@
+package com.afollestad.bridge;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A Server-Sent Events stream. Events are parsed as their lines arrive. When the stream ends or the
+ * connection fails, it reconnects after the server's retry delay (3 seconds by default), sending
+ * the last event ID in a Last-Event-ID header. It stops when the server responds with 204 No
+ * Content, an error status or something other than text/event-stream, or when it's closed.
+ *
+ * <p>Memory is bounded however long the stream runs: at most {@link #MAX_PENDING_EVENTS} events
+ * wait to be delivered before reading pauses, and an event with more than {@link #MAX_EVENT_SIZE}
+ * characters of data is dropped. Created with {@link RequestBuilder#asEvents(EventCallback)}.
+ *
+ * <p>If the config has an executor, it runs both the stream and the callbacks, so it needs at least
+ * two threads.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class EventSource implements Closeable {
+
+  public static final int MAX_EVENT_SIZE = 1024 * 1024;
+  public static final int MAX_PENDING_EVENTS = 256;
+  private static final long DEFAULT_RETRY_MS = 3000;
+
+  private final Object LOCK = new Object();
+  private final RequestBuilder template;
+  private final EventCallback callback;
+  private final Executor executor;
+  private final HandlerCompat handler;
+  private final Semaphore pendingEvents = new Semaphore(MAX_PENDING_EVENTS);
+  private final ArrayDeque<Runnable> deliveries = new ArrayDeque<>();
+  private boolean delivering;
+  private volatile String lastEventId = "";
+  private volatile long retryMs = DEFAULT_RETRY_MS;
+
+  // Guarded by LOCK
+  private boolean closed;
+  private Request current;
+  private ScheduledFuture<?> pendingReconnect;
+
+  EventSource(@NotNull RequestBuilder template, @NotNull EventCallback callback) {
+    if (template.pipe != null) {
+      throw new IllegalStateException("Requests with a Pipe body can't be used for events.");
+    }
+    if (template.hedgeMaxExtra > 0) {
+      throw new IllegalStateException("Requests for events can't be hedged.");
+    }
+    this.template = template;
+    this.callback = callback;
+    this.executor = template.config.executor;
+    this.handler = executor == null ? new HandlerCompat() : null;
+    connect();
+  }
+
+  /** The ID of the last event received, sent as Last-Event-ID when reconnecting. */
+  @NotNull
+  public String lastEventId() {
+    return lastEventId;
+  }
+
+  public boolean isClosed() {
+    synchronized (LOCK) {
+      return closed;
+    }
+  }
+
+  /** Disconnects and stops reconnecting. Events that haven't been delivered yet are dropped. */
+  @Override
+  public void close() {
+    final Request request;
+    synchronized (LOCK) {
+      if (closed) return;
+      closed = true;
+      request = current;
+      current = null;
+      if (pendingReconnect != null) pendingReconnect.cancel(false);
+      pendingReconnect = null;
+    }
+    if (request != null) request.cancel(true);
+    deliverClosed();
+  }
+
+  private void connect() {
+    // Each connection is a fresh copy, reconnection takes the place of the builder's own retries
+    final RequestBuilder builder = new RequestBuilder(template);
+    builder.totalRetryCount = 0;
+    builder.header("Accept", "text/event-stream");
+    builder.header("Cache-Control", "no-cache");
+    if (!lastEventId.isEmpty()) builder.header("Last-Event-ID", lastEventId);
+    final Parser parser = new Parser();
+    synchronized (LOCK) {
+      if (closed) return;
+      pendingReconnect = null;
+      current =
+          builder.streamLines(
+              parser,
+              new Callback() {
+                @Override
+                public void response(
+                    @NotNull Request request,
+                    @Nullable Response response,
+                    @Nullable BridgeException e) {
+                  disconnected(request, response, e, parser.fatal);
+                }
+              });
+    }
+  }
+
+  private void disconnected(
+      Request request, @Nullable Response response, @Nullable BridgeException e, boolean fatal) {
+    final boolean reconnect =
+        !fatal
+            && (response == null || response.code() != 204)
+            && (e == null || e.reason() != BridgeException.REASON_RESPONSE_UNSUCCESSFUL);
+    synchronized (LOCK) {
+      if (closed || current != request) return;
+      current = null;
+      if (reconnect) {
+        final long delay = retryMs;
+        if (LogCompat.isEnabled()) {
+          LogCompat.d(this, "Event stream %s ended, reconnecting in %dms.", request, delay);
+        }
+        pendingReconnect =
+            template.context.execute(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    connect();
+                  }
+                },
+                delay);
+      } else {
+        closed = true;
+      }
+    }
+    if (e != null) deliverError(e, reconnect);
+    if (!reconnect) deliverClosed();
+  }
+
+  private void deliverError(final BridgeException e, final boolean willReconnect) {
+    deliver(
+        new Runnable() {
+          @Override
+          public void run() {
+            callback.error(e, willReconnect);
+          }
+        },
+        false);
+  }
+
+  private void deliverClosed() {
+    deliver(
+        new Runnable() {
+          @Override
+          public void run() {
+            callback.closed();
+          }
+        },
+        false);
+  }
+
+  /**
+   * Runs callbacks one at a time, in order. Events count towards the pending limit, so the reading
+   * thread waits while the executor catches up.
+   */
+  private void deliver(final Runnable task, boolean isEvent) {
+    if (executor == null) {
+      handler.post(task);
+      return;
+    }
+    if (isEvent) {
+      try {
+        pendingEvents.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    final Runnable counted =
+        !isEvent
+            ? task
+            : new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  if (!isClosed()) task.run();
+                } finally {
+                  pendingEvents.release();
+                }
+              }
+            };
+    synchronized (deliveries) {
+      deliveries.add(counted);
+      if (delivering) return;
+      delivering = true;
+    }
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            while (true) {
+              final Runnable next;
+              synchronized (deliveries) {
+                next = deliveries.poll();
+                if (next == null) {
+                  delivering = false;
+                  return;
+                }
+              }
+              try {
+                next.run();
+              } catch (RuntimeException e) {
+                LogCompat.e(this, "Event callback failed: %s", e.getMessage());
+              }
+            }
+          }
+        });
+  }
+
+  /** Parses the lines of one connection, following the HTML Living Standard's rules. */
+  private final class Parser implements StreamCallback {
+
+    private final StringBuilder data = new StringBuilder();
+    private String eventType = "";
+    private boolean firstLine = true;
+    private boolean discarding;
+    boolean fatal;
+
+    @Override
+    public void opened(@NotNull final Response response) throws BridgeException {
+      if (response.code() == 204) return;
+      final String contentType = response.contentType();
+      if (contentType == null || !contentType.startsWith("text/event-stream")) {
+        fatal = true;
+        throw new BridgeException(
+            response,
+            "Expected Content-Type text/event-stream, got " + contentType,
+            BridgeException.REASON_RESPONSE_UNPARSEABLE);
+      }
+      deliver(
+          new Runnable() {
+            @Override
+            public void run() {
+              callback.open(response);
+            }
+          },
+          false);
+    }
+
+    @Override
+    public void onLine(@NotNull String line) {
+      if (firstLine) {
+        firstLine = false;
+        if (line.startsWith("\uFEFF")) line = line.substring(1);
+      }
+      if (line.isEmpty()) {
+        dispatch();
+        return;
+      }
+      if (line.charAt(0) == ':') return; // A comment, often sent to keep the connection alive
+      final int colon = line.indexOf(':');
+      final String field = colon != -1 ? line.substring(0, colon) : line;
+      int valueStart = colon != -1 ? colon + 1 : line.length();
+      if (valueStart < line.length() && line.charAt(valueStart) == ' ') valueStart++;
+      final String value = line.substring(valueStart);
+
+      switch (field) {
+        case "event":
+          eventType = value;
+          break;
+        case "data":
+          if (discarding) break;
+          if (data.length() + value.length() + 1 > MAX_EVENT_SIZE) {
+            LogCompat.e(this, "Dropping an event larger than %d characters.", MAX_EVENT_SIZE);
+            discarding = true;
+            data.setLength(0);
+            break;
+          }
+          data.append(value).append('\n');
+          break;
+        case "id":
+          if (value.indexOf('\0') == -1) lastEventId = value;
+          break;
+        case "retry":
+          if (isDigits(value)) {
+            try {
+              retryMs = Long.parseLong(value);
+            } catch (NumberFormatException ignored) {
+              // Too large to be a sensible delay
+            }
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void dispatch() {
+      final String type = eventType.isEmpty() ? "message" : eventType;
+      eventType = "";
+      if (discarding || data.length() == 0) {
+        discarding = false;
+        data.setLength(0);
+        return;
+      }
+      final ServerSentEvent event =
+          new ServerSentEvent(lastEventId, type, data.substring(0, data.length() - 1));
+      data.setLength(0);
+      if (data.capacity() > 8192) data.trimToSize();
+      deliver(
+          new Runnable() {
+            @Override
+            public void run() {
+              callback.event(event);
+            }
+          },
+          true);
+    }
+
+    private boolean isDigits(String value) {
+      if (value.isEmpty()) return false;
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        if (c < '0' || c > '9') return false;
+      }
+      return true;
+    }
+  }
+}
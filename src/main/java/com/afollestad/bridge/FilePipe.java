@@ -2,64 +2,169 @@ package com.afollestad.bridge;
 
 import java.io.*;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-/** @author Aidan Follestad (afollestad) */
+/**
+ * Sends a file, or a byte range of one. The file is read through a {@link FileChannel} with
+ * positional reads into one heap buffer, which is written out straight from its array. Nothing is
+ * memory mapped or allocated off the heap, since neither is released until it's garbage collected.
+ * Each {@link #writeTo(OutputStream, ProgressCallback)} opens the file again, so a request using
+ * the pipe can be retried.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
 @SuppressWarnings("WeakerAccess")
 public final class FilePipe extends Pipe {
 
-  private String filePath;
+  /** Matches {@link Config}'s default, for when the pipe is used outside of a request. */
+  private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
+
+  private final String filePath;
+  private final long offset;
+  private final long length;
   private InputStream inputStream;
-  private String hash;
 
   FilePipe(String filePath) {
-    this.filePath = filePath;
+    this(filePath, 0, -1);
   }
 
   FilePipe(File file) {
     this(file.getAbsolutePath());
   }
 
+  /** A length of -1 sends everything from the offset to the end of the file. */
+  FilePipe(String filePath, long offset, long length) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("Offset must be 0 or greater.");
+    } else if (length < -1) {
+      throw new IllegalArgumentException("Length must be -1 or greater.");
+    }
+    this.filePath = filePath;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Made from the path, range, size and modification time rather than the content, so it changes
+   * when the file does without reading it.
+   */
   @Override
   public String hash() {
-    if (hash == null) {
-      try {
-        getStream();
-        hash = BridgeHashUtil.hash(filePath + "/" + inputStream.available());
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+    final File file = new File(filePath);
+    return BridgeHashUtil.fastHash(
+        filePath
+            + "\0"
+            + offset
+            + "\0"
+            + length
+            + "\0"
+            + file.length()
+            + "\0"
+            + file.lastModified());
+  }
+
+  @Override
+  public boolean digest(@NotNull MessageDigest digest) throws IOException {
+    return digest(digest, DEFAULT_BUFFER_SIZE);
+  }
+
+  @Override
+  boolean digest(@NotNull MessageDigest digest, int bufferSize) throws IOException {
+    final FileInputStream fis = new FileInputStream(filePath);
+    try {
+      final FileChannel channel = fis.getChannel();
+      final long total = rangeLength(channel.size());
+      final byte[] bytes = new byte[bufferSize];
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      long read = 0;
+      while (read < total) {
+        final int count = fill(channel, buffer, read, total);
+        digest.update(bytes, 0, count);
+        read += count;
       }
+      return true;
+    } finally {
+      BridgeUtil.closeQuietly(fis);
     }
-    return hash;
   }
 
   @Override
   public void writeTo(@NotNull OutputStream os, @Nullable ProgressCallback progressCallback)
       throws IOException {
+    writeTo(os, progressCallback, DEFAULT_BUFFER_SIZE);
+  }
+
+  @Override
+  void writeTo(
+      @NotNull OutputStream os, @Nullable ProgressCallback progressCallback, int bufferSize)
+      throws IOException {
+    final FileInputStream fis = new FileInputStream(filePath);
     try {
-      byte[] buffer = new byte[Bridge.config().bufferSize];
-      int read;
-      int totalRead = 0;
-      getStream();
-      final int totalAvailable = inputStream.available();
-      while ((read = inputStream.read(buffer)) != -1) {
-        os.write(buffer, 0, read);
-        totalRead += read;
-        if (progressCallback != null) progressCallback.publishProgress(totalRead, totalAvailable);
+      final FileChannel channel = fis.getChannel();
+      final long total = rangeLength(channel.size());
+      final byte[] bytes = new byte[bufferSize];
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      long written = 0;
+      while (written < total) {
+        final int count = fill(channel, buffer, written, total);
+        os.write(bytes, 0, count);
+        written += count;
+        if (progressCallback != null) progressCallback.publishProgress(written, total);
       }
     } finally {
-      BridgeUtil.closeQuietly(inputStream);
+      BridgeUtil.closeQuietly(fis);
+    }
+  }
+
+  /**
+   * Reads the range from {@code done} bytes in, up to the buffer's capacity, into the start of the
+   * buffer's array. The channel's own position isn't used or moved.
+   */
+  private int fill(FileChannel channel, ByteBuffer buffer, long done, long total)
+      throws IOException {
+    buffer.clear();
+    if (buffer.capacity() > total - done) buffer.limit((int) (total - done));
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + done + buffer.position()) == -1) {
+        throw new EOFException(
+            String.format("%s was truncated while it was being read.", filePath));
+      }
     }
+    return buffer.position();
   }
 
   @Override
-  public int contentLength() throws IOException {
-    InputStream stream = getStream();
-    if (stream == null) {
-      return -1;
+  public long contentLength() throws IOException {
+    // available() is an int, so it can't describe files over 2 GB
+    final File file = new File(filePath);
+    if (!file.isFile()) {
+      throw new FileNotFoundException(filePath);
     }
-    return inputStream.available();
+    return rangeLength(file.length());
+  }
+
+  /** The position of the range's first byte within the file. */
+  public long offset() {
+    return offset;
+  }
+
+  private long rangeLength(long fileSize) throws IOException {
+    if (offset > fileSize) {
+      throw new EOFException(
+          String.format("Offset %d is past the end of %s (%d bytes).", offset, filePath, fileSize));
+    }
+    final long available = fileSize - offset;
+    if (length == -1) return available;
+    if (length > available) {
+      throw new EOFException(
+          String.format(
+              "Range %d+%d is past the end of %s (%d bytes).", offset, length, filePath, fileSize));
+    }
+    return length;
   }
 
   @Override
@@ -72,9 +177,20 @@ public final class FilePipe extends Pipe {
     return type;
   }
 
+  /** A stream over the range, positioned at its start and ending with it. */
   public InputStream getStream() throws IOException {
     if (inputStream == null) {
-      inputStream = new FileInputStream(filePath);
+      final FileInputStream fis = new FileInputStream(filePath);
+      final FileChannel channel = fis.getChannel();
+      final long total;
+      try {
+        total = rangeLength(channel.size());
+        channel.position(offset);
+      } catch (IOException e) {
+        BridgeUtil.closeQuietly(fis);
+        throw e;
+      }
+      inputStream = new RangeInputStream(fis, total);
     }
     return inputStream;
   }
@@ -83,4 +199,48 @@ public final class FilePipe extends Pipe {
   public void close() {
     BridgeUtil.closeQuietly(inputStream);
   }
+
+  /** Stops reading once the range's length has been read. */
+  private static final class RangeInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    RangeInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) return -1;
+      final int b = super.read();
+      if (b != -1) remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) return -1;
+      final int count = super.read(b, off, (int) Math.min(len, remaining));
+      if (count > 0) remaining -= count;
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      final long skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(super.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
 }
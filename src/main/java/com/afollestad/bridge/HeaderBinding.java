@@ -0,0 +1,163 @@
+package com.afollestad.bridge;
+
+import com.afollestad.bridge.annotations.Header;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The fields of a class annotated with {@link Header}, found once per class and cached along with
+ * their accessors. Request objects passed to {@link RequestBuilder#body(Object)} have them sent as
+ * headers, and objects made by {@link Response#asClass(Class)} have them set from the response's
+ * headers.
+ *
+ * <p>Fields are read and written through {@link Field}s made accessible up front, rather than
+ * MethodHandles, which older Android versions don't have.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class HeaderBinding {
+
+  private static final ConcurrentHashMap<Class<?>, HeaderBinding> CACHE = new ConcurrentHashMap<>();
+  private static final HeaderBinding NONE = new HeaderBinding(new Field[0], new String[0]);
+  private static final List<Class<?>> BOXES =
+      Arrays.<Class<?>>asList(
+          Integer.class,
+          Long.class,
+          Boolean.class,
+          Double.class,
+          Float.class,
+          Short.class,
+          Byte.class,
+          Character.class);
+
+  private final Field[] fields;
+  private final String[] names;
+
+  private HeaderBinding(Field[] fields, String[] names) {
+    this.fields = fields;
+    this.names = names;
+  }
+
+  @NotNull
+  static HeaderBinding of(@NotNull Class<?> cls) {
+    HeaderBinding binding = CACHE.get(cls);
+    if (binding == null) {
+      binding = create(cls);
+      final HeaderBinding existing = CACHE.putIfAbsent(cls, binding);
+      if (existing != null) binding = existing;
+    }
+    return binding;
+  }
+
+  private static HeaderBinding create(Class<?> cls) {
+    final List<Field> fields = new ArrayList<>();
+    final List<String> names = new ArrayList<>();
+    for (Class<?> type = cls; type != null && type != Object.class; type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        final Header header = field.getAnnotation(Header.class);
+        if (header == null || Modifier.isStatic(field.getModifiers())) continue;
+        checkType(field);
+        field.setAccessible(true);
+        fields.add(field);
+        names.add(header.name().isEmpty() ? field.getName() : header.name());
+      }
+    }
+    if (fields.isEmpty()) return NONE;
+    return new HeaderBinding(
+        fields.toArray(new Field[fields.size()]), names.toArray(new String[names.size()]));
+  }
+
+  private static void checkType(Field field) {
+    final Class<?> type = field.getType();
+    if (type == String.class || type.isPrimitive() || BOXES.contains(type)) {
+      return;
+    } else if (type == List.class) {
+      final Type generic = field.getGenericType();
+      if (generic instanceof ParameterizedType
+          && ((ParameterizedType) generic).getActualTypeArguments()[0] == String.class) {
+        return;
+      }
+    }
+    throw new IllegalStateException(
+        String.format(
+            "@Header field %s.%s can't be a %s, use a String, List<String>, primitive or boxed primitive.",
+            field.getDeclaringClass().getName(), field.getName(), field.getGenericType()));
+  }
+
+  boolean isEmpty() {
+    return fields.length == 0;
+  }
+
+  /** Sets a header for each annotated field that isn't null. */
+  void writeTo(@NotNull Object object, @NotNull RequestBuilder builder) {
+    for (int i = 0; i < fields.length; i++) {
+      final Object value;
+      try {
+        value = fields[i].get(object);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+      if (value instanceof List) {
+        final List<?> values = (List<?>) value;
+        if (values.isEmpty()) continue;
+        final StringBuilder joined = new StringBuilder();
+        for (Object item : values) {
+          if (joined.length() > 0) joined.append(", ");
+          joined.append(item);
+        }
+        builder.header(names[i], joined.toString());
+      } else if (value != null) {
+        builder.header(names[i], value);
+      }
+    }
+  }
+
+  /** Sets each annotated field from the response's header, if it has one. */
+  void readFrom(@NotNull Response response, @NotNull Object object) {
+    for (int i = 0; i < fields.length; i++) {
+      final Field field = fields[i];
+      final Object value;
+      if (field.getType() == List.class) {
+        value = response.headerList(names[i]);
+      } else {
+        final String header = response.header(names[i]);
+        value = header != null ? parse(field.getType(), header.trim()) : null;
+      }
+      if (value == null) continue;
+      try {
+        field.set(object, value);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private static Object parse(Class<?> type, String value) {
+    if (type == String.class) {
+      return value;
+    } else if (type == int.class || type == Integer.class) {
+      return Integer.parseInt(value);
+    } else if (type == long.class || type == Long.class) {
+      return Long.parseLong(value);
+    } else if (type == boolean.class || type == Boolean.class) {
+      return Boolean.parseBoolean(value);
+    } else if (type == double.class || type == Double.class) {
+      return Double.parseDouble(value);
+    } else if (type == float.class || type == Float.class) {
+      return Float.parseFloat(value);
+    } else if (type == short.class || type == Short.class) {
+      return Short.parseShort(value);
+    } else if (type == byte.class || type == Byte.class) {
+      return Byte.parseByte(value);
+    } else {
+      return value.isEmpty() ? null : value.charAt(0);
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package com.afollestad.bridge;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A compact list of headers, stored as alternating names and values in a single array. Names are
+ * compared case-insensitively, and common names are replaced with shared constants so lookups of
+ * them usually succeed on an identity check. A header with several values is stored as several
+ * entries, in order.
+ *
+ * <p>A shared instance is copied on its first modification, so every request can start out with the
+ * config's default headers without copying them.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Headers implements Serializable {
+
+  private static final String[] COMMON_NAMES = {
+    "Accept",
+    "Accept-Encoding",
+    "Accept-Language",
+    "Accept-Ranges",
+    "Age",
+    "Authorization",
+    "Cache-Control",
+    "Connection",
+    "Content-Disposition",
+    "Content-Encoding",
+    "Content-Length",
+    "Content-Range",
+    "Content-Type",
+    "Cookie",
+    "Date",
+    "ETag",
+    "Expires",
+    "Host",
+    "If-Modified-Since",
+    "If-None-Match",
+    "Last-Modified",
+    "Location",
+    "Range",
+    "Retry-After",
+    "Server",
+    "Set-Cookie",
+    "Transfer-Encoding",
+    "User-Agent",
+    "Vary"
+  };
+
+  /** COMMON_NAMES grouped by length, so canonicalName() only compares names that could match. */
+  private static final String[][] COMMON_NAMES_BY_LENGTH = groupByLength(COMMON_NAMES);
+
+  private Object[] entries;
+  private int size;
+  private boolean shared;
+  private transient Map<String, List<String>> multimap;
+
+  Headers() {
+    this(8);
+  }
+
+  Headers(int capacity) {
+    entries = new Object[capacity * 2];
+  }
+
+  private Headers(Headers source) {
+    entries = Arrays.copyOf(source.entries, Math.max(source.entries.length, source.size * 2 + 2));
+    size = source.size;
+  }
+
+  private static String[][] groupByLength(String[] names) {
+    int maxLength = 0;
+    for (String name : names) maxLength = Math.max(maxLength, name.length());
+    final String[][] result = new String[maxLength + 1][];
+    for (String name : names) {
+      final String[] group = result[name.length()];
+      final String[] grown = group == null ? new String[1] : Arrays.copyOf(group, group.length + 1);
+      grown[grown.length - 1] = name;
+      result[name.length()] = grown;
+    }
+    return result;
+  }
+
+  /** Returns the shared constant for common header names, or the name itself. */
+  static String canonicalName(String name) {
+    final int length = name.length();
+    if (length >= COMMON_NAMES_BY_LENGTH.length) return name;
+    final String[] candidates = COMMON_NAMES_BY_LENGTH[length];
+    if (candidates == null) return name;
+    for (String common : candidates) {
+      //noinspection StringEquality
+      if (common == name || common.equalsIgnoreCase(name)) return common;
+    }
+    return name;
+  }
+
+  private static boolean nameEquals(String a, String b) {
+    //noinspection StringEquality
+    return a == b || a.equalsIgnoreCase(b);
+  }
+
+  Headers copy() {
+    return new Headers(this);
+  }
+
+  /** Marks these headers as shared, so that the next modification works on a copy. */
+  Headers share() {
+    shared = true;
+    return this;
+  }
+
+  /** Returns these headers if they can be modified, or a modifiable copy if they're shared. */
+  Headers writable() {
+    return shared ? new Headers(this) : this;
+  }
+
+  int size() {
+    return size;
+  }
+
+  String name(int index) {
+    return (String) entries[index * 2];
+  }
+
+  Object value(int index) {
+    return entries[index * 2 + 1];
+  }
+
+  private int indexOf(String name) {
+    for (int i = 0; i < size; i++) {
+      if (nameEquals((String) entries[i * 2], name)) return i;
+    }
+    return -1;
+  }
+
+  /** The first value of the named header, or null. */
+  @Nullable
+  Object get(@NotNull String name) {
+    final int index = indexOf(name);
+    return index != -1 ? entries[index * 2 + 1] : null;
+  }
+
+  @Nullable
+  String getString(@NotNull String name) {
+    final Object value = get(name);
+    return value != null ? value.toString() : null;
+  }
+
+  /** All values of the named header in order, or null if there are none. */
+  @Nullable
+  List<String> values(@NotNull String name) {
+    List<String> result = null;
+    for (int i = 0; i < size; i++) {
+      if (nameEquals((String) entries[i * 2], name)) {
+        if (result == null) result = new ArrayList<>(2);
+        result.add(String.valueOf(entries[i * 2 + 1]));
+      }
+    }
+    return result;
+  }
+
+  /** Appends a value, keeping any existing values of the same header. */
+  void add(@NotNull String name, @NotNull Object value) {
+    checkWritable();
+    if (size * 2 == entries.length) {
+      entries = Arrays.copyOf(entries, Math.max(entries.length * 2, 16));
+    }
+    entries[size * 2] = canonicalName(name);
+    entries[size * 2 + 1] = value;
+    size++;
+    multimap = null;
+  }
+
+  /** Replaces all values of the header with the given one, or removes it if the value is null. */
+  void set(@NotNull String name, @Nullable Object value) {
+    checkWritable();
+    final int index = indexOf(name);
+    if (index != -1 && value != null) {
+      entries[index * 2] = canonicalName(name);
+      entries[index * 2 + 1] = value;
+      removeFrom(index + 1, name);
+      multimap = null;
+      return;
+    }
+    if (index != -1) removeFrom(index, name);
+    if (value != null) add(name, value);
+  }
+
+  private void removeFrom(int start, String name) {
+    int kept = start;
+    for (int i = start; i < size; i++) {
+      if (!nameEquals((String) entries[i * 2], name)) {
+        entries[kept * 2] = entries[i * 2];
+        entries[kept * 2 + 1] = entries[i * 2 + 1];
+        kept++;
+      }
+    }
+    Arrays.fill(entries, kept * 2, size * 2, null);
+    size = kept;
+    multimap = null;
+  }
+
+  private void checkWritable() {
+    if (shared) throw new IllegalStateException("Shared headers can't be modified.");
+  }
+
+  /** A read-only map of names to their values, built on first use. */
+  @NotNull
+  Map<String, List<String>> toMultimap() {
+    Map<String, List<String>> result = multimap;
+    if (result == null) {
+      final LinkedHashMap<String, List<String>> map = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        final String name = (String) entries[i * 2];
+        if (!map.containsKey(name)) {
+          //noinspection ConstantConditions
+          map.put(name, Collections.unmodifiableList(values(name)));
+        }
+      }
+      result = multimap = Collections.unmodifiableMap(map);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < size; i++) {
+      if (i > 0) sb.append(", ");
+      sb.append(entries[i * 2]).append('=').append(entries[i * 2 + 1]);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,144 @@
+package com.afollestad.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a request, and duplicates of it if it's slow to answer, taking whichever attempt completes
+ * first.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class HedgedCall {
+
+  private final Request driver;
+  private final RequestBuilder builder;
+  private final LinkedBlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+  private final List<Request> attempts = new ArrayList<>();
+  private boolean cancelled;
+
+  HedgedCall(Request driver) {
+    this.driver = driver;
+    this.builder = driver.builder();
+  }
+
+  /** Blocks until an attempt succeeds (returning it), or until all attempts have failed. */
+  Request execute() throws BridgeException {
+    // Duplicates are copied from a snapshot taken now, since the first attempt changes the
+    // original builder as it follows redirects and retries
+    final RequestBuilder template;
+    try {
+      template = new RequestBuilder(builder);
+    } catch (IllegalStateException e) {
+      throw new BridgeException(driver, e);
+    }
+    // The first attempt uses the original builder, so retry callbacks see the builder they expect
+    launch(new Request(builder, driver));
+    int outstanding = 1;
+    BridgeException lastError = null;
+    while (true) {
+      final Attempt attempt;
+      try {
+        if (launchedCount() <= builder.hedgeMaxExtra) {
+          attempt = completed.poll(builder.hedgeDelayMs, TimeUnit.MILLISECONDS);
+        } else {
+          attempt = completed.take();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancel();
+        throw new BridgeException(driver);
+      }
+
+      if (attempt == null) {
+        // Nothing answered within the hedge delay, send a duplicate
+        final Request hedge = new Request(new RequestBuilder(template), driver);
+        if (LogCompat.isEnabled()) {
+          LogCompat.d(
+              this, "Hedging %s after %dms without a response.", driver, builder.hedgeDelayMs);
+        }
+        builder.context.hedgesFired.incrementAndGet();
+        launch(hedge);
+        outstanding++;
+        continue;
+      }
+
+      outstanding--;
+      if (attempt.error == null) {
+        final int index = indexOf(attempt.request);
+        if (index > 0) {
+          builder.context.hedgesWon.incrementAndGet();
+          if (LogCompat.isEnabled()) {
+            LogCompat.d(this, "Hedged attempt %d won for %s", index, driver);
+          }
+        }
+        cancelAllExcept(attempt.request);
+        return attempt.request;
+      }
+      lastError = attempt.error;
+      if (outstanding == 0) {
+        throw lastError;
+      }
+    }
+  }
+
+  void cancel() {
+    synchronized (attempts) {
+      cancelled = true;
+    }
+    cancelAllExcept(null);
+  }
+
+  private void launch(final Request request) throws BridgeException {
+    synchronized (attempts) {
+      if (cancelled) throw new BridgeException(driver);
+      attempts.add(request);
+    }
+    builder.context.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              completed.add(new Attempt(request.makeRequest(), null));
+            } catch (BridgeException e) {
+              completed.add(new Attempt(request, e));
+            }
+          }
+        });
+  }
+
+  private int launchedCount() {
+    synchronized (attempts) {
+      return attempts.size();
+    }
+  }
+
+  private int indexOf(Request request) {
+    synchronized (attempts) {
+      return attempts.indexOf(request);
+    }
+  }
+
+  private void cancelAllExcept(Request winner) {
+    final List<Request> toCancel;
+    synchronized (attempts) {
+      toCancel = new ArrayList<>(attempts);
+    }
+    for (Request attempt : toCancel) {
+      if (attempt != winner) attempt.cancel(true);
+    }
+  }
+
+  private static final class Attempt {
+
+    final Request request;
+    final BridgeException error;
+
+    Attempt(Request request, BridgeException error) {
+      this.request = request;
+      this.error = error;
+    }
+  }
+}
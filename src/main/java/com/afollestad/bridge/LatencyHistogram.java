@@ -0,0 +1,106 @@
+package com.afollestad.bridge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear latency histogram in the style of HdrHistogram. Values are recorded in
+ * microseconds with a relative error of under 1.6%, from 0 up to about an hour; larger values are
+ * clamped. Recording is lock-free and allocation-free.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+  private static final long MAX_VALUE_MICROS = TimeUnit.HOURS.toMicros(1);
+  private static final int BUCKET_COUNT = indexOf(MAX_VALUE_MICROS) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  private static int indexOf(long micros) {
+    if (micros < SUB_BUCKET_COUNT) return (int) micros;
+    final int bucket = 64 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    final int subBucket = (int) (micros >>> bucket);
+    return SUB_BUCKET_COUNT + (bucket - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+  }
+
+  /** The highest value that maps to the same index as the given index. */
+  private static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) return index;
+    final int bucket = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+    final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return (subBucket << bucket) + (1L << bucket) - 1;
+  }
+
+  public void record(long durationNanos) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(durationNanos, 0));
+    if (micros > MAX_VALUE_MICROS) micros = MAX_VALUE_MICROS;
+    counts.incrementAndGet(indexOf(micros));
+    totalCount.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    long max;
+    while (micros > (max = maxMicros.get())) {
+      if (maxMicros.compareAndSet(max, micros)) break;
+    }
+  }
+
+  public long count() {
+    return totalCount.get();
+  }
+
+  public long maxMicros() {
+    return maxMicros.get();
+  }
+
+  public double meanMicros() {
+    final long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalMicros.get() / count;
+  }
+
+  /** Returns the value below which the given percentage (0-100) of recorded values fall. */
+  public long percentileMicros(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+    }
+    final long count = totalCount.get();
+    if (count == 0) return 0;
+    final long target = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueAt(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    totalMicros.set(0);
+    maxMicros.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d p50=%dus p90=%dus p99=%dus p999=%dus max=%dus",
+        count(),
+        percentileMicros(50),
+        percentileMicros(90),
+        percentileMicros(99),
+        percentileMicros(99.9),
+        maxMicros());
+  }
+}
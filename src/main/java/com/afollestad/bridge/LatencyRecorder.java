@@ -0,0 +1,91 @@
+package com.afollestad.bridge;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An {@link EventListener} which records call latency, and time to first byte, into a {@link
+ * LatencyHistogram} per method and host, e.g. "GET api.example.com".
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class LatencyRecorder extends EventListener {
+
+  private final ConcurrentHashMap<String, LatencyHistogram> calls = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, LatencyHistogram> firstBytes = new ConcurrentHashMap<>();
+
+  private static String key(Request request) {
+    String host;
+    try {
+      host = new URL(request.url()).getHost();
+    } catch (Exception e) {
+      host = request.url();
+    }
+    return Method.name(request.method()) + " " + host;
+  }
+
+  private static LatencyHistogram histogram(
+      ConcurrentHashMap<String, LatencyHistogram> map, String key) {
+    LatencyHistogram histogram = map.get(key);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      final LatencyHistogram existing = map.putIfAbsent(key, histogram);
+      if (existing != null) histogram = existing;
+    }
+    return histogram;
+  }
+
+  /** Call latency, failed calls included, for a method such as "GET" and a host. */
+  @Nullable
+  public LatencyHistogram calls(@NotNull String method, @NotNull String host) {
+    return calls.get(method + " " + host);
+  }
+
+  /** Time to first byte of each attempt, for a method such as "GET" and a host. */
+  @Nullable
+  public LatencyHistogram timeToFirstByte(@NotNull String method, @NotNull String host) {
+    return firstBytes.get(method + " " + host);
+  }
+
+  /** Call latency histograms, keyed by method and host, e.g. "GET api.example.com". */
+  @NotNull
+  public Map<String, LatencyHistogram> calls() {
+    return Collections.unmodifiableMap(new HashMap<>(calls));
+  }
+
+  public void reset() {
+    calls.clear();
+    firstBytes.clear();
+  }
+
+  @Override
+  public void responseHeadersEnd(@NotNull Request request, int code, long timeToFirstByteNanos) {
+    histogram(firstBytes, key(request)).record(timeToFirstByteNanos);
+  }
+
+  @Override
+  public void callEnd(@NotNull Request request, @Nullable Response response, long durationNanos) {
+    histogram(calls, key(request)).record(durationNanos);
+  }
+
+  @Override
+  public void callFailed(@NotNull Request request, @NotNull BridgeException e, long durationNanos) {
+    histogram(calls, key(request)).record(durationNanos);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, LatencyHistogram> entry : calls.entrySet()) {
+      if (sb.length() > 0) sb.append('\n');
+      sb.append(entry.getKey()).append(": ").append(entry.getValue());
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,90 @@
+package com.afollestad.bridge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Splits a UTF-8 stream into lines as the bytes arrive. Lines end with \n, \r\n or \r. Those bytes
+ * never occur inside a multi-byte UTF-8 sequence, so lines are split before decoding and a
+ * character spread across two reads is never cut in half. Only the current line is buffered.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class LineReader implements Closeable {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final InputStream is;
+  private byte[] buffer;
+  private int start;
+  private int end;
+  private long bytesRead;
+  private boolean eof;
+  private boolean skipLineFeed;
+
+  LineReader(@NotNull InputStream is, int bufferSize) {
+    this.is = is;
+    this.buffer = new byte[bufferSize];
+  }
+
+  /** The next line without its terminator, or null at the end of the stream. */
+  @Nullable
+  String readLine() throws IOException {
+    int scan = start;
+    while (true) {
+      if (skipLineFeed && start < end) {
+        // The previous line ended with \r, which may have been half of \r\n
+        skipLineFeed = false;
+        if (buffer[start] == '\n') start++;
+        scan = start;
+      }
+      for (int i = scan; i < end; i++) {
+        final byte b = buffer[i];
+        if (b == '\n' || b == '\r') {
+          final String line = new String(buffer, start, i - start, UTF_8);
+          start = i + 1;
+          skipLineFeed = b == '\r';
+          return line;
+        }
+      }
+      if (eof) {
+        if (start == end) return null;
+        final String line = new String(buffer, start, end - start, UTF_8);
+        start = end;
+        return line;
+      }
+      scan = end;
+      if (start > 0) {
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        scan -= start;
+        end -= start;
+        start = 0;
+      }
+      if (end == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      final int read = is.read(buffer, end, buffer.length - end);
+      if (read == -1) {
+        eof = true;
+      } else {
+        end += read;
+        bytesRead += read;
+      }
+    }
+  }
+
+  /** The number of bytes read from the stream so far. */
+  long bytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    is.close();
+  }
+}
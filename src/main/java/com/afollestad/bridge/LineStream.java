@@ -0,0 +1,151 @@
+package com.afollestad.bridge;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The lines of a response body, read on a worker thread as they arrive and handed over through a
+ * small buffer. When the reader falls behind, the worker waits rather than buffering more, so
+ * memory stays bounded however long the body is. Returned by {@link RequestBuilder#asLines()}.
+ *
+ * <p>It can be used in a for-each loop; the iterator throws an IllegalStateException caused by the
+ * {@link BridgeException} if the request fails. Use {@link #readLine()} to handle the failure
+ * directly.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class LineStream implements Iterable<String>, Closeable {
+
+  private static final int CAPACITY = 256;
+  private static final Object END = new Object();
+
+  private final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<>(CAPACITY);
+  private final Request request;
+  private volatile boolean closed;
+  private volatile Response response;
+  private volatile BridgeException error;
+  private volatile boolean ended;
+
+  LineStream(@NotNull RequestBuilder builder) {
+    request =
+        builder.streamLines(
+            new LineCallback() {
+              @Override
+              public void onLine(@NotNull String line) {
+                put(line);
+              }
+            },
+            new Callback() {
+              @Override
+              public void response(
+                  @NotNull Request request,
+                  @Nullable Response response,
+                  @Nullable BridgeException e) {
+                LineStream.this.response = response;
+                error = e;
+                put(END);
+              }
+            });
+  }
+
+  /** Waits for room in the buffer, giving up if the stream is closed meanwhile. */
+  private void put(Object item) {
+    try {
+      while (!closed) {
+        if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Blocks until the next line is available, returning null once the body has been read. Throws the
+   * failure if the request failed.
+   */
+  @Nullable
+  public String readLine() throws BridgeException {
+    if (ended) return finish();
+    final Object item;
+    try {
+      item = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new BridgeException(request);
+    }
+    if (item == END) {
+      ended = true;
+      return finish();
+    }
+    return (String) item;
+  }
+
+  @Nullable
+  private String finish() throws BridgeException {
+    if (error != null && !closed) throw error;
+    return null;
+  }
+
+  /** The response once the whole body has been read. It has no body of its own. */
+  @Nullable
+  public Response response() {
+    return response;
+  }
+
+  @NotNull
+  public Request request() {
+    return request;
+  }
+
+  @NotNull
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private String next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          try {
+            next = readLine();
+          } catch (BridgeException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        final String result = next;
+        next = null;
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** Cancels the request if it's still running. Lines that haven't been read are discarded. */
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    ended = true;
+    request.cancel(true);
+    queue.clear();
+    // Wakes up a reader blocked in readLine() on another thread
+    queue.offer(END);
+  }
+}
@@ -1,32 +1,97 @@
 package com.afollestad.bridge;
 
 import java.lang.reflect.Method;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
- * On Android, wraps an android.os.Handler to post Runnables to UI threads. In stock Java, Runnables
- * just run directly.
+ * Routes log output to a {@link BridgeLogger}; on Android that's android.util.Log by default, in
+ * stock Java it's System.out.
+ *
+ * <p>Logging is checked for with a single field read, and messages are only formatted when it's
+ * enabled. The fixed-arity overloads avoid allocating a varargs array; call sites that would box
+ * primitive arguments should check {@link #isEnabled()} first.
  *
  * @author Aidan Follestad (afollestad)
  */
 class LogCompat {
 
-  private static boolean didInit;
-  private static Method dMethod;
-  private static Method eMethod;
+  private static final BridgeLogger DEFAULT_LOGGER = defaultLogger();
+
+  private static volatile boolean enabled;
+  private static volatile BridgeLogger logger = DEFAULT_LOGGER;
+  private static volatile int bodyLimit = 256;
+  private static volatile Pattern[] redactions = new Pattern[0];
+
+  private LogCompat() {}
+
+  static boolean isEnabled() {
+    return enabled;
+  }
+
+  static void setEnabled(boolean enabled) {
+    LogCompat.enabled = enabled;
+  }
+
+  static void setLogger(@Nullable BridgeLogger logger) {
+    LogCompat.logger = logger != null ? logger : DEFAULT_LOGGER;
+  }
+
+  static void setBodyLimit(int bodyLimit) {
+    LogCompat.bodyLimit = bodyLimit;
+  }
+
+  static void setRedactions(@NotNull Pattern[] redactions) {
+    LogCompat.redactions = redactions;
+  }
+
+  static void reset() {
+    enabled = false;
+    logger = DEFAULT_LOGGER;
+    bodyLimit = 256;
+    redactions = new Pattern[0];
+  }
 
-  private static void init() {
-    if (didInit) return;
-    didInit = true;
+  private static BridgeLogger defaultLogger() {
     try {
-      Class<?> cls = Class.forName("android.util.Log");
-      if (cls != null) {
-        dMethod = cls.getMethod("d", String.class, String.class);
-        eMethod = cls.getMethod("e", String.class, String.class);
-      }
+      final Class<?> cls = Class.forName("android.util.Log");
+      final Method dMethod = cls.getMethod("d", String.class, String.class);
+      final Method eMethod = cls.getMethod("e", String.class, String.class);
+      return new BridgeLogger() {
+        @Override
+        public void d(@NotNull String tag, @NotNull String message) {
+          invoke(dMethod, tag, message);
+        }
+
+        @Override
+        public void e(@NotNull String tag, @NotNull String message) {
+          invoke(eMethod, tag, message);
+        }
+      };
     } catch (ClassNotFoundException ignored) {
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    return new BridgeLogger() {
+      @Override
+      public void d(@NotNull String tag, @NotNull String message) {
+        System.out.println("debug/[" + tag + "]: " + message);
+      }
+
+      @Override
+      public void e(@NotNull String tag, @NotNull String message) {
+        System.out.println("error/[" + tag + "]: " + message);
+      }
+    };
+  }
+
+  private static void invoke(Method method, String tag, String message) {
+    try {
+      method.invoke(null, tag, message);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
   }
 
   private static String getTag(Object context) {
@@ -37,46 +102,73 @@ class LogCompat {
     return cls.getSimpleName();
   }
 
-  private static String getMessage(String message, Object... formatArgs) {
-    if (formatArgs == null || formatArgs.length == 0) return message;
-    else return String.format(message, formatArgs);
+  static void d(Object tag, String message) {
+    if (!enabled) return;
+    logger.d(getTag(tag), message);
   }
 
-  static void d(Object tag, String message) {
-    if (!Bridge.config().logging) return;
-    init();
-    tag = getTag(tag);
-    if (eMethod == null) {
-      System.out.println("debug/[" + tag + "]: " + message);
-      return;
-    }
-    try {
-      dMethod.invoke(null, tag, message);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+  static void d(Object tag, String format, Object arg1) {
+    if (!enabled) return;
+    logger.d(getTag(tag), String.format(format, arg1));
   }
 
-  static void d(Object tag, String message, Object... args) {
-    d(tag, getMessage(message, args));
+  static void d(Object tag, String format, Object arg1, Object arg2) {
+    if (!enabled) return;
+    logger.d(getTag(tag), String.format(format, arg1, arg2));
   }
 
-  static void e(Object tag, String message) {
-    if (!Bridge.config().logging) return;
-    init();
-    tag = getTag(tag);
-    if (eMethod == null) {
-      System.out.println("error/[" + tag + "]: " + message);
+  static void d(Object tag, String format, Object arg1, Object arg2, Object arg3) {
+    if (!enabled) return;
+    logger.d(getTag(tag), String.format(format, arg1, arg2, arg3));
+  }
+
+  static void d(Object tag, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+    if (!enabled) return;
+    logger.d(getTag(tag), String.format(format, arg1, arg2, arg3, arg4));
+  }
+
+  static void d(Object tag, String format, Object... args) {
+    if (!enabled) return;
+    logger.d(getTag(tag), String.format(format, args));
+  }
+
+  /** Logs a request or response body, redacted and truncated to the configured limit. */
+  static void body(Object tag, String label, @Nullable String body) {
+    if (!enabled || bodyLimit == 0) return;
+    if (body == null) {
+      logger.d(getTag(tag), label + ": null");
       return;
     }
-    try {
-      eMethod.invoke(null, tag, message);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+    // Redacted before truncating, so a secret cut off by the limit still matches
+    String shown = body;
+    for (Pattern redaction : redactions) {
+      shown = redaction.matcher(shown).replaceAll("***");
+    }
+    if (bodyLimit > 0 && shown.length() > bodyLimit) {
+      shown =
+          shown.substring(0, bodyLimit)
+              + String.format("... (%d more characters)", shown.length() - bodyLimit);
     }
+    logger.d(getTag(tag), label + ": " + shown);
+  }
+
+  static void e(Object tag, String message) {
+    if (!enabled) return;
+    logger.e(getTag(tag), message);
+  }
+
+  static void e(Object tag, String format, Object arg1) {
+    if (!enabled) return;
+    logger.e(getTag(tag), String.format(format, arg1));
+  }
+
+  static void e(Object tag, String format, Object arg1, Object arg2) {
+    if (!enabled) return;
+    logger.e(getTag(tag), String.format(format, arg1, arg2));
   }
 
-  static void e(Object tag, String message, Object... args) {
-    e(tag, getMessage(message, args));
+  static void e(Object tag, String format, Object... args) {
+    if (!enabled) return;
+    logger.e(getTag(tag), String.format(format, args));
   }
 }
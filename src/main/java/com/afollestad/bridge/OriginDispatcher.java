@@ -0,0 +1,93 @@
+package com.afollestad.bridge;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Queues async requests by origin and sends each origin's queue one request after another on a
+ * limited number of workers. HttpURLConnection keeps a connection alive once its response has been
+ * read and the next request to the same origin picks it up, so each worker reuses one socket for
+ * its whole run instead of every request opening its own. Used when {@link
+ * Config#connectionsPerOrigin(int)} is set.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class OriginDispatcher {
+
+  private final Object LOCK = new Object();
+  private final BridgeClient client;
+  private final HashMap<String, Origin> origins = new HashMap<>();
+  final AtomicLong requests = new AtomicLong();
+  final AtomicLong connections = new AtomicLong();
+
+  OriginDispatcher(@NotNull BridgeClient client) {
+    this.client = client;
+  }
+
+  /** Queues the task behind the origin's other requests, starting a worker if one is free. */
+  void dispatch(@NotNull String url, @NotNull Runnable task, int maxConnections) {
+    final String key = BridgeUtil.origin(url);
+    final Origin origin;
+    synchronized (LOCK) {
+      Origin existing = origins.get(key);
+      if (existing == null) {
+        existing = new Origin(key);
+        origins.put(key, existing);
+      }
+      existing.queue.add(task);
+      if (existing.workers >= maxConnections) return;
+      existing.workers++;
+      origin = existing;
+    }
+    client.execute(new Worker(origin));
+  }
+
+  private final class Worker implements Runnable {
+
+    private final Origin origin;
+
+    Worker(Origin origin) {
+      this.origin = origin;
+    }
+
+    @Override
+    public void run() {
+      connections.incrementAndGet();
+      int sent = 0;
+      while (true) {
+        final Runnable task;
+        synchronized (LOCK) {
+          task = origin.queue.poll();
+          if (task == null) {
+            if (--origin.workers == 0) origins.remove(origin.key);
+            break;
+          }
+        }
+        requests.incrementAndGet();
+        sent++;
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          // Keep draining, the rest of the queue shouldn't be stranded by one request
+          LogCompat.e(this, "Request on %s failed: %s", origin.key, e.getMessage());
+        }
+      }
+      if (LogCompat.isEnabled()) {
+        LogCompat.d(this, "Sent %d request(s) to %s on one worker.", sent, origin.key);
+      }
+    }
+  }
+
+  private static final class Origin {
+
+    final String key;
+    final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    int workers;
+
+    Origin(String key) {
+      this.key = key;
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.afollestad.bridge;
 
 import java.io.*;
+import java.security.MessageDigest;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -20,21 +21,83 @@ public abstract class Pipe implements Serializable, Closeable {
     return new FilePipe(path);
   }
 
+  /**
+   * Creates a Pipe that reads length bytes of a File, starting at offset, into the Pipe. A length
+   * of -1 reads to the end of the file.
+   */
+  public static Pipe forFile(@NotNull File file, long offset, long length) {
+    return new FilePipe(file.getAbsolutePath(), offset, length);
+  }
+
   /** Creates a Pipe that reads an InputStream and transfers the content into the Pipe. */
   public static Pipe forStream(
       @NotNull InputStream is, @NotNull String contentType, @NotNull String hash) {
-    return new TransferPipe(is, contentType, hash);
+    return new TransferPipe(is, contentType, hash, -1);
   }
 
+  /**
+   * Creates a Pipe that reads an InputStream and transfers the content into the Pipe. Knowing the
+   * length up front lets the body stream straight to the connection instead of being buffered.
+   */
+  public static Pipe forStream(
+      @NotNull InputStream is,
+      @NotNull String contentType,
+      @NotNull String hash,
+      long contentLength) {
+    return new TransferPipe(is, contentType, hash, contentLength);
+  }
+
+  /**
+   * Identifies the body for duplicate request avoidance. It should change when the content does,
+   * and be cheap, since it's computed before the request is sent.
+   */
   public abstract String hash();
 
+  /**
+   * Feeds the body into the digest without writing it, for {@link
+   * RequestBuilder#contentDigest(String)}. Returns false if the body can't be read ahead of {@link
+   * #writeTo(OutputStream, ProgressCallback)}, e.g. because it's a stream that can only be read
+   * once.
+   */
+  public boolean digest(@NotNull MessageDigest digest) throws IOException {
+    return false;
+  }
+
+  /** Like {@link #digest(MessageDigest)}, reading with the request's configured buffer size. */
+  boolean digest(@NotNull MessageDigest digest, int bufferSize) throws IOException {
+    return digest(digest);
+  }
+
   public abstract void writeTo(
       @NotNull OutputStream os, @Nullable ProgressCallback progressListener) throws IOException;
 
+  /**
+   * Like {@link #writeTo(OutputStream, ProgressCallback)}, for a request whose client is configured
+   * with the given buffer size. Pipes which read through a buffer of their own use that size.
+   */
+  void writeTo(
+      @NotNull OutputStream os, @Nullable ProgressCallback progressListener, int bufferSize)
+      throws IOException {
+    writeTo(os, progressListener);
+  }
+
   @NotNull
   public abstract String contentType();
 
-  public abstract int contentLength() throws IOException;
+  /**
+   * The exact number of bytes {@link #writeTo(OutputStream, ProgressCallback)} writes, or -1 if it
+   * isn't known. With a known length the body is streamed to the connection as it's written;
+   * otherwise HttpURLConnection buffers all of it in memory first, which can't exceed 2 GB.
+   */
+  public abstract long contentLength() throws IOException;
+
+  /**
+   * Whether a body of unknown length is sent with chunked transfer encoding, instead of being
+   * buffered by HttpURLConnection to find its length.
+   */
+  boolean chunked() {
+    return false;
+  }
 
   public abstract void close();
 }
@@ -9,9 +9,23 @@ public abstract class ProgressCallback implements Serializable {
   Request request;
   private int lastPercent = -1;
 
-  public abstract void progress(Request request, int current, int total, int percent);
+  /**
+   * Upload progress, passed on from {@link #progress(Request, long, long, int)} with the byte
+   * counts capped at Integer.MAX_VALUE. Override the long version for bodies over 2 GB.
+   */
+  public void progress(Request request, int current, int total, int percent) {}
 
-  public final void publishProgress(int current, int total) {
+  /** Upload progress, called each time the percentage changes. */
+  public void progress(Request request, long current, long total, int percent) {
+    progress(
+        request,
+        (int) Math.min(current, Integer.MAX_VALUE),
+        (int) Math.min(total, Integer.MAX_VALUE),
+        percent);
+  }
+
+  public final void publishProgress(long current, long total) {
+    if (total <= 0) return;
     final int percent = (int) (((double) current / (double) total) * 100d);
     if (percent != lastPercent) {
       progress(request, current, total, percent);
@@ -2,28 +2,90 @@ package com.afollestad.bridge;
 
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.URL;
-import java.util.HashMap;
+import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.HttpsURLConnection;
 import org.jetbrains.annotations.Nullable;
 
 /** @author Aidan Follestad (afollestad) */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public final class Request implements Serializable {
 
+  private static final ThreadFactory ABORT_THREADS = BridgeUtil.daemonThreadFactory("Bridge-Abort");
+
   private final RequestBuilder builder;
-  boolean cancelCallbackFired;
-  private boolean isCancelled;
+  private final transient CountDownLatch cancelSignal = new CountDownLatch(1);
+  volatile boolean cancelCallbackFired;
+  private volatile boolean isCancelled;
   private Response response;
+  private transient volatile HedgedCall hedgedCall;
+  private transient volatile HttpURLConnection connection;
+  private transient volatile ScheduledFuture<?> pendingRetry;
+  private volatile boolean deadlineExceeded;
+  private long deadlineNanos;
+  @Nullable private final transient EventListener listener;
+  private long callStartNanos;
+  private String callbackKey;
+  private String[] digestHeader;
 
   protected Request(RequestBuilder builder) {
     this.builder = builder;
+    this.listener = builder.config.eventListener;
+  }
+
+  /** A request which shares the deadline of another, e.g. a hedged attempt of it. */
+  Request(RequestBuilder builder, Request deadlineOf) {
+    this(builder);
+    this.deadlineNanos = deadlineOf.deadlineNanos;
   }
 
   RequestBuilder builder() {
     return builder;
   }
 
+  /**
+   * The key of the request's callback stack. It's computed once, since the URL it's made from
+   * changes when a redirect is followed.
+   */
+  String callbackKey() {
+    if (callbackKey == null) callbackKey = CallbackStack.createKey(this);
+    return callbackKey;
+  }
+
+  @Nullable
+  EventListener listener() {
+    return listener;
+  }
+
+  /**
+   * Copies the response headers into a compact {@link Headers}. The map returned by the connection
+   * is built once and cached by it, so this avoids copying it into another map.
+   */
+  static Headers readHeaders(HttpURLConnection conn) {
+    final Map<String, List<String>> fields = conn.getHeaderFields();
+    // Leave room for a few repeated headers, such as Set-Cookie, without growing
+    final Headers headers = new Headers(fields.size() + 4);
+    for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+      // The status line is included without a name
+      if (field.getKey() == null) continue;
+      for (String value : field.getValue()) {
+        headers.add(field.getKey(), value);
+      }
+    }
+    return headers;
+  }
+
   private String valueToString(@Nullable Object value) {
     if (value == null) return null;
     else if (value instanceof String) return (String) value;
@@ -39,80 +101,287 @@ public final class Request implements Serializable {
     else return value.toString();
   }
 
+  /** Runs a synchronous request, hedging it if the builder asks for that. */
+  Request start() throws BridgeException {
+    reportStart();
+    try {
+      execute();
+    } catch (BridgeException e) {
+      reportEnd(e);
+      throw e;
+    }
+    reportEnd(null);
+    return this;
+  }
+
+  void startAsync() {
+    if (builder.hedgeMaxExtra <= 0) {
+      reportStart();
+      makeRequestAsync();
+      return;
+    }
+    builder.context.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            reportStart();
+            BridgeException error = null;
+            try {
+              execute();
+            } catch (BridgeException e) {
+              error = e;
+            }
+            reportEnd(error);
+            if (cancelCallbackFired) return;
+            builder.context.fireCallbacks(Request.this, response(), error);
+          }
+        });
+  }
+
+  private void execute() throws BridgeException {
+    if (builder.hedgeMaxExtra > 0) {
+      checkCancelled();
+      hedgedCall = new HedgedCall(this);
+      response = hedgedCall.execute().response();
+    } else {
+      makeRequest();
+    }
+  }
+
+  private void reportStart() {
+    armDeadline();
+    callStartNanos = System.nanoTime();
+    if (listener != null) listener.callStart(this);
+  }
+
+  /** Starts the deadline clock, once per request so retries and redirects stay within it. */
+  private void armDeadline() {
+    if (builder.deadlineMs > 0 && deadlineNanos == 0) {
+      deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(builder.deadlineMs);
+      if (deadlineNanos == 0) deadlineNanos = 1;
+    }
+  }
+
+  private void reportEnd(@Nullable BridgeException error) {
+    if (listener == null) return;
+    final long duration = System.nanoTime() - callStartNanos;
+    if (error != null) {
+      listener.callFailed(this, error, duration);
+    } else {
+      listener.callEnd(this, response, duration);
+    }
+  }
+
   Request makeRequest() throws BridgeException {
     try {
       return performRequest();
     } catch (BridgeException e) {
-      final Response resp = e.response();
-      if (builder.totalRetryCount > 0 && builder.currentRetryCount < builder.totalRetryCount) {
-        // Retry count exists and we haven't reached the max yet
-        if (builder.retryCallback == null
-            || builder.retryCallback.onWillRetry(resp, e, builder())) {
-          // We are allowed to retry again
-          if (builder.retrySpacingMs > 0) {
-            // Wait for a user-set interval before retrying
+      final long delay = prepareRetry(e);
+      if (delay > 0) {
+        // Wait for the backoff interval before retrying, cancel() cuts the wait short
+        try {
+          cancelSignal.await(delay, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return makeRequest();
+    }
+  }
+
+  /**
+   * Makes the request on a worker thread. Retries are scheduled on a timer rather than holding the
+   * worker thread while waiting out the backoff delay, then dispatched the same way as the first
+   * attempt, so they're queued per origin too.
+   */
+  void makeRequestAsync() {
+    final BridgeClient context = builder.context;
+    context.dispatch(
+        this,
+        new Runnable() {
+          @Override
+          public void run() {
             try {
-              Thread.sleep(builder.retrySpacingMs);
-            } catch (InterruptedException ignored) {
+              performRequest();
+            } catch (BridgeException e) {
+              final long delay;
+              try {
+                delay = prepareRetry(e);
+              } catch (BridgeException e2) {
+                reportEnd(e2);
+                if (cancelCallbackFired) return;
+                context.fireCallbacks(Request.this, response(), e2);
+                return;
+              }
+              pendingRetry = context.dispatch(Request.this, this, delay);
+              if (isCancelled) cancelPendingRetry();
+              return;
             }
+            reportEnd(null);
+            if (cancelCallbackFired) return;
+            context.fireCallbacks(Request.this, response(), null);
           }
-          builder.currentRetryCount++;
-          return makeRequest();
-        } else if (resp != null) {
-          throw new BridgeException(
-              resp, "Max retry count reached!", BridgeException.REASON_REQUEST_MAX_RETRIES);
-        } else {
-          throw new BridgeException(
-              e.request(), "Max retry count reached!", BridgeException.REASON_REQUEST_MAX_RETRIES);
-        }
+        });
+  }
+
+  /**
+   * Decides whether a failed attempt gets retried, based on the retry count, the reason it failed,
+   * the retry callback and the retry budget. Returns the delay before the next attempt, or throws
+   * if no retry should be made.
+   */
+  private long prepareRetry(BridgeException e) throws BridgeException {
+    if (builder.totalRetryCount <= 0
+        || builder.currentRetryCount >= builder.totalRetryCount
+        || !builder.isRetryable(e.reason())) {
+      throw e;
+    }
+    final Response resp = e.response();
+    if (builder.retryCallback != null && !builder.retryCallback.onWillRetry(resp, e, builder())) {
+      if (resp != null) {
+        throw new BridgeException(
+            resp, "Max retry count reached!", BridgeException.REASON_REQUEST_MAX_RETRIES);
+      } else {
+        throw new BridgeException(
+            e.request(), "Max retry count reached!", BridgeException.REASON_REQUEST_MAX_RETRIES);
       }
+    }
+    final RetryBudget budget = builder.config.retryBudget;
+    if (budget != null && !budget.tryWithdraw()) {
+      LogCompat.d(this, "Retry budget exhausted, not retrying %s %s", Method.name(method()), url());
       throw e;
     }
+    builder.currentRetryCount++;
+    final long delay =
+        builder.backoff != null
+            ? builder.backoff.delayMs(builder.currentRetryCount, builder.lastRetryDelayMs)
+            : 0;
+    builder.lastRetryDelayMs = delay;
+    if (deadlineNanos != 0
+        && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) - deadlineNanos >= 0) {
+      // The retry couldn't finish before the deadline anyway
+      throw deadlineException();
+    }
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(
+          this,
+          "Retry %d of %d for %s %s in %dms",
+          builder.currentRetryCount,
+          builder.totalRetryCount,
+          Method.name(method()),
+          url(),
+          delay);
+    }
+    if (listener != null) listener.retry(this, e, builder.currentRetryCount, delay);
+    return delay;
   }
 
   Request performRequest() throws BridgeException {
+    // Checked before taking a circuit breaker slot, which is only given back through onResult
+    checkCancelled();
+    final CircuitBreaker breaker = builder.config.circuitBreaker;
+    final CircuitBreaker.Permit permit = breaker != null ? breaker.acquire(this) : null;
+    final long start = System.nanoTime();
+    ScheduledFuture<?> watchdog = null;
+    final String redirectUrl;
+    try {
+      watchdog = startDeadlineWatchdog();
+      redirectUrl = exchange();
+    } catch (BridgeException e) {
+      if (breaker != null) breaker.onResult(permit, null, e, System.nanoTime() - start);
+      throw e;
+    } finally {
+      if (watchdog != null) watchdog.cancel(false);
+    }
+    if (breaker != null) breaker.onResult(permit, response, null, System.nanoTime() - start);
+    if (response != null) response.request = this;
+
+    if (redirectUrl != null) {
+      // Follow redirect
+      final String fromUrl = url();
+      try {
+        builder.prepareRedirect(redirectUrl);
+      } catch (IllegalStateException e) {
+        throw new BridgeException(this, e);
+      }
+      if (listener != null) listener.redirect(this, fromUrl, url());
+      return makeRequest(); // chain redirected request
+    }
+    if (builder.validators != null) {
+      for (ResponseValidator val : builder.validators) {
+        try {
+          if (!val.validate(response)) {
+            throw new BridgeException(response, val);
+          }
+        } catch (Exception e) {
+          if (e instanceof BridgeException) {
+            throw (BridgeException) e;
+          }
+          throw new BridgeException(response, val, e);
+        }
+      }
+    }
+    if (builder.throwIfNotSuccess) {
+      BridgeUtil.throwIfNotSuccess(response);
+    }
+    return this;
+  }
+
+  /**
+   * Makes a single HTTP exchange and stores its response.
+   *
+   * @return the location to redirect to, if the response is a redirect that should be followed.
+   */
+  @Nullable
+  private String exchange() throws BridgeException {
     try {
       URL url = new URL(builder.url);
       HttpURLConnection conn = (HttpURLConnection) url.openConnection();
       int responseCode = -1;
       String responseMessage = "";
-      HashMap<String, List<String>> responseHeaders = new HashMap<>();
+      Headers responseHeaders = new Headers(0);
 
       try {
-        conn.setReadTimeout(builder.readTimeout);
-        conn.setConnectTimeout(builder.connectTimeout);
+        connection = conn;
+        checkCancelled();
+        conn.setReadTimeout(timeoutWithinDeadline(builder.readTimeout));
+        conn.setConnectTimeout(timeoutWithinDeadline(builder.connectTimeout));
         final String method = Method.name(builder.method);
         conn.setRequestMethod(method);
         conn.setInstanceFollowRedirects(false);
 
-        if (builder.headers != null && builder.headers.size() > 0) {
-          for (final String key : builder.headers.keySet()) {
-            final String value = valueToString(builder.headers.get(key));
-            conn.setRequestProperty(key, value);
-          }
+        final Headers headers = builder.headers;
+        for (int i = 0; i < headers.size(); i++) {
+          conn.setRequestProperty(headers.name(i), valueToString(headers.value(i)));
         }
-        if (builder.pipe != null) {
-          conn.setRequestProperty("Content-Length", builder.pipe.contentLength() + "");
-        } else if (builder.body != null) {
-          conn.setRequestProperty("Content-Length", builder.body.length + "");
-          // Disable internal buffering to make upload progress work properly
-          conn.setFixedLengthStreamingMode(builder.body.length);
+        if (builder.digestAlgorithm != null) setDigestHeader(conn);
+        final long bodyLength =
+            builder.pipe != null
+                ? builder.pipe.contentLength()
+                : builder.body != null ? builder.body.length : -1;
+        if (bodyLength != -1) {
+          // Disables internal buffering, so upload progress is accurate and large bodies
+          // aren't held in memory. Content-Length is sent by the connection itself.
+          conn.setFixedLengthStreamingMode(bodyLength);
+        } else if (builder.pipe != null && builder.pipe.chunked()) {
+          conn.setChunkedStreamingMode(builder.config.bufferSize);
         }
         conn.setDoInput(true);
 
         checkCancelled();
+        if (listener != null) resolveHost(url.getHost());
         if (builder.pipe != null || builder.body != null) {
           if (builder.uploadProgress != null) {
             builder.uploadProgress.request = this;
           }
           conn.setDoOutput(true);
-          conn.connect();
+          connect(conn);
 
+          final long writeStart = System.nanoTime();
           OutputStream os = null;
           try {
             os = conn.getOutputStream();
             if (builder.pipe != null) {
-              builder.pipe.writeTo(os, builder.uploadProgress);
+              builder.pipe.writeTo(os, builder.uploadProgress, builder.config.bufferSize);
             } else {
               writeTo(builder.body, os, builder.uploadProgress);
               if (builder.uploadProgress != null) {
@@ -126,64 +395,89 @@ public final class Request implements Serializable {
             }
             BridgeUtil.closeQuietly(os);
           }
+          if (listener != null) {
+            listener.requestBodyEnd(this, bodyLength, System.nanoTime() - writeStart);
+          }
         } else {
-          conn.connect();
+          connect(conn);
         }
 
         checkCancelled();
+        final long sentNanos = System.nanoTime();
         byte[] data = null;
         InputStream is = null;
         ByteArrayOutputStream bos = null;
 
         responseCode = conn.getResponseCode();
         responseMessage = conn.getResponseMessage();
-        responseHeaders = new HashMap<>(conn.getHeaderFields());
-        LogCompat.d(
-            Request.this,
-            "%s %s status: %s %s",
-            Method.name(method()),
-            url(),
-            responseCode,
-            responseMessage);
+        responseHeaders = readHeaders(conn);
+        if (listener != null) {
+          listener.responseHeadersEnd(this, responseCode, System.nanoTime() - sentNanos);
+        }
+        if (LogCompat.isEnabled()) {
+          LogCompat.d(
+              Request.this,
+              "%s %s status: %s %s",
+              Method.name(method()),
+              url(),
+              responseCode,
+              responseMessage);
+        }
 
         try {
           is = conn.getInputStream();
-          byte[] buf = new byte[Bridge.config().bufferSize];
-          int read;
-          int totalRead = 0;
-          int totalAvailable;
-          if (conn.getHeaderField("Content-Length") != null) {
-            String clStr = conn.getHeaderField("Content-Length");
-            if (clStr == null) {
-              clStr = conn.getHeaderField("content-length");
-            }
-            totalAvailable = Integer.parseInt(clStr);
+          if (builder.lineCallback != null && responseCode < 300) {
+            streamLines(
+                is,
+                new Response(
+                    null,
+                    url(),
+                    responseCode,
+                    responseMessage,
+                    responseHeaders,
+                    builder.didRedirect,
+                    builder.redirectCount));
           } else {
-            totalAvailable = is.available();
-          }
+            byte[] buf = new byte[builder.config.bufferSize];
+            int read;
+            long totalRead = 0;
+            long totalAvailable;
+            final String contentLength = responseHeaders.getString("Content-Length");
+            if (contentLength != null) {
+              totalAvailable = Long.parseLong(contentLength);
+            } else {
+              totalAvailable = is.available();
+            }
 
-          bos = new ByteArrayOutputStream();
-          if (totalAvailable != 0) {
-            builder.context.fireProgress(Request.this, 0, totalAvailable);
-          }
-          while ((read = is.read(buf)) != -1) {
-            checkCancelled();
-            bos.write(buf, 0, read);
-            totalRead += read;
+            bos = new ByteArrayOutputStream();
+            final long readStart = System.nanoTime();
             if (totalAvailable != 0) {
-              builder.context.fireProgress(Request.this, totalRead, totalAvailable);
+              builder.context.fireProgress(Request.this, 0, totalAvailable);
+            }
+            while ((read = is.read(buf)) != -1) {
+              checkCancelled();
+              bos.write(buf, 0, read);
+              totalRead += read;
+              if (totalAvailable != 0) {
+                builder.context.fireProgress(Request.this, totalRead, totalAvailable);
+              }
+            }
+            if (totalAvailable == 0) {
+              builder.context.fireProgress(Request.this, 100, 100);
+            }
+            data = bos.toByteArray();
+            if (listener != null) {
+              listener.responseBodyEnd(this, totalRead, System.nanoTime() - readStart);
+            }
+            if (LogCompat.isEnabled()) {
+              LogCompat.d(
+                  Request.this,
+                  "Read %d bytes from the %s %s response.",
+                  data != null ? data.length : 0,
+                  Method.name(method()),
+                  url());
             }
           }
-          if (totalAvailable == 0) {
-            builder.context.fireProgress(Request.this, 100, 100);
-          }
-          data = bos.toByteArray();
-          LogCompat.d(
-              Request.this,
-              "Read %d bytes from the %s %s response.",
-              data != null ? data.length : 0,
-              Method.name(method()),
-              url());
         } finally {
           BridgeUtil.closeQuietly(is);
           BridgeUtil.closeQuietly(bos);
@@ -205,12 +499,10 @@ public final class Request implements Serializable {
         conn.disconnect();
 
         if (responseCode >= 300 && responseCode <= 303) {
-          final List<String> locHeader = responseHeaders.get("Location");
-          if (locHeader.size() > 0) {
-            if (Bridge.config().autoFollowRedirects) {
-              // Follow redirect
-              builder.prepareRedirect(locHeader.get(0));
-              return makeRequest(); // chain redirected request
+          final String location = responseHeaders.getString("Location");
+          if (location != null) {
+            if (builder.config.autoFollowRedirects) {
+              return location;
             }
           }
         }
@@ -226,13 +518,13 @@ public final class Request implements Serializable {
         if (fnf instanceof BridgeException) {
           if (((BridgeException) fnf).reason() != BridgeException.REASON_RESPONSE_UNSUCCESSFUL)
             throw fnf; // redirect to outside catch
-        } else if (!(fnf instanceof FileNotFoundException)) throw new BridgeException(this, fnf);
+        } else if (!(fnf instanceof FileNotFoundException)) throw wrapFailure(fnf);
         InputStream es = null;
         try {
           es = conn.getErrorStream();
           response =
               new Response(
-                  BridgeUtil.readEntireStream(es),
+                  BridgeUtil.readEntireStream(es, builder.config.bufferSize),
                   url(),
                   responseCode,
                   responseMessage,
@@ -260,35 +552,172 @@ public final class Request implements Serializable {
         ((BridgeException) e).request = this;
         throw (BridgeException) e;
       }
-      throw new BridgeException(this, e);
+      throw wrapFailure(e);
+    } finally {
+      connection = null;
     }
-    if (builder.validators != null) {
-      for (ResponseValidator val : builder.validators) {
-        try {
-          if (!val.validate(response)) {
-            throw new BridgeException(response, val);
-          }
-        } catch (Exception e) {
-          if (e instanceof BridgeException) {
-            throw (BridgeException) e;
+    return null;
+  }
+
+  /**
+   * Hands the body to the builder's {@link LineCallback} a line at a time as it arrives, rather
+   * than buffering it. The response, which has no body, is available from {@link #response()} while
+   * the lines are read.
+   */
+  private void streamLines(InputStream is, Response opened) throws IOException, BridgeException {
+    opened.request = this;
+    response = opened;
+    final LineCallback callback = builder.lineCallback;
+    if (callback instanceof StreamCallback) {
+      ((StreamCallback) callback).opened(opened);
+    }
+    final String contentEncoding = opened.contentEncoding();
+    if (contentEncoding != null && contentEncoding.contains("gzip")) {
+      is = new GZIPInputStream(is, builder.config.bufferSize);
+    }
+    final LineReader reader = new LineReader(is, builder.config.bufferSize);
+    final long readStart = System.nanoTime();
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        checkCancelled();
+        callback.onLine(line);
+      }
+    } finally {
+      BridgeUtil.closeQuietly(reader);
+    }
+    if (listener != null) {
+      listener.responseBodyEnd(this, reader.bytesRead(), System.nanoTime() - readStart);
+    }
+  }
+
+  /** Resolves the host ahead of connecting, so DNS time can be told apart from connect time. */
+  private void resolveHost(String host) {
+    final long start = System.nanoTime();
+    try {
+      InetAddress.getAllByName(host);
+    } catch (UnknownHostException ignored) {
+      // Connecting will report the failure
+    }
+    listener.dnsEnd(this, host, System.nanoTime() - start);
+  }
+
+  private void connect(HttpURLConnection conn) throws IOException {
+    final long start = System.nanoTime();
+    conn.connect();
+    if (listener != null) {
+      listener.connectEnd(this, conn instanceof HttpsURLConnection, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Schedules the in-flight connection to be torn down when the deadline passes, so that a thread
+   * blocked on the socket doesn't have to wait for its read timeout. This runs on the client's
+   * shared timer thread, which {@link #abortConnection()} doesn't block.
+   */
+  @Nullable
+  private ScheduledFuture<?> startDeadlineWatchdog() throws BridgeException {
+    if (deadlineNanos == 0) return null;
+    final long remaining = deadlineNanos - System.nanoTime();
+    if (remaining <= 0) throw deadlineException();
+    return builder.context.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            deadlineExceeded = true;
+            abortConnection();
           }
-          throw new BridgeException(response, val, e);
+        },
+        remaining,
+        TimeUnit.NANOSECONDS);
+  }
+
+  private int timeoutWithinDeadline(int timeoutMs) throws BridgeException {
+    if (deadlineNanos == 0) return timeoutMs;
+    final long remaining = deadlineNanos - System.nanoTime();
+    if (remaining <= 0) throw deadlineException();
+    // Rounded up, so the timeout can't fire before the deadline has passed
+    return (int) Math.min(timeoutMs, (remaining + 999999) / 1000000);
+  }
+
+  private boolean deadlinePassed() {
+    return deadlineExceeded || (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0);
+  }
+
+  /**
+   * Tears down the in-flight connection, unblocking a thread stuck reading or writing it. Once the
+   * response headers have arrived, disconnect() closes the body stream, which waits for a read in
+   * progress to return, so it's done on a thread of its own rather than blocking the caller.
+   */
+  private void abortConnection() {
+    final HttpURLConnection conn = connection;
+    if (conn != null) {
+      ABORT_THREADS
+          .newThread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  conn.disconnect();
+                }
+              })
+          .start();
+    }
+  }
+
+  /** Wraps an exception thrown by the connection, accounting for why it may have been aborted. */
+  private BridgeException wrapFailure(Exception e) {
+    if (isCancelled) {
+      return new BridgeException(this);
+    }
+    if (deadlinePassed()) {
+      // A timeout clamped to the deadline may fire before the watchdog does
+      return deadlineException();
+    }
+    return new BridgeException(this, e);
+  }
+
+  private BridgeException deadlineException() {
+    deadlineExceeded = true;
+    final BridgeException ex =
+        new BridgeException(
+            this,
+            String.format("Deadline of %dms was exceeded.", builder.deadlineMs),
+            BridgeException.REASON_REQUEST_DEADLINE);
+    LogCompat.d(this, ex.getMessage());
+    return ex;
+  }
+
+  private void setDigestHeader(HttpURLConnection conn) throws IOException {
+    if (digestHeader == null) {
+      final MessageDigest digest = BridgeHashUtil.newDigest(builder.digestAlgorithm);
+      if (builder.pipe != null) {
+        if (!builder.pipe.digest(digest, builder.config.bufferSize)) {
+          throw new IllegalStateException(
+              "The request's Pipe can't be digested before it's sent, see Pipe.digest().");
         }
+      } else if (builder.body != null) {
+        digest.update(builder.body);
+      } else {
+        return;
       }
+      final String value = Base64.getEncoder().encodeToString(digest.digest());
+      digestHeader =
+          "MD5".equalsIgnoreCase(builder.digestAlgorithm)
+              ? new String[] {"Content-MD5", value}
+              : new String[] {
+                "Digest", builder.digestAlgorithm.toUpperCase(Locale.US) + "=" + value
+              };
     }
-    if (builder.throwIfNotSuccess) {
-      BridgeUtil.throwIfNotSuccess(response);
-    }
-    return this;
+    conn.setRequestProperty(digestHeader[0], digestHeader[1]);
   }
 
   private void writeTo(byte[] bytes, OutputStream os, ProgressCallback progressCallback)
       throws IOException {
-    byte[] buffer = new byte[Bridge.config().bufferSize];
+    byte[] buffer = new byte[builder.config.bufferSize];
     InputStream is = new ByteArrayInputStream(bytes);
     int read;
-    int totalRead = 0;
-    final int available = is.available();
+    long totalRead = 0;
+    final long available = bytes.length;
     while ((read = is.read(buffer)) != -1) {
       os.write(buffer, 0, read);
       totalRead += read;
@@ -305,6 +734,9 @@ public final class Request implements Serializable {
       LogCompat.d(this, ex.getMessage());
       throw ex;
     }
+    if (deadlinePassed()) {
+      throw deadlineException();
+    }
   }
 
   public boolean isCancellable() {
@@ -320,6 +752,26 @@ public final class Request implements Serializable {
       throw new IllegalStateException("This request is not cancellable.");
     }
     isCancelled = true;
+    cancelSignal.countDown();
+    abortConnection();
+    final HedgedCall hedgedCall = this.hedgedCall;
+    if (hedgedCall != null) {
+      hedgedCall.cancel();
+    }
+    cancelPendingRetry();
+  }
+
+  /** An async request waiting to retry has no thread to notice it's cancelled, so report it now. */
+  private void cancelPendingRetry() {
+    final ScheduledFuture<?> retry = pendingRetry;
+    if (retry != null && retry.cancel(false)) {
+      pendingRetry = null;
+      final BridgeException cancelled = new BridgeException(this);
+      reportEnd(cancelled);
+      if (!cancelCallbackFired) {
+        builder.context.fireCallbacks(this, response, cancelled);
+      }
+    }
   }
 
   public Response response() {
@@ -6,9 +6,9 @@ import com.afollestad.bridge.conversion.IConverter;
 import java.io.File;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
@@ -18,31 +18,41 @@ import org.json.JSONObject;
 @SuppressWarnings({"WeakerAccess", "unused"})
 public final class RequestBuilder implements AsResultsExceptions, Serializable {
 
-  final Bridge context;
+  final BridgeClient context;
+  final transient ConfigSnapshot config;
   final int method;
   String url;
-  HashMap<String, Object> headers;
+  Headers headers;
   byte[] body;
   Pipe pipe;
   int connectTimeout;
   int readTimeout;
   int currentRetryCount;
   int totalRetryCount;
-  long retrySpacingMs;
+  Backoff backoff;
+  long lastRetryDelayMs;
+  int[] retryReasons;
   RetryCallback retryCallback;
   boolean cancellable = true;
   Object tag;
   boolean throwIfNotSuccess = false;
   ResponseValidator[] validators;
   ProgressCallback uploadProgress;
+  String digestAlgorithm;
+  LineCallback lineCallback;
+  transient volatile CallbackStack callbackStack;
   boolean didRedirect = false;
   int redirectCount = 0;
+  long deadlineMs;
+  long hedgeDelayMs;
+  int hedgeMaxExtra;
   private int bufferSize;
   private Request request;
 
-  RequestBuilder(String url, int method, Bridge context) {
+  RequestBuilder(String url, int method, BridgeClient context) {
     this.context = context;
-    final Config cf = Bridge.config();
+    final ConfigSnapshot cf = context.config().snapshot();
+    config = cf;
     if (!url.startsWith("http") && cf.host != null) url = cf.host + url;
 
     LogCompat.d(this, "%s %s", Method.name(method), url);
@@ -56,6 +66,35 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
     validators = cf.validators;
   }
 
+  /** Copies the request so that it can be sent again alongside the original, e.g. for hedging. */
+  RequestBuilder(RequestBuilder source) {
+    if (source.pipe != null) {
+      throw new IllegalStateException("Requests with a Pipe body can't be duplicated.");
+    }
+    context = source.context;
+    config = source.config;
+    method = source.method;
+    url = source.url;
+    headers = source.headers.share();
+    body = source.body;
+    connectTimeout = source.connectTimeout;
+    readTimeout = source.readTimeout;
+    totalRetryCount = source.totalRetryCount;
+    backoff = source.backoff;
+    retryReasons = source.retryReasons;
+    retryCallback = source.retryCallback;
+    cancellable = source.cancellable;
+    tag = source.tag;
+    throwIfNotSuccess = source.throwIfNotSuccess;
+    validators = source.validators;
+    didRedirect = source.didRedirect;
+    redirectCount = source.redirectCount;
+    deadlineMs = source.deadlineMs;
+    bufferSize = source.bufferSize;
+    digestAlgorithm = source.digestAlgorithm;
+    callbackStack = source.callbackStack;
+  }
+
   void prepareRedirect(String url) {
     if (!url.startsWith("http://") && !url.startsWith("https://")) {
       int startIndex = this.url.indexOf('/');
@@ -66,23 +105,23 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
     this.url = url;
     this.didRedirect = true;
     this.redirectCount++;
-    if (this.redirectCount > Bridge.config().maxRedirects) {
+    if (this.redirectCount > config.maxRedirects) {
       throw new IllegalStateException(
-          "Max redirect count is "
-              + Bridge.config().maxRedirects
-              + ", "
-              + url
-              + " tried to redirect more.");
+          "Max redirect count is " + config.maxRedirects + ", " + url + " tried to redirect more.");
     }
   }
 
   public RequestBuilder header(@NotNull String name, @NotNull Object value) {
-    headers.put(name, value);
+    headers = headers.writable();
+    headers.set(name, value);
     return this;
   }
 
   public RequestBuilder headers(@NotNull Map<String, ?> headers) {
-    this.headers.putAll(headers);
+    this.headers = this.headers.writable();
+    for (Map.Entry<String, ?> entry : headers.entrySet()) {
+      this.headers.set(entry.getKey(), entry.getValue());
+    }
     return this;
   }
 
@@ -105,12 +144,80 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
   }
 
   public RequestBuilder retries(int count, long retrySpacing, @Nullable RetryCallback callback) {
+    return retries(count, Backoff.fixed(retrySpacing), callback);
+  }
+
+  public RequestBuilder retries(int count, @NotNull Backoff backoff) {
+    return retries(count, backoff, null);
+  }
+
+  public RequestBuilder retries(
+      int count, @NotNull Backoff backoff, @Nullable RetryCallback callback) {
     this.totalRetryCount = count;
-    this.retrySpacingMs = retrySpacing;
+    this.backoff = backoff;
     this.retryCallback = callback;
     return this;
   }
 
+  /**
+   * Limits retries to failures with one of the given {@link BridgeException} reasons. By default,
+   * every failure except cancellation, an open circuit breaker and an exceeded deadline is retried.
+   */
+  public RequestBuilder retryOn(int... reasons) {
+    this.retryReasons = reasons != null && reasons.length > 0 ? reasons : null;
+    return this;
+  }
+
+  boolean isRetryable(int reason) {
+    if (retryReasons == null) {
+      return reason != BridgeException.REASON_REQUEST_CANCELLED
+          && reason != BridgeException.REASON_CIRCUIT_OPEN
+          && reason != BridgeException.REASON_REQUEST_DEADLINE;
+    }
+    for (int retryReason : retryReasons) {
+      if (retryReason == reason) return true;
+    }
+    return false;
+  }
+
+  /**
+   * If no response has arrived delayMs after the request was sent, a duplicate is sent and
+   * whichever completes first is used; the rest get cancelled. Up to maxExtra duplicates are sent,
+   * each another delayMs apart. Only idempotent GET requests can be hedged, and not with a {@link
+   * Pipe} body, which can only be read once.
+   */
+  public RequestBuilder hedge(long delayMs, int maxExtra) {
+    if (method != Method.GET) {
+      throw new IllegalStateException("Only GET requests can be hedged.");
+    }
+    if (pipe != null) {
+      throw new IllegalStateException("Requests with a Pipe body can't be hedged.");
+    }
+    if (delayMs <= 0) {
+      throw new IllegalArgumentException("Hedge delay must be greater than 0.");
+    }
+    if (maxExtra < 0) {
+      throw new IllegalArgumentException("Max extra hedged requests cannot be negative.");
+    }
+    hedgeDelayMs = delayMs;
+    hedgeMaxExtra = maxExtra;
+    return this;
+  }
+
+  /**
+   * Limits the total time the request may take, counted from when it's sent and spanning retries,
+   * redirects, hedged duplicates, and the upload and download of bodies. When the deadline passes,
+   * the connection is torn down and the request fails with {@link
+   * BridgeException#REASON_REQUEST_DEADLINE}.
+   */
+  public RequestBuilder deadline(long timeoutMs) {
+    if (timeoutMs <= 0) {
+      throw new IllegalArgumentException("Deadline must be greater than 0.");
+    }
+    deadlineMs = timeoutMs;
+    return this;
+  }
+
   public RequestBuilder connectTimeout(int timeout) {
     if (timeout <= 0) {
       throw new IllegalArgumentException("Connect timeout must be greater than 0.");
@@ -150,7 +257,7 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
   }
 
   public RequestBuilder body(@Nullable String textBody) {
-    LogCompat.d(this, "Body: %s", textBody);
+    LogCompat.body(this, "Body", textBody);
     if (textBody == null) {
       body = null;
       return this;
@@ -214,6 +321,9 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
   }
 
   public RequestBuilder body(@NotNull Pipe pipe) {
+    if (hedgeMaxExtra > 0) {
+      throw new IllegalStateException("Requests with a Pipe body can't be hedged.");
+    }
     this.pipe = pipe;
     contentType(pipe.contentType());
     return this;
@@ -223,6 +333,10 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
     return body(Pipe.forFile(file));
   }
 
+  /**
+   * Serializes the object with the converter for its content type. Its fields annotated with {@link
+   * com.afollestad.bridge.annotations.Header} are also sent as headers.
+   */
   public RequestBuilder body(@Nullable Object object) {
     if (object instanceof List) {
       //noinspection unchecked
@@ -231,23 +345,26 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
     if (object == null) {
       body = null;
     } else {
-      final long start = System.currentTimeMillis();
+      final long start = System.nanoTime();
       final String contentType =
           BridgeUtil.getContentType(object.getClass(), headers.get("Content-Type"));
       contentType(contentType);
-      IConverter converter = Bridge.config().converter(contentType);
+      IConverter converter = config.converterFor(contentType, object.getClass());
       try {
         body = converter.serialize(object);
       } catch (Exception e) {
         throw new IllegalStateException("Failed to serialize object to body!", e);
       }
-      final long diff = System.currentTimeMillis() - start;
-      LogCompat.d(
-          this,
-          "Request conversion took " + "%dms (%d seconds) for object of type %s.",
-          diff,
-          diff / 1000,
-          object.getClass().getName());
+      final HeaderBinding headerBinding = HeaderBinding.of(object.getClass());
+      if (!headerBinding.isEmpty()) headerBinding.writeTo(object, this);
+      final long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (LogCompat.isEnabled()) {
+        LogCompat.d(
+            this,
+            "Request conversion took %dms for object of type %s.",
+            diff,
+            object.getClass().getName());
+      }
     }
     return this;
   }
@@ -256,23 +373,24 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
     if (objects == null || objects.length == 0) {
       body = null;
     } else {
-      final long start = System.currentTimeMillis();
+      final long start = System.nanoTime();
       final String contentType =
           BridgeUtil.getContentType(objects[0].getClass(), headers.get("Content-Type"));
       contentType(contentType);
-      IConverter converter = Bridge.config().converter(contentType);
+      IConverter converter = config.converterFor(contentType, objects[0].getClass());
       try {
         body = converter.serializeArray(objects);
       } catch (Exception e) {
         throw new IllegalStateException("Failed to serialize array to body!", e);
       }
-      final long diff = System.currentTimeMillis() - start;
-      LogCompat.d(
-          this,
-          "Request conversion took " + "%dms (%d seconds) for array of %s objects.",
-          diff,
-          diff / 1000,
-          objects[0].getClass().getName());
+      final long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (LogCompat.isEnabled()) {
+        LogCompat.d(
+            this,
+            "Request conversion took %dms for array of %s objects.",
+            diff,
+            objects[0].getClass().getName());
+      }
     }
     return this;
   }
@@ -281,32 +399,81 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
     if (objects == null || objects.size() == 0) {
       body = null;
     } else {
-      final long start = System.currentTimeMillis();
+      final long start = System.nanoTime();
       final String contentType =
           BridgeUtil.getContentType(objects.get(0).getClass(), headers.get("Content-Type"));
       contentType(contentType);
-      IConverter converter = Bridge.config().converter(contentType);
+      IConverter converter = config.converterFor(contentType, objects.get(0).getClass());
       try {
         body = converter.serializeList(objects);
       } catch (Exception e) {
         throw new IllegalStateException("Failed to serialize list to body!", e);
       }
-      final long diff = System.currentTimeMillis() - start;
-      LogCompat.d(
-          this,
-          "Request conversion took " + "%dms (%d seconds) for list of %s objects.",
-          diff,
-          diff / 1000,
-          objects.get(0).getClass().getName());
+      final long diff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (LogCompat.isEnabled()) {
+        LogCompat.d(
+            this,
+            "Request conversion took %dms for list of %s objects.",
+            diff,
+            objects.get(0).getClass().getName());
+      }
     }
     return this;
   }
 
+  /**
+   * Like {@link #body(Object)}, but the object, array or List is serialized when the request is
+   * sent, straight into the connection, instead of into a byte array now. See {@link
+   * #streamBody(Object, boolean)}.
+   */
+  public RequestBuilder streamBody(@NotNull Object object) {
+    return streamBody(object, false);
+  }
+
+  /**
+   * Like {@link #body(Object)}, but the object, array or List is serialized when the request is
+   * sent, straight into the connection, instead of into a byte array now. It shouldn't change until
+   * the request has finished.
+   *
+   * @param chunked if false, the object is serialized twice: once to count its bytes for
+   *     Content-Length, then to send it. If true, it's serialized once and sent with chunked
+   *     transfer encoding, which the server has to accept.
+   */
+  public RequestBuilder streamBody(@NotNull Object object, boolean chunked) {
+    final Object first;
+    if (object instanceof Object[]) {
+      final Object[] array = (Object[]) object;
+      first = array.length > 0 ? array[0] : null;
+    } else if (object instanceof List) {
+      final List<?> list = (List<?>) object;
+      first = !list.isEmpty() ? list.get(0) : null;
+    } else {
+      first = object;
+      final HeaderBinding headerBinding = HeaderBinding.of(object.getClass());
+      if (!headerBinding.isEmpty()) headerBinding.writeTo(object, this);
+    }
+    final Class<?> cls = first != null ? first.getClass() : Object.class;
+    final String contentType = BridgeUtil.getContentType(cls, headers.get("Content-Type"));
+    return body(
+        new SerializedPipe(config.converterFor(contentType, cls), object, contentType, chunked));
+  }
+
   public RequestBuilder uploadProgress(@NotNull ProgressCallback callback) {
     uploadProgress = callback;
     return this;
   }
 
+  /**
+   * Sends a digest of the body so the server can verify it: a Content-MD5 header for "MD5", or a
+   * Digest header such as "SHA-256=..." for other algorithms. It's computed once per request, not
+   * per retry. A {@link Pipe} body has to support {@link Pipe#digest(java.security.MessageDigest)}.
+   */
+  public RequestBuilder contentDigest(@NotNull String algorithm) {
+    BridgeHashUtil.newDigest(algorithm);
+    digestAlgorithm = algorithm;
+    return this;
+  }
+
   public RequestBuilder cancellable(boolean cancelable) {
     cancellable = cancelable;
     return this;
@@ -318,7 +485,13 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
   }
 
   public Request request() throws BridgeException {
-    return new Request(this).makeRequest();
+    return prepare().start();
+  }
+
+  /** Creates a request to be started synchronously, so other threads can cancel it meanwhile. */
+  Request prepare() {
+    depositRetryBudget();
+    return new Request(this);
   }
 
   public RequestBuilder throwIfNotSuccess() {
@@ -329,26 +502,17 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
   public Request request(Callback callback) {
     request = new Request(this);
     if (context.pushCallback(request, callback)) {
-      new Thread(
-              new Runnable() {
-                @Override
-                public void run() {
-                  try {
-                    request.makeRequest();
-                    if (request.cancelCallbackFired) return;
-                    final Response response = request.response();
-                    context.fireCallbacks(request, response, null);
-                  } catch (final BridgeException e) {
-                    if (request.cancelCallbackFired) return;
-                    context.fireCallbacks(request, request.response(), e);
-                  }
-                }
-              })
-          .start();
+      depositRetryBudget();
+      request.startAsync();
     }
     return request;
   }
 
+  private void depositRetryBudget() {
+    final RetryBudget budget = config.retryBudget;
+    if (budget != null) budget.deposit();
+  }
+
   // Shortcut methods
 
   @Nullable
@@ -581,6 +745,90 @@ public final class RequestBuilder implements AsResultsExceptions, Serializable {
         });
   }
 
+  /**
+   * Sends the request on a worker thread, returning a stream that reads the body a line at a time
+   * as it arrives. Reading blocks until the next line is available. Close the stream to cancel the
+   * request early.
+   */
+  @NotNull
+  public LineStream asLines() {
+    return new LineStream(this);
+  }
+
+  /**
+   * Sends the request on a worker thread and passes each line of the body to the callback as it
+   * arrives, on that worker thread, without buffering the whole body. Failures are only logged; use
+   * {@link #asLines(LineCallback, Callback)} to be told when the body ends or the request fails.
+   */
+  @NotNull
+  public Request asLines(@NotNull LineCallback lines) {
+    return asLines(lines, null);
+  }
+
+  /**
+   * Like {@link #asLines(LineCallback)}, and then passes the response, which has no body, or the
+   * failure to the callback. Cancel the returned request to stop reading. If the request is
+   * retried, lines are passed again from the start of the new response.
+   */
+  @NotNull
+  public Request asLines(@NotNull LineCallback lines, @Nullable final Callback callback) {
+    final HandlerCompat handler = new HandlerCompat();
+    return streamLines(
+        lines,
+        new Callback() {
+          @Override
+          public void response(
+              @NotNull final Request request,
+              @Nullable final Response response,
+              @Nullable final BridgeException e) {
+            if (callback == null) {
+              if (e != null) LogCompat.e(this, "Streaming %s failed: %s", request, e.getMessage());
+              return;
+            }
+            handler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    callback.response(request, response, e);
+                  }
+                });
+          }
+        });
+  }
+
+  /**
+   * Opens a Server-Sent Events stream, passing events to the callback as they arrive and
+   * reconnecting when the connection drops. See {@link EventSource}.
+   */
+  @NotNull
+  public EventSource asEvents(@NotNull EventCallback callback) {
+    return new EventSource(this, callback);
+  }
+
+  /** Starts the request on a worker thread, calling done there once it's finished. */
+  Request streamLines(@NotNull LineCallback lines, @NotNull final Callback done) {
+    if (hedgeMaxExtra > 0) {
+      throw new IllegalStateException("Requests with a line callback can't be hedged.");
+    }
+    lineCallback = lines;
+    throwIfNotSuccess();
+    final Request request = prepare();
+    context.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            BridgeException error = null;
+            try {
+              request.start();
+            } catch (BridgeException e) {
+              error = e;
+            }
+            done.response(request, request.response(), error);
+          }
+        });
+    return request;
+  }
+
   @Nullable
   @Override
   public <T> T asClass(@NotNull Class<T> cls) throws BridgeException {
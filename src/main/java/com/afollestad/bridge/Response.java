@@ -2,11 +2,15 @@ package com.afollestad.bridge;
 
 import com.afollestad.ason.Ason;
 import com.afollestad.ason.AsonArray;
+import com.afollestad.bridge.conversion.IConverter;
 import java.io.*;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -18,24 +22,33 @@ import org.json.JSONObject;
 @SuppressWarnings({"WeakerAccess", "unused"})
 public final class Response implements AsResults, Serializable {
 
-  private static final int BUFFER_SIZE_GZIP = 32;
+  private static final int BUFFER_SIZE_GZIP = 8192;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
 
   private final String url;
   private final byte[] data;
   private int code = -1;
   private String message;
+  // Each representation of the body is decoded the first time it's asked for, then kept
+  private transient byte[] bytesCache;
+  private transient Charset charsetCache;
+  private transient CharBuffer charsCache;
+  private transient String stringCache;
   private transient Ason asonObjCache;
   private transient AsonArray<?> asonArrayCache;
-  private HashMap<String, List<String>> headers;
+  private transient JSONObject jsonObjCache;
+  private transient JSONArray jsonArrayCache;
+  private final Headers headers;
   private boolean didRedirect;
   private int redirectCount;
+  transient Request request;
 
   protected Response(
       byte[] data,
       String url,
       int code,
       String message,
-      HashMap<String, List<String>> headers,
+      Headers headers,
       boolean didRedirect,
       int redirectCount)
       throws IOException {
@@ -73,13 +86,10 @@ public final class Response implements AsResults, Serializable {
     return code == -1 || code >= 200 && code <= 303;
   }
 
+  /** The first value of the named header, or null. Names are case-insensitive. */
   @Nullable
   public String header(String name) {
-    List<String> header = headers.get(name);
-    if (header == null || header.isEmpty()) {
-      return null;
-    }
-    return header.get(0);
+    return headers.getString(name);
   }
 
   public boolean headerEquals(String name, String value) {
@@ -87,43 +97,76 @@ public final class Response implements AsResults, Serializable {
     return headerVal == null && value == null || (headerVal != null && headerVal.equals(value));
   }
 
+  /** A read-only map of header names to their values. */
   public Map<String, List<String>> headers() {
-    return headers;
+    return headers.toMultimap();
   }
 
   @Nullable
   public List<String> headerList(String name) {
-    return headers.get(name);
+    return headers.values(name);
   }
 
-  public int contentLength() {
-    String contentLength = header("Content-Length");
-    if (contentLength == null) contentLength = header("content-length");
+  public long contentLength() {
+    final String contentLength = header("Content-Length");
     if (contentLength == null) return -1;
-    return Integer.parseInt(contentLength);
+    return Long.parseLong(contentLength.trim());
   }
 
   @Nullable
   public String contentType() {
-    String contentType = header("Content-Type");
-    if (contentType == null) contentType = header("content-type");
-    if (contentType == null) contentType = header("Content-type");
-    return contentType;
+    return header("Content-Type");
   }
 
   @Nullable
   public String contentEncoding() {
-    String contentEncoding = header("Content-Encoding");
-    if (contentEncoding == null) contentEncoding = header("content-encoding");
-    return contentEncoding;
+    return header("Content-Encoding");
+  }
+
+  /**
+   * The charset named in the Content-Type header, or UTF-8 if it doesn't name one or names one that
+   * isn't supported.
+   */
+  @NotNull
+  public Charset charset() {
+    if (charsetCache == null) {
+      Charset charset = UTF_8;
+      final String contentType = contentType();
+      if (contentType != null) {
+        for (String param : contentType.split(";")) {
+          final int equals = param.indexOf('=');
+          if (equals == -1 || !param.substring(0, equals).trim().equalsIgnoreCase("charset")) {
+            continue;
+          }
+          final String name = param.substring(equals + 1).trim().replace("\"", "");
+          try {
+            charset = Charset.forName(name);
+          } catch (IllegalArgumentException ignored) {
+            // Unsupported or malformed, UTF-8 is the most likely to be right
+          }
+          break;
+        }
+      }
+      charsetCache = charset;
+    }
+    return charsetCache;
   }
 
+  /** The body, decompressed if it was sent with gzip encoding. */
   @Nullable
   public byte[] asBytes() {
+    if (bytesCache != null) return bytesCache;
     String encoding = contentEncoding();
-    if (encoding != null && encoding.contains("gzip")) {
+    if (data != null && encoding != null && encoding.contains("gzip")) {
       try {
-        return decompressGZIP(data);
+        final long start = System.nanoTime();
+        final byte[] decompressed = decompressGZIP(data);
+        final EventListener listener = listener();
+        if (listener != null && decompressed != null) {
+          listener.decompressionEnd(request, decompressed.length, System.nanoTime() - start);
+        }
+        bytesCache = decompressed;
+        return decompressed;
       } catch (IOException e) {
         // GZIP content might be corrupted
         throw new RuntimeException(e);
@@ -132,66 +175,103 @@ public final class Response implements AsResults, Serializable {
     return data;
   }
 
+  /** A read-only view of {@link #asBytes()}, without copying it. */
+  @Nullable
+  public ByteBuffer asByteBuffer() {
+    final byte[] bytes = asBytes();
+    return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : null;
+  }
+
+  /** The body decoded with {@link #charset()}. A leading byte order mark is left out. */
   @Nullable
   public String asString() {
-    try {
+    if (stringCache == null) {
+      if (charsCache != null) {
+        stringCache = charsCache.toString();
+      } else {
+        final byte[] bytes = asBytes();
+        if (bytes == null || bytes.length == 0) return null;
+        final int bom = bomLength(bytes);
+        stringCache = new String(bytes, bom, bytes.length - bom, charset());
+      }
+    }
+    return stringCache;
+  }
+
+  /**
+   * A read-only view of the decoded body, for parsers that take a CharSequence. Unlike {@link
+   * #asString()}, the characters are only copied once, out of the bytes; if the body has already
+   * been decoded as a String, that's returned instead.
+   */
+  @Nullable
+  public CharSequence asCharSequence() {
+    if (stringCache != null) return stringCache;
+    if (charsCache == null) {
       final byte[] bytes = asBytes();
       if (bytes == null || bytes.length == 0) return null;
-      return new String(bytes, "UTF-8");
-
-    } catch (IOException e) {
-      // This should never happen
-      throw new RuntimeException(e);
+      final int bom = bomLength(bytes);
+      charsCache = charset().decode(ByteBuffer.wrap(bytes, bom, bytes.length - bom));
     }
+    return charsCache.asReadOnlyBuffer();
+  }
+
+  /** The length of a UTF-8 byte order mark at the start of bytes, if the body is UTF-8. */
+  private int bomLength(byte[] bytes) {
+    return bytes.length >= 3
+            && (bytes[0] & 0xFF) == 0xEF
+            && (bytes[1] & 0xFF) == 0xBB
+            && (bytes[2] & 0xFF) == 0xBF
+            && charset().equals(UTF_8)
+        ? 3
+        : 0;
   }
 
   @Nullable
   public Ason asAsonObject() throws BridgeException {
-    if (asonObjCache != null) {
-      return asonObjCache;
-    }
-    final String content = asString();
-    if (content == null) return null;
-    try {
-      if (asonObjCache == null) {
+    if (asonObjCache == null) {
+      final String content = asString();
+      if (content == null) return null;
+      try {
         asonObjCache = new Ason(content);
+      } catch (JSONException e) {
+        throw new BridgeException(this, e, BridgeException.REASON_RESPONSE_UNPARSEABLE);
       }
-      return asonObjCache;
-    } catch (JSONException e) {
-      throw new BridgeException(this, e, BridgeException.REASON_RESPONSE_UNPARSEABLE);
     }
+    return asonObjCache;
   }
 
   @Nullable
   public AsonArray<?> asAsonArray() throws BridgeException {
-    final String content = asString();
-    if (content == null) return null;
-    try {
-      if (asonArrayCache == null) {
+    if (asonArrayCache == null) {
+      final String content = asString();
+      if (content == null) return null;
+      try {
         asonArrayCache = new AsonArray(content);
+      } catch (JSONException e) {
+        throw new BridgeException(this, e, BridgeException.REASON_RESPONSE_UNPARSEABLE);
       }
-      return asonArrayCache;
-    } catch (JSONException e) {
-      throw new BridgeException(this, e, BridgeException.REASON_RESPONSE_UNPARSEABLE);
     }
+    return asonArrayCache;
   }
 
   @Nullable
   public JSONObject asJsonObject() throws BridgeException {
-    Ason ason = asAsonObject();
-    if (ason == null) {
-      return null;
+    if (jsonObjCache == null) {
+      final Ason ason = asAsonObject();
+      if (ason == null) return null;
+      jsonObjCache = ason.toStockJson();
     }
-    return ason.toStockJson();
+    return jsonObjCache;
   }
 
   @Nullable
   public JSONArray asJsonArray() throws BridgeException {
-    AsonArray ason = asAsonArray();
-    if (ason == null) {
-      return null;
+    if (jsonArrayCache == null) {
+      final AsonArray ason = asAsonArray();
+      if (ason == null) return null;
+      jsonArrayCache = ason.toStockJson();
     }
-    return ason.toStockJson();
+    return jsonArrayCache;
   }
 
   public void asFile(@NotNull File destination) throws BridgeException {
@@ -220,30 +300,40 @@ public final class Response implements AsResults, Serializable {
               Locale.getDefault(),
               "Response has no Content-Type, cannot determine appropriate response converter. Response status: %d.",
               code);
-      for (String key : headers.keySet())
-        msg += String.format(Locale.getDefault(), "\n    %s = %s", key, headers.get(key).get(0));
+      for (int i = 0; i < headers.size(); i++)
+        msg +=
+            String.format(Locale.getDefault(), "\n    %s = %s", headers.name(i), headers.value(i));
       throw new BridgeException(this, msg, BridgeException.REASON_RESPONSE_UNPARSEABLE);
     }
   }
 
+  /**
+   * Converts the body with the converter for its content type. Fields annotated with {@link
+   * com.afollestad.bridge.annotations.Header} are set from the response's headers.
+   */
   @Nullable
   public <T> T asClass(@NotNull Class<T> cls) throws BridgeException {
     String contentType = contentType();
     throwIfNoContentType(contentType);
-    final long start = System.currentTimeMillis();
+    final long start = System.nanoTime();
     T result;
     try {
-      result = Bridge.config().converter(contentType).deserialize(this, cls);
+      result = converter(contentType, cls).deserialize(this, cls);
+      final HeaderBinding headerBinding = HeaderBinding.of(cls);
+      if (result != null && !headerBinding.isEmpty()) headerBinding.readFrom(this, result);
     } catch (Exception e) {
       throw new IllegalStateException("Failed to deserialize response to object!", e);
     }
-    final long diff = System.currentTimeMillis() - start;
-    LogCompat.d(
-        this,
-        "Response conversion to object %s took %d milliseconds (%d seconds).",
-        cls.getName(),
-        diff,
-        diff / 1000);
+    final long diff = System.nanoTime() - start;
+    final EventListener listener = listener();
+    if (listener != null) listener.conversionEnd(request, cls, diff);
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(
+          this,
+          "Response conversion to object %s took %d milliseconds.",
+          cls.getName(),
+          TimeUnit.NANOSECONDS.toMillis(diff));
+    }
     return result;
   }
 
@@ -251,20 +341,23 @@ public final class Response implements AsResults, Serializable {
   public <T> T[] asClassArray(@NotNull Class<T> cls) throws BridgeException {
     String contentType = contentType();
     throwIfNoContentType(contentType);
-    final long start = System.currentTimeMillis();
+    final long start = System.nanoTime();
     T[] result;
     try {
-      result = Bridge.config().converter(contentType).deserializeArray(this, cls);
+      result = converter(contentType, cls).deserializeArray(this, cls);
     } catch (Exception e) {
       throw new IllegalStateException("Failed to deserialize response to array!", e);
     }
-    final long diff = System.currentTimeMillis() - start;
-    LogCompat.d(
-        this,
-        "Response conversion to array of class %s took %d milliseconds (%d seconds).",
-        cls.getName(),
-        diff,
-        diff / 1000);
+    final long diff = System.nanoTime() - start;
+    final EventListener listener = listener();
+    if (listener != null) listener.conversionEnd(request, cls, diff);
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(
+          this,
+          "Response conversion to array of class %s took %d milliseconds.",
+          cls.getName(),
+          TimeUnit.NANOSECONDS.toMillis(diff));
+    }
     return result;
   }
 
@@ -272,23 +365,37 @@ public final class Response implements AsResults, Serializable {
   public <T> List<T> asClassList(@NotNull Class<T> cls) throws BridgeException {
     String contentType = contentType();
     throwIfNoContentType(contentType);
-    final long start = System.currentTimeMillis();
+    final long start = System.nanoTime();
     List<T> result;
     try {
-      result = Bridge.config().converter(contentType).deserializeList(this, cls);
+      result = converter(contentType, cls).deserializeList(this, cls);
     } catch (Exception e) {
       throw new IllegalStateException("Failed to deserialize response to list!", e);
     }
-    final long diff = System.currentTimeMillis() - start;
-    LogCompat.d(
-        this,
-        "Response conversion to list of class %s took %d milliseconds (%d seconds).",
-        cls.getName(),
-        diff,
-        diff / 1000);
+    final long diff = System.nanoTime() - start;
+    final EventListener listener = listener();
+    if (listener != null) listener.conversionEnd(request, cls, diff);
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(
+          this,
+          "Response conversion to list of class %s took %d milliseconds.",
+          cls.getName(),
+          TimeUnit.NANOSECONDS.toMillis(diff));
+    }
     return result;
   }
 
+  private IConverter converter(String contentType, Class<?> cls) {
+    return request != null
+        ? request.builder().config.converterFor(contentType, cls)
+        : Bridge.config().converterFor(contentType, cls);
+  }
+
+  @Nullable
+  private EventListener listener() {
+    return request != null ? request.listener() : null;
+  }
+
   @Nullable
   @Override
   public String toString() {
@@ -298,7 +405,8 @@ public final class Response implements AsResults, Serializable {
   @Nullable
   private byte[] decompressGZIP(byte[] compressed) throws IOException {
     ByteArrayInputStream is = new ByteArrayInputStream(compressed);
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    // Compressed text is usually several times smaller than it is decompressed
+    ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(32, compressed.length * 4));
     GZIPInputStream gis = new GZIPInputStream(is, BUFFER_SIZE_GZIP);
     try {
       byte[] data = new byte[BUFFER_SIZE_GZIP];
@@ -0,0 +1,83 @@
+package com.afollestad.bridge;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps retries to a percentage of recent traffic, so that a struggling upstream isn't hit with a
+ * multiple of its normal load by every client retrying at once. Shared by all requests made through
+ * the {@link Config} it's set on.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class RetryBudget {
+
+  private static final int WINDOW_SECONDS = 10;
+
+  private final double ratio;
+  private final int minRetriesPerSecond;
+  private final long[] slotSecond = new long[WINDOW_SECONDS];
+  private final int[] slotRequests = new int[WINDOW_SECONDS];
+  private final int[] slotRetries = new int[WINDOW_SECONDS];
+  private final long originNanos = System.nanoTime();
+
+  private RetryBudget(double ratio, int minRetriesPerSecond) {
+    if (ratio < 0) {
+      throw new IllegalArgumentException("Retry ratio cannot be negative.");
+    }
+    if (minRetriesPerSecond < 0) {
+      throw new IllegalArgumentException("Minimum retries per second cannot be negative.");
+    }
+    this.ratio = ratio;
+    this.minRetriesPerSecond = minRetriesPerSecond;
+  }
+
+  /**
+   * @param ratio the allowed retries per request over the last 10 seconds, e.g. 0.2 for 20%.
+   * @param minRetriesPerSecond retries that are always allowed, so low-traffic clients can still
+   *     retry.
+   */
+  public static RetryBudget create(double ratio, int minRetriesPerSecond) {
+    return new RetryBudget(ratio, minRetriesPerSecond);
+  }
+
+  /** Records a new (non-retry) request. */
+  synchronized void deposit() {
+    slotRequests[slot(nowSeconds())]++;
+  }
+
+  /** Returns true and records the retry if the budget allows it. */
+  synchronized boolean tryWithdraw() {
+    final long now = nowSeconds();
+    final int current = slot(now);
+    long requests = 0;
+    long retries = 0;
+    for (int i = 0; i < WINDOW_SECONDS; i++) {
+      if (now - slotSecond[i] < WINDOW_SECONDS) {
+        requests += slotRequests[i];
+        retries += slotRetries[i];
+      }
+    }
+    final double allowed = minRetriesPerSecond * WINDOW_SECONDS + ratio * requests;
+    if (retries >= allowed) {
+      return false;
+    }
+    slotRetries[current]++;
+    return true;
+  }
+
+  private int slot(long second) {
+    final int index = (int) (second % WINDOW_SECONDS);
+    if (slotSecond[index] != second) {
+      // This slot holds a stale second, recycle it
+      slotSecond[index] = second;
+      slotRequests[index] = 0;
+      slotRetries[index] = 0;
+    }
+    return index;
+  }
+
+  private long nowSeconds() {
+    return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - originNanos);
+  }
+}
@@ -0,0 +1,161 @@
+package com.afollestad.bridge;
+
+import com.afollestad.bridge.conversion.IConverter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Serializes an object, array or List straight into the connection when the request is sent, see
+ * {@link RequestBuilder#streamBody(Object, boolean)}. Without chunked framing the object is
+ * serialized once beforehand into a counter, which discards the bytes, so Content-Length can be
+ * sent.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class SerializedPipe extends Pipe {
+
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+
+  /** Converters aren't Serializable, so a deserialized copy of this pipe can't be sent. */
+  private final transient IConverter converter;
+
+  private final Object value;
+  private final String contentType;
+  private final boolean chunked;
+  private final long id = NEXT_ID.incrementAndGet();
+  private long contentLength = -1;
+
+  SerializedPipe(
+      @NotNull IConverter converter,
+      @NotNull Object value,
+      @NotNull String contentType,
+      boolean chunked) {
+    this.converter = converter;
+    this.value = value;
+    this.contentType = contentType;
+    this.chunked = chunked;
+  }
+
+  /**
+   * Unique to this pipe, so its request is never merged with another. Serializing the object just
+   * to hash it would defeat the point, and identity hash codes aren't unique.
+   */
+  @Override
+  public String hash() {
+    return value.getClass().getName() + "#" + id;
+  }
+
+  @Override
+  public boolean digest(@NotNull MessageDigest digest) throws IOException {
+    serializeTo(new DigestOutputStream(new CountingStream(null, null, -1), digest));
+    return true;
+  }
+
+  @Override
+  public void writeTo(@NotNull OutputStream os, @Nullable ProgressCallback progressListener)
+      throws IOException {
+    final long total = contentLength();
+    if (progressListener != null && total > 0) {
+      final CountingStream counter = new CountingStream(os, progressListener, total);
+      serializeTo(counter);
+      progressListener.publishProgress(counter.count, total);
+    } else {
+      serializeTo(os);
+    }
+  }
+
+  @NotNull
+  @Override
+  public String contentType() {
+    return contentType;
+  }
+
+  /** Serializes the object once to count its bytes, the count is kept for retries. */
+  @Override
+  public long contentLength() throws IOException {
+    if (chunked) return -1;
+    if (contentLength == -1) {
+      final CountingStream counter = new CountingStream(null, null, -1);
+      serializeTo(counter);
+      contentLength = counter.count;
+    }
+    return contentLength;
+  }
+
+  @Override
+  boolean chunked() {
+    return chunked;
+  }
+
+  @Override
+  public void close() {}
+
+  private void serializeTo(OutputStream os) throws IOException {
+    if (converter == null) {
+      throw new IOException("A deserialized " + getClass().getSimpleName() + " can't be sent.");
+    }
+    final long start = System.nanoTime();
+    try {
+      if (value instanceof Object[]) {
+        converter.serializeArray((Object[]) value, os);
+      } else if (value instanceof List) {
+        // A read-only view, typed for the converter without copying the list
+        converter.serializeList(Collections.<Object>unmodifiableList((List<?>) value), os);
+      } else {
+        converter.serialize(value, os);
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Failed to serialize " + value.getClass().getName() + " to body!", e);
+    }
+    if (LogCompat.isEnabled()) {
+      LogCompat.d(
+          this,
+          "Streamed conversion took %dms for %s.",
+          (System.nanoTime() - start) / 1000000,
+          value.getClass().getName());
+    }
+  }
+
+  /** Counts what's written, passing it on to out if it isn't null. */
+  private static final class CountingStream extends OutputStream {
+
+    private final OutputStream out;
+    private final ProgressCallback progress;
+    private final long total;
+    long count;
+
+    CountingStream(@Nullable OutputStream out, @Nullable ProgressCallback progress, long total) {
+      this.out = out;
+      this.progress = progress;
+      this.total = total;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (out != null) out.write(b);
+      count++;
+      if (progress != null) progress.publishProgress(count, total);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+      if (out != null) out.write(b, off, len);
+      count += len;
+      if (progress != null) progress.publishProgress(count, total);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out != null) out.flush();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package com.afollestad.bridge;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An event received by an {@link EventSource}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class ServerSentEvent {
+
+  private final String id;
+  private final String type;
+  private final String data;
+
+  ServerSentEvent(@NotNull String id, @NotNull String type, @NotNull String data) {
+    this.id = id;
+    this.type = type;
+    this.data = data;
+  }
+
+  /** The last event ID sent by the server, which may have been set by an earlier event. */
+  @NotNull
+  public String id() {
+    return id;
+  }
+
+  /** The event field, or "message" if there wasn't one. */
+  @NotNull
+  public String type() {
+    return type;
+  }
+
+  /** The data fields of the event, joined with line breaks. */
+  @NotNull
+  public String data() {
+    return data;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s (id %s): %s", type, id, data);
+  }
+}
@@ -0,0 +1,14 @@
+package com.afollestad.bridge;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link LineCallback} that's also told when the response headers arrive, before the first line.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+interface StreamCallback extends LineCallback {
+
+  /** Throwing fails the request without reading the body. */
+  void opened(@NotNull Response response) throws BridgeException;
+}
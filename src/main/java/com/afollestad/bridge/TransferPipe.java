@@ -12,12 +12,15 @@ public final class TransferPipe extends Pipe {
 
   private final InputStream inputStream;
   private final String contentType;
+  private final long contentLength;
   private String hash;
 
-  TransferPipe(@NotNull InputStream is, @NotNull String contentType, @NotNull String hash) {
+  TransferPipe(
+      @NotNull InputStream is, @NotNull String contentType, @NotNull String hash, long length) {
     this.inputStream = is;
     this.contentType = contentType;
     this.hash = hash;
+    this.contentLength = length;
   }
 
   @Override
@@ -30,8 +33,8 @@ public final class TransferPipe extends Pipe {
       throws IOException {
     byte[] buffer = new byte[Bridge.config().bufferSize];
     int read;
-    int totalRead = 0;
-    final int available = inputStream.available();
+    long totalRead = 0;
+    final long available = contentLength != -1 ? contentLength : inputStream.available();
     while ((read = inputStream.read(buffer)) != -1) {
       os.write(buffer, 0, read);
       totalRead += read;
@@ -46,8 +49,8 @@ public final class TransferPipe extends Pipe {
   }
 
   @Override
-  public int contentLength() throws IOException {
-    return inputStream.available();
+  public long contentLength() {
+    return contentLength;
   }
 
   @Override
@@ -0,0 +1,54 @@
+package com.afollestad.bridge;
+
+/**
+ * One byte range of a {@link ChunkedUpload}, passed to its {@link ChunkTemplate}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class UploadChunk {
+
+  private final int index;
+  private final int count;
+  private final long offset;
+  private final long length;
+  private final long fileLength;
+
+  UploadChunk(int index, int count, long offset, long length, long fileLength) {
+    this.index = index;
+    this.count = count;
+    this.offset = offset;
+    this.length = length;
+    this.fileLength = fileLength;
+  }
+
+  /** The position of the chunk within the file, starting at 0. */
+  public int index() {
+    return index;
+  }
+
+  /** The number of chunks the file was split into. */
+  public int count() {
+    return count;
+  }
+
+  /** The position of the chunk's first byte within the file. */
+  public long offset() {
+    return offset;
+  }
+
+  /** The number of bytes in the chunk. */
+  public long length() {
+    return length;
+  }
+
+  /** The size of the whole file. */
+  public long fileLength() {
+    return fileLength;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("chunk %d/%d (%d+%d)", index + 1, count, offset, length);
+  }
+}
@@ -0,0 +1,327 @@
+package com.afollestad.bridge.conversion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Encodes the stock JSON tree as CBOR (RFC 7049) and decodes it back. Only what JSON can represent
+ * is written: maps, arrays, text, integers, floats, booleans and null. Decoding also accepts byte
+ * strings, tags and indefinite lengths, which other encoders may produce.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Cbor {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_BYTES = 2;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+  private static final int MAJOR_TAG = 6;
+
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int FLOAT = 0xfa;
+  private static final int DOUBLE = 0xfb;
+  private static final int BREAK = 0xff;
+  private static final int INDEFINITE = 31;
+
+  private Cbor() {}
+
+  static void write(Object value, OutputStream os) throws IOException {
+    if (value == null || value == JSONObject.NULL) {
+      os.write(NULL);
+    } else if (value instanceof JSONObject) {
+      final JSONObject map = (JSONObject) value;
+      writeHead(MAJOR_MAP, map.length(), os);
+      final Iterator<String> keys = map.keys();
+      while (keys.hasNext()) {
+        final String key = keys.next();
+        writeText(key, os);
+        write(map.opt(key), os);
+      }
+    } else if (value instanceof JSONArray) {
+      final JSONArray array = (JSONArray) value;
+      final int length = array.length();
+      writeHead(MAJOR_ARRAY, length, os);
+      for (int i = 0; i < length; i++) {
+        write(array.opt(i), os);
+      }
+    } else if (value instanceof String) {
+      writeText((String) value, os);
+    } else if (value instanceof Boolean) {
+      os.write((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Integer
+        || value instanceof Long
+        || value instanceof Short
+        || value instanceof Byte) {
+      writeInteger(((Number) value).longValue(), os);
+    } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+      writeInteger(((BigInteger) value).longValue(), os);
+    } else if (value instanceof Number) {
+      writeFloat(((Number) value).doubleValue(), os);
+    } else if (value instanceof byte[]) {
+      final byte[] bytes = (byte[]) value;
+      writeHead(MAJOR_BYTES, bytes.length, os);
+      os.write(bytes);
+    } else {
+      writeText(value.toString(), os);
+    }
+  }
+
+  private static void writeInteger(long value, OutputStream os) throws IOException {
+    if (value >= 0) {
+      writeHead(MAJOR_UNSIGNED, value, os);
+    } else {
+      writeHead(MAJOR_NEGATIVE, -1 - value, os);
+    }
+  }
+
+  /** Uses single precision when it holds the value exactly, which is half the size. */
+  private static void writeFloat(double value, OutputStream os) throws IOException {
+    final float single = (float) value;
+    if (single == value || Double.isNaN(value)) {
+      os.write(FLOAT);
+      writeBytes(Float.floatToIntBits(single), 4, os);
+    } else {
+      os.write(DOUBLE);
+      writeBytes(Double.doubleToLongBits(value), 8, os);
+    }
+  }
+
+  private static void writeText(String text, OutputStream os) throws IOException {
+    final byte[] bytes = text.getBytes(UTF_8);
+    writeHead(MAJOR_TEXT, bytes.length, os);
+    os.write(bytes);
+  }
+
+  /** Writes the type and the value or length in as few bytes as it fits in. */
+  private static void writeHead(int major, long value, OutputStream os) throws IOException {
+    final int type = major << 5;
+    if (value < 24) {
+      os.write(type | (int) value);
+    } else if (value < 0x100) {
+      os.write(type | 24);
+      os.write((int) value);
+    } else if (value < 0x10000) {
+      os.write(type | 25);
+      writeBytes(value, 2, os);
+    } else if (value < 0x100000000L) {
+      os.write(type | 26);
+      writeBytes(value, 4, os);
+    } else {
+      os.write(type | 27);
+      writeBytes(value, 8, os);
+    }
+  }
+
+  private static void writeBytes(long value, int count, OutputStream os) throws IOException {
+    for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+      os.write((int) (value >>> shift) & 0xFF);
+    }
+  }
+
+  /** Decodes a single data item, which must take up all of data. */
+  static Object read(byte[] data) throws IOException {
+    final Reader reader = new Reader(data);
+    final Object value = reader.read();
+    if (reader.pos != data.length) {
+      throw new IOException("Malformed CBOR: " + (data.length - reader.pos) + " trailing bytes.");
+    }
+    return value;
+  }
+
+  private static final class Reader {
+
+    private final byte[] data;
+    private int pos;
+
+    Reader(byte[] data) {
+      this.data = data;
+    }
+
+    Object read() throws IOException {
+      final int initial = next();
+      if (initial == BREAK) {
+        throw new IOException("Malformed CBOR: unexpected break at " + (pos - 1) + ".");
+      }
+      final int major = initial >>> 5;
+      final int info = initial & 0x1f;
+      switch (major) {
+        case MAJOR_UNSIGNED:
+          return integer(argument(info), false);
+        case MAJOR_NEGATIVE:
+          return integer(argument(info), true);
+        case MAJOR_BYTES:
+          return info == INDEFINITE ? chunks(MAJOR_BYTES) : bytes(length(info));
+        case MAJOR_TEXT:
+          if (info == INDEFINITE) {
+            return new String(chunks(MAJOR_TEXT), UTF_8);
+          }
+          final int length = length(info);
+          require(length);
+          final String text = new String(data, pos, length, UTF_8);
+          pos += length;
+          return text;
+        case MAJOR_ARRAY:
+          final JSONArray array = new JSONArray();
+          if (info == INDEFINITE) {
+            while (peek() != BREAK) array.put(read());
+            pos++;
+          } else {
+            for (int i = length(info); i > 0; i--) array.put(read());
+          }
+          return array;
+        case MAJOR_MAP:
+          final JSONObject map = new JSONObject();
+          if (info == INDEFINITE) {
+            while (peek() != BREAK) map.put(read().toString(), read());
+            pos++;
+          } else {
+            for (int i = length(info); i > 0; i--) map.put(read().toString(), read());
+          }
+          return map;
+        case MAJOR_TAG:
+          // Tags only annotate the item that follows, e.g. as a date
+          argument(info);
+          return read();
+        default:
+          return simple(info);
+      }
+    }
+
+    private Object simple(int info) throws IOException {
+      switch (info) {
+        case 20:
+          return false;
+        case 21:
+          return true;
+        case 22:
+        case 23:
+          return JSONObject.NULL;
+        case 25:
+          return (double) halfToFloat((int) argument(info));
+        case 26:
+          return (double) Float.intBitsToFloat((int) argument(info));
+        case 27:
+          return Double.longBitsToDouble(argument(info));
+        default:
+          throw new IOException("Malformed CBOR: unsupported simple value " + info + ".");
+      }
+    }
+
+    /** Integers come back as Integer where they fit, then Long, the way JSON parsing does. */
+    private static Object integer(long value, boolean negative) {
+      if (value < 0) {
+        // Above Long.MAX_VALUE as an unsigned 64-bit value
+        final BigInteger unsigned = BigInteger.valueOf(value & Long.MAX_VALUE).setBit(63);
+        return negative ? unsigned.add(BigInteger.ONE).negate() : unsigned;
+      }
+      final long result = negative ? -1 - value : value;
+      if (result >= Integer.MIN_VALUE && result <= Integer.MAX_VALUE) {
+        return (int) result;
+      }
+      return result;
+    }
+
+    private byte[] bytes(int length) throws IOException {
+      require(length);
+      final byte[] bytes = new byte[length];
+      System.arraycopy(data, pos, bytes, 0, length);
+      pos += length;
+      return bytes;
+    }
+
+    /** Joins the definite length chunks of an indefinite length string. */
+    private byte[] chunks(int major) throws IOException {
+      final ByteArrayOutputStream joined = new ByteArrayOutputStream();
+      while (peek() != BREAK) {
+        final int initial = next();
+        if (initial >>> 5 != major || (initial & 0x1f) == INDEFINITE) {
+          throw new IOException("Malformed CBOR: bad chunk in indefinite length string.");
+        }
+        final int length = length(initial & 0x1f);
+        require(length);
+        joined.write(data, pos, length);
+        pos += length;
+      }
+      pos++;
+      return joined.toByteArray();
+    }
+
+    private int length(int info) throws IOException {
+      final long length = argument(info);
+      if (length < 0 || length > data.length - pos) {
+        throw new IOException("Malformed CBOR: length " + length + " runs past the end.");
+      }
+      return (int) length;
+    }
+
+    private long argument(int info) throws IOException {
+      if (info < 24) return info;
+      final int count;
+      switch (info) {
+        case 24:
+          count = 1;
+          break;
+        case 25:
+          count = 2;
+          break;
+        case 26:
+          count = 4;
+          break;
+        case 27:
+          count = 8;
+          break;
+        default:
+          throw new IOException("Malformed CBOR: unsupported additional info " + info + ".");
+      }
+      require(count);
+      long value = 0;
+      for (int i = 0; i < count; i++) {
+        value = (value << 8) | (data[pos++] & 0xFF);
+      }
+      return value;
+    }
+
+    private int next() throws IOException {
+      require(1);
+      return data[pos++] & 0xFF;
+    }
+
+    private int peek() throws IOException {
+      require(1);
+      return data[pos] & 0xFF;
+    }
+
+    private void require(int count) throws IOException {
+      if (count > data.length - pos) {
+        throw new IOException("Malformed CBOR: unexpected end of data.");
+      }
+    }
+
+    private static float halfToFloat(int half) {
+      final int exponent = (half >>> 10) & 0x1f;
+      final int mantissa = half & 0x3ff;
+      final float value;
+      if (exponent == 0) {
+        value = mantissa * (float) Math.pow(2, -24);
+      } else if (exponent == 31) {
+        value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+      } else {
+        value = (float) Math.pow(2, exponent - 15) * (1 + mantissa / 1024f);
+      }
+      return (half & 0x8000) != 0 ? -value : value;
+    }
+  }
+}
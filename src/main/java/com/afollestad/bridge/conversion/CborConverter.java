@@ -0,0 +1,97 @@
+package com.afollestad.bridge.conversion;
+
+import com.afollestad.ason.Ason;
+import com.afollestad.ason.AsonArray;
+import com.afollestad.bridge.Response;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Converts objects to and from CBOR, registered for application/cbor. Objects are bound to fields
+ * by Ason, the same as {@link JsonConverter}, so the same annotations apply; only the encoding of
+ * the body differs.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings("unchecked")
+public class CborConverter extends IConverter {
+
+  @Override
+  public byte[] serialize(Object object) throws Exception {
+    return encode(Ason.serialize(object).toStockJson());
+  }
+
+  @Override
+  public byte[] serializeArray(Object[] objects) throws Exception {
+    return encode(Ason.serializeArray(objects).toStockJson());
+  }
+
+  @Override
+  public byte[] serializeList(List<Object> objects) throws Exception {
+    return encode(Ason.serializeList(objects).toStockJson());
+  }
+
+  @Override
+  public void serialize(Object object, OutputStream os) throws Exception {
+    encode(Ason.serialize(object).toStockJson(), os);
+  }
+
+  @Override
+  public void serializeArray(Object[] objects, OutputStream os) throws Exception {
+    encode(Ason.serializeArray(objects).toStockJson(), os);
+  }
+
+  @Override
+  public void serializeList(List<Object> objects, OutputStream os) throws Exception {
+    encode(Ason.serializeList(objects).toStockJson(), os);
+  }
+
+  @Override
+  public <T> T deserialize(Response response, Class<T> cls) throws Exception {
+    final JSONObject json = decode(response, JSONObject.class);
+    return json != null ? Ason.deserialize(new Ason(json), cls) : null;
+  }
+
+  @Override
+  public <T> T[] deserializeArray(Response response, Class<T> cls) throws Exception {
+    final JSONArray json = decode(response, JSONArray.class);
+    return json != null ? (T[]) Ason.deserialize(new AsonArray(json), cls) : null;
+  }
+
+  @Override
+  public <T> List<T> deserializeList(Response response, Class<T> cls) throws Exception {
+    final JSONArray json = decode(response, JSONArray.class);
+    return json != null ? Ason.deserializeList(new AsonArray(json), cls) : null;
+  }
+
+  private static byte[] encode(Object json) throws IOException {
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    Cbor.write(json, os);
+    return os.toByteArray();
+  }
+
+  /** Buffered, since the encoder writes a few bytes at a time. */
+  private static void encode(Object json, OutputStream os) throws IOException {
+    final BufferedOutputStream buffered = new BufferedOutputStream(os);
+    Cbor.write(json, buffered);
+    buffered.flush();
+  }
+
+  private static <T> T decode(Response response, Class<T> type) throws IOException {
+    final byte[] data = response.asBytes();
+    if (data == null || data.length == 0) return null;
+    final Object json = Cbor.read(data);
+    if (!type.isInstance(json)) {
+      throw new IOException(
+          String.format(
+              "Expected a CBOR %s, but the body is %s.",
+              type == JSONObject.class ? "map" : "array", json.getClass().getSimpleName()));
+    }
+    return type.cast(json);
+  }
+}
@@ -0,0 +1,249 @@
+package com.afollestad.bridge.conversion;
+
+import com.afollestad.bridge.Response;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The base of converters generated by bridge-processor for classes annotated with {@link
+ * com.afollestad.bridge.annotations.ContentType}. A generated converter reads and writes the
+ * class's fields directly, binding them the same way Ason does, so no reflection is used per
+ * object. It encodes as JSON or CBOR, standing in for {@link JsonConverter} or {@link
+ * CborConverter}, and is used in their place for its class by {@link
+ * com.afollestad.bridge.Config#converterFor(String, Class)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@SuppressWarnings({"WeakerAccess", "unchecked"})
+public abstract class ClassConverter<T> extends IConverter {
+
+  /**
+   * Appended to the class's binary name to name its generated converter. The $ of a nested class is
+   * kept, since replacing it could give a nested class and a top-level one the same converter.
+   */
+  public static final String SUFFIX = "_BridgeConverter";
+
+  private static final ConcurrentHashMap<Class<?>, Object> GENERATED = new ConcurrentHashMap<>();
+  private static final Object NONE = new Object();
+
+  private final boolean cbor;
+
+  protected ClassConverter(@NotNull String contentType) {
+    cbor = isCbor(contentType);
+  }
+
+  /**
+   * The converter generated for cls, or null if there isn't one. Looked up once per class,
+   * generated converters are stateless and shared.
+   */
+  @Nullable
+  public static ClassConverter<?> generatedFor(@NotNull Class<?> cls) {
+    Object converter = GENERATED.get(cls);
+    if (converter == null) {
+      converter = NONE;
+      try {
+        final Class<?> generated =
+            Class.forName(cls.getName() + SUFFIX, true, cls.getClassLoader());
+        if (ClassConverter.class.isAssignableFrom(generated)) {
+          converter = generated.getDeclaredConstructor().newInstance();
+        }
+      } catch (ClassNotFoundException ignored) {
+      } catch (Exception e) {
+        throw new IllegalStateException("Failed to instantiate the converter for " + cls, e);
+      }
+      final Object existing = GENERATED.putIfAbsent(cls, converter);
+      if (existing != null) converter = existing;
+    }
+    return converter != NONE ? (ClassConverter<?>) converter : null;
+  }
+
+  static boolean isCbor(@NotNull String contentType) {
+    final int params = contentType.indexOf(';');
+    final String type = (params != -1 ? contentType.substring(0, params) : contentType).trim();
+    return type.equals("application/cbor") || type.endsWith("+cbor");
+  }
+
+  /** The built-in converter this one stands in for, which must be registered for its type. */
+  @NotNull
+  public final Class<? extends IConverter> replaces() {
+    return cbor ? CborConverter.class : JsonConverter.class;
+  }
+
+  @NotNull
+  public abstract JSONObject toJson(@NotNull T object);
+
+  @NotNull
+  public abstract T fromJson(@NotNull JSONObject json);
+
+  @NotNull
+  protected abstract T[] newArray(int length);
+
+  @Override
+  public byte[] serialize(Object object) throws Exception {
+    return encode(toJson((T) object));
+  }
+
+  @Override
+  public byte[] serializeArray(Object[] objects) throws Exception {
+    return encode(toJsonArray(Arrays.asList(objects)));
+  }
+
+  @Override
+  public byte[] serializeList(List<Object> objects) throws Exception {
+    return encode(toJsonArray(objects));
+  }
+
+  @Override
+  public void serialize(Object object, OutputStream os) throws Exception {
+    encode(toJson((T) object), os);
+  }
+
+  @Override
+  public void serializeArray(Object[] objects, OutputStream os) throws Exception {
+    encode(toJsonArray(Arrays.asList(objects)), os);
+  }
+
+  @Override
+  public void serializeList(List<Object> objects, OutputStream os) throws Exception {
+    encode(toJsonArray(objects), os);
+  }
+
+  @Override
+  public <R> R deserialize(Response response, Class<R> cls) throws Exception {
+    final Object json = decode(response);
+    return json != null ? (R) fromJson(cast(json, JSONObject.class)) : null;
+  }
+
+  @Override
+  public <R> R[] deserializeArray(Response response, Class<R> cls) throws Exception {
+    final Object json = decode(response);
+    if (json == null) return null;
+    final JSONArray array = cast(json, JSONArray.class);
+    final T[] result = newArray(array.length());
+    for (int i = 0; i < result.length; i++) {
+      result[i] = element(array, i);
+    }
+    return (R[]) result;
+  }
+
+  @Override
+  public <R> List<R> deserializeList(Response response, Class<R> cls) throws Exception {
+    final Object json = decode(response);
+    if (json == null) return null;
+    final JSONArray array = cast(json, JSONArray.class);
+    final List<T> result = new ArrayList<>(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      result.add(element(array, i));
+    }
+    return (List<R>) result;
+  }
+
+  /** The value at a dotted path such as "data.id", or null if it's missing or null. */
+  @Nullable
+  protected static Object get(@NotNull JSONObject json, @NotNull String path) {
+    int start = 0;
+    int dot;
+    while ((dot = path.indexOf('.', start)) != -1) {
+      final Object child = json.opt(path.substring(start, dot));
+      if (!(child instanceof JSONObject)) return null;
+      json = (JSONObject) child;
+      start = dot + 1;
+    }
+    final Object value = json.opt(start == 0 ? path : path.substring(start));
+    return value != JSONObject.NULL ? value : null;
+  }
+
+  /** A number, or one parsed from text, since some servers quote large numbers. */
+  @NotNull
+  protected static Number number(@NotNull Object value) {
+    return value instanceof Number ? (Number) value : new BigDecimal(value.toString());
+  }
+
+  /** The first character of the value's text, or the null character if the text is empty. */
+  protected static char character(@NotNull Object value) {
+    final String text = value.toString();
+    return !text.isEmpty() ? text.charAt(0) : '\0';
+  }
+
+  /** Puts a value at a dotted path, creating the objects along it. */
+  protected static void put(
+      @NotNull JSONObject json, @NotNull String path, @Nullable Object value) {
+    int start = 0;
+    int dot;
+    while ((dot = path.indexOf('.', start)) != -1) {
+      final String name = path.substring(start, dot);
+      JSONObject child = json.optJSONObject(name);
+      if (child == null) {
+        child = new JSONObject();
+        json.put(name, child);
+      }
+      json = child;
+      start = dot + 1;
+    }
+    json.put(start == 0 ? path : path.substring(start), value != null ? value : JSONObject.NULL);
+  }
+
+  private JSONArray toJsonArray(List<Object> objects) {
+    final JSONArray array = new JSONArray();
+    for (Object object : objects) {
+      array.put(object != null ? toJson((T) object) : JSONObject.NULL);
+    }
+    return array;
+  }
+
+  private T element(JSONArray array, int index) {
+    final JSONObject json = array.optJSONObject(index);
+    return json != null ? fromJson(json) : null;
+  }
+
+  /** Small bodies are cheaper to encode without the stream path's buffers. */
+  private byte[] encode(Object json) throws IOException {
+    if (!cbor) return json.toString().getBytes("UTF-8");
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    Cbor.write(json, os);
+    return os.toByteArray();
+  }
+
+  private void encode(Object json, OutputStream os) throws IOException {
+    if (cbor) {
+      final OutputStream buffered = new BufferedOutputStream(os);
+      Cbor.write(json, buffered);
+      buffered.flush();
+      return;
+    }
+    Json.write(json, os);
+  }
+
+  @Nullable
+  private Object decode(Response response) throws Exception {
+    if (cbor) {
+      final byte[] data = response.asBytes();
+      return data != null && data.length > 0 ? Cbor.read(data) : null;
+    }
+    final String text = response.asString();
+    if (text == null || text.trim().isEmpty()) return null;
+    final String trimmed = text.trim();
+    return trimmed.startsWith("[") ? new JSONArray(trimmed) : new JSONObject(trimmed);
+  }
+
+  private static <J> J cast(Object json, Class<J> type) throws IOException {
+    if (!type.isInstance(json)) {
+      throw new IOException(
+          String.format(
+              "Expected a %s body, but it's a %s.",
+              type == JSONObject.class ? "object" : "array", json.getClass().getSimpleName()));
+    }
+    return type.cast(json);
+  }
+}
@@ -1,6 +1,7 @@
 package com.afollestad.bridge.conversion;
 
 import com.afollestad.bridge.Response;
+import java.io.OutputStream;
 import java.util.List;
 
 /** @author Aidan Follestad (afollestad) */
@@ -12,6 +13,24 @@ public abstract class IConverter {
 
   public abstract byte[] serializeList(List<Object> objects) throws Exception;
 
+  /**
+   * Writes the object straight to a request's stream as it's sent, for bodies set with {@link
+   * com.afollestad.bridge.RequestBuilder#streamBody(Object)}. The stream shouldn't be closed. By
+   * default this writes the result of {@link #serialize(Object)}; override it to avoid holding the
+   * whole body in memory.
+   */
+  public void serialize(Object object, OutputStream os) throws Exception {
+    os.write(serialize(object));
+  }
+
+  public void serializeArray(Object[] objects, OutputStream os) throws Exception {
+    os.write(serializeArray(objects));
+  }
+
+  public void serializeList(List<Object> objects, OutputStream os) throws Exception {
+    os.write(serializeList(objects));
+  }
+
   public abstract <T> T deserialize(Response response, Class<T> cls) throws Exception;
 
   public abstract <T> T[] deserializeArray(Response response, Class<T> cls) throws Exception;
@@ -0,0 +1,68 @@
+package com.afollestad.bridge.conversion;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes the stock JSON tree as text while walking it, skipping the String and byte array copies of
+ * the body. JSONObject.write(Writer) would do the same, but Android's org.json doesn't have it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Json {
+
+  private Json() {}
+
+  static void write(Object value, OutputStream os) throws IOException {
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+    write(value, writer);
+    writer.flush();
+  }
+
+  private static void write(Object value, Writer writer) throws IOException {
+    if (value == null || value == JSONObject.NULL) {
+      writer.write("null");
+    } else if (value instanceof JSONObject) {
+      final JSONObject map = (JSONObject) value;
+      writer.write('{');
+      final Iterator<String> keys = map.keys();
+      boolean first = true;
+      while (keys.hasNext()) {
+        final String key = keys.next();
+        if (!first) writer.write(',');
+        first = false;
+        writer.write(JSONObject.quote(key));
+        writer.write(':');
+        write(map.opt(key), writer);
+      }
+      writer.write('}');
+    } else if (value instanceof JSONArray) {
+      final JSONArray array = (JSONArray) value;
+      final int length = array.length();
+      writer.write('[');
+      for (int i = 0; i < length; i++) {
+        if (i > 0) writer.write(',');
+        write(array.opt(i), writer);
+      }
+      writer.write(']');
+    } else if (value instanceof Boolean) {
+      writer.write(value.toString());
+    } else if (value instanceof Number) {
+      try {
+        writer.write(JSONObject.numberToString((Number) value));
+      } catch (JSONException e) {
+        // NaN and infinities have no JSON representation
+        throw new IOException(e.getMessage(), e);
+      }
+    } else {
+      writer.write(JSONObject.quote(value.toString()));
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.afollestad.bridge.conversion;
 import com.afollestad.ason.Ason;
 import com.afollestad.ason.AsonArray;
 import com.afollestad.bridge.Response;
+import java.io.OutputStream;
 import java.util.List;
 
 /** @author Aidan Follestad (afollestad) */
@@ -27,6 +28,21 @@ public class JsonConverter extends IConverter {
     return ason.toString().getBytes("UTF-8");
   }
 
+  @Override
+  public void serialize(Object object, OutputStream os) throws Exception {
+    Json.write(Ason.serialize(object).toStockJson(), os);
+  }
+
+  @Override
+  public void serializeArray(Object[] objects, OutputStream os) throws Exception {
+    Json.write(Ason.serializeArray(objects).toStockJson(), os);
+  }
+
+  @Override
+  public void serializeList(List<Object> objects, OutputStream os) throws Exception {
+    Json.write(Ason.serializeList(objects).toStockJson(), os);
+  }
+
   @Override
   public <T> T deserialize(Response response, Class<T> cls) throws Exception {
     return Ason.deserialize(response.asAsonObject(), cls);
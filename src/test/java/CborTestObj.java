@@ -0,0 +1,23 @@
+import com.afollestad.ason.AsonName;
+import com.afollestad.bridge.annotations.ContentType;
+
+/** @author Aidan Follestad (afollestad) */
+@ContentType(value = "application/cbor")
+class CborTestObj {
+
+  String name;
+  int born;
+  double score;
+
+  @AsonName(name = "data.id")
+  int id;
+
+  public CborTestObj() {}
+
+  CborTestObj(String name, int born, double score, int id) {
+    this.name = name;
+    this.born = born;
+    this.score = score;
+    this.id = id;
+  }
+}
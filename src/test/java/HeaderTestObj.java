@@ -0,0 +1,25 @@
+import com.afollestad.ason.AsonIgnore;
+import com.afollestad.bridge.annotations.ContentType;
+import com.afollestad.bridge.annotations.Header;
+import java.util.List;
+
+/** @author Aidan Follestad (afollestad) */
+@ContentType(value = "application/json")
+class HeaderTestObj {
+
+  String name;
+
+  @AsonIgnore
+  @Header(name = "Custom-Header")
+  String custom;
+
+  @AsonIgnore
+  @Header(name = "X-Count")
+  int count;
+
+  @AsonIgnore
+  @Header(name = "X-Tags")
+  List<String> tags;
+
+  public HeaderTestObj() {}
+}
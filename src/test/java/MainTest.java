@@ -3,11 +3,32 @@ import static org.junit.Assert.*;
 import com.afollestad.ason.Ason;
 import com.afollestad.ason.AsonArray;
 import com.afollestad.bridge.*;
+import com.afollestad.bridge.conversion.CborConverter;
+import com.afollestad.bridge.conversion.ClassConverter;
+import com.afollestad.bridge.conversion.IConverter;
+import com.afollestad.bridge.conversion.JsonConverter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -37,7 +58,7 @@ public class MainTest {
         }
 
         @Override
-        public int contentLength() throws IOException {
+        public long contentLength() throws IOException {
           return data.length;
         }
 
@@ -66,6 +87,76 @@ public class MainTest {
         }
       };
 
+  private final List<HttpServer> servers = new ArrayList<>();
+  private final List<ExecutorService> serverExecutors = new ArrayList<>();
+
+  /**
+   * Starts a server on the loopback interface which handles requests to path, and returns the URL
+   * of path. Requests are handled concurrently. The server is stopped after the test.
+   */
+  private String serve(String path, HttpHandler handler) throws IOException {
+    final HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.createContext(path, handler);
+    server.start();
+    servers.add(server);
+    serverExecutors.add(executor);
+    return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+  }
+
+  /** A handler which counts requests in hits and responds with code after delayMs. */
+  private static HttpHandler respond(final int code, final long delayMs, final AtomicInteger hits) {
+    return new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        hits.incrementAndGet();
+        try {
+          if (delayMs > 0) Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+          exchange.close();
+          return;
+        }
+        final byte[] body = Integer.toString(code).getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    };
+  }
+
+  /**
+   * A handler which sends the headers and the head of a body, counting down sent, then stalls
+   * mid-body until the server is stopped.
+   */
+  private static HttpHandler stallAfter(
+      final String head, final String contentType, final CountDownLatch sent) {
+    return new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, 0);
+        exchange.getResponseBody().write(head.getBytes("UTF-8"));
+        exchange.getResponseBody().flush();
+        sent.countDown();
+        try {
+          Thread.sleep(30000);
+        } catch (InterruptedException ignored) {
+        }
+        exchange.close();
+      }
+    };
+  }
+
+  @After
+  public void stopServers() {
+    for (HttpServer server : servers) server.stop(0);
+    for (ExecutorService executor : serverExecutors) executor.shutdownNow();
+    servers.clear();
+    serverExecutors.clear();
+  }
+
   @Before
   public void setup() {
     Bridge.config()
@@ -379,4 +470,2112 @@ public class MainTest {
     assertEquals("Hello, world!", data);
     new File("testpipe.txt").delete();
   }
+
+  @Test
+  public void test_cancel_stalled_request() throws Exception {
+    // A local server which accepts connections but never responds
+    final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    final CountDownLatch accepted = new CountDownLatch(1);
+    final List<Socket> sockets = new ArrayList<>();
+    new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  while (true) {
+                    sockets.add(server.accept());
+                    accepted.countDown();
+                  }
+                } catch (IOException ignored) {
+                }
+              }
+            })
+        .start();
+
+    final CountDownLatch responded = new CountDownLatch(1);
+    final AtomicReference<BridgeException> error = new AtomicReference<>();
+    try {
+      Request request =
+          Bridge.get("http://127.0.0.1:%d/stall", server.getLocalPort())
+              .readTimeout(30000)
+              .request(
+                  new Callback() {
+                    @Override
+                    public void response(
+                        @NotNull Request request, @Nullable Response response, BridgeException e) {
+                      error.set(e);
+                      responded.countDown();
+                    }
+                  });
+      assertTrue(accepted.await(10, TimeUnit.SECONDS));
+      // Give the worker thread time to block waiting for the response
+      Thread.sleep(200);
+
+      final long start = System.nanoTime();
+      request.cancel();
+      assertTrue("The worker was not released", responded.await(5, TimeUnit.SECONDS));
+      final long cancelMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      assertNotNull(error.get());
+      assertEquals(BridgeException.REASON_REQUEST_CANCELLED, error.get().reason());
+      assertTrue("Cancellation took " + cancelMs + "ms", cancelMs < 1000);
+    } finally {
+      server.close();
+      for (Socket socket : sockets) socket.close();
+    }
+  }
+
+  @Test
+  public void test_cancel_stalled_body() throws Exception {
+    // Sends the headers and 3 of 100 bytes, then stalls until it's released
+    final CountDownLatch sent = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final String url =
+        serve(
+            "/stall",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 100);
+                exchange.getResponseBody().write("abc".getBytes("UTF-8"));
+                exchange.getResponseBody().flush();
+                sent.countDown();
+                try {
+                  release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                exchange.close();
+              }
+            });
+
+    final CountDownLatch responded = new CountDownLatch(1);
+    final AtomicReference<BridgeException> error = new AtomicReference<>();
+    try {
+      final Request request =
+          Bridge.get(url)
+              .readTimeout(2000)
+              .request(
+                  new Callback() {
+                    @Override
+                    public void response(
+                        @NotNull Request request, @Nullable Response response, BridgeException e) {
+                      error.set(e);
+                      responded.countDown();
+                    }
+                  });
+      assertTrue(sent.await(10, TimeUnit.SECONDS));
+      // Give the worker thread time to read the first bytes and block waiting for the rest
+      Thread.sleep(300);
+
+      final long start = System.nanoTime();
+      request.cancel();
+      final long cancelMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue("cancel() blocked for " + cancelMs + "ms", cancelMs < 500);
+
+      // The worker can only notice once its read returns, at the latest when it times out
+      assertTrue("The worker was not released", responded.await(10, TimeUnit.SECONDS));
+      assertNotNull(error.get());
+      assertEquals(BridgeException.REASON_REQUEST_CANCELLED, error.get().reason());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void test_client_isolation() throws Exception {
+    // A local server which echoes back the X-Client and X-Extra request headers
+    final String url =
+        serve(
+            "/echo",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body =
+                    (exchange.getRequestHeaders().getFirst("X-Client")
+                            + ","
+                            + exchange.getRequestHeaders().getFirst("X-Extra"))
+                        .getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+              }
+            });
+
+    final BridgeClient first = new BridgeClient();
+    final BridgeClient second = new BridgeClient();
+    try {
+      first.config().defaultHeader("X-Client", "first");
+      second.config().defaultHeader("X-Client", "second");
+
+      assertEquals("first,extra", first.get(url).header("X-Extra", "extra").asString());
+      // A per-request header must not leak into the client's defaults
+      assertEquals("first,null", first.get(url).asString());
+      assertEquals("second,null", second.get(url).asString());
+
+      // Header names are case-insensitive, so this replaces the default rather than adding to it
+      final Response response = first.get(url).header("x-client", "lower").response();
+      assertEquals("lower,null", response.asString());
+      assertEquals("10", response.header("content-length"));
+
+      // A request keeps the config it was built with
+      final RequestBuilder built = first.get(url);
+      first.config().defaultHeader("X-Client", "changed");
+      assertEquals("first,null", built.asString());
+      assertEquals("changed,null", first.get(url).asString());
+    } finally {
+      first.destroy();
+      second.destroy();
+    }
+  }
+
+  @Test
+  public void test_batch() throws Exception {
+    // Responds with the query after a delay that makes later requests finish first
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger maxActive = new AtomicInteger();
+    final String url =
+        serve(
+                "/item",
+                new HttpHandler() {
+                  @Override
+                  public void handle(HttpExchange exchange) throws IOException {
+                    final int now = active.incrementAndGet();
+                    while (maxActive.get() < now) maxActive.compareAndSet(maxActive.get(), now);
+                    final String query = exchange.getRequestURI().getQuery();
+                    final int index = Integer.parseInt(query);
+                    try {
+                      Thread.sleep(20 - index % 20);
+                    } catch (InterruptedException ignored) {
+                    }
+                    final byte[] body = query.getBytes("UTF-8");
+                    active.decrementAndGet();
+                    exchange.sendResponseHeaders(index == 3 ? 500 : 200, body.length);
+                    exchange.getResponseBody().write(body);
+                    exchange.close();
+                  }
+                })
+            + "?";
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final List<RequestBuilder> requests = new ArrayList<>();
+      for (int i = 0; i < 20; i++) requests.add(client.get(url + i).throwIfNotSuccess());
+      final Iterator<BatchResult> results =
+          client.batch(requests).parallelism(4).perHostLimit(2).ordered().results();
+      for (int i = 0; i < 20; i++) {
+        final BatchResult result = results.next();
+        assertEquals(i, result.index());
+        assertEquals(i != 3, result.isSuccess());
+        if (i != 3) assertEquals(Integer.toString(i), result.response().asString());
+      }
+      assertFalse(results.hasNext());
+      assertTrue("Max concurrent requests was " + maxActive.get(), maxActive.get() <= 2);
+
+      // With fail-fast, the failure is the last result and later requests aren't sent
+      requests.clear();
+      for (int i = 0; i < 20; i++) requests.add(client.get(url + i).throwIfNotSuccess());
+      final CountDownLatch done = new CountDownLatch(1);
+      final List<BatchResult> delivered = new ArrayList<>();
+      client
+          .batch(requests)
+          .parallelism(2)
+          .failFast()
+          .execute(
+              new BatchCallback() {
+                @Override
+                public void result(@NotNull BatchResult result) {
+                  delivered.add(result);
+                }
+
+                @Override
+                public void complete(int succeeded, int failed) {
+                  assertEquals(1, failed);
+                  done.countDown();
+                }
+              });
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertTrue(delivered.size() < 20);
+      assertEquals(3, delivered.get(delivered.size() - 1).index());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_batch_cancel_while_reading() throws Exception {
+    final CountDownLatch sent = new CountDownLatch(2);
+    final String stallUrl = serve("/stall", stallAfter("abc", "text/plain", sent)) + "?";
+    final String failUrl = serve("/fail", respond(500, 300, new AtomicInteger()));
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final Batch batch = client.batch(Arrays.asList(client.get(stallUrl + 1).readTimeout(10000)));
+      batch.execute(
+          new BatchCallback() {
+            @Override
+            public void result(@NotNull BatchResult result) {}
+          });
+      // Once the body has started, cancelling doesn't wait for the stalled read
+      while (sent.getCount() > 1) Thread.sleep(10);
+      Thread.sleep(200);
+      final long start = System.nanoTime();
+      batch.cancel();
+      final long cancelMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue("cancel() blocked for " + cancelMs + "ms", cancelMs < 500);
+
+      // Fail-fast cancels the stalled request from the failed one's worker, which then delivers
+      // the failure without waiting for it
+      final AtomicReference<BatchResult> failure = new AtomicReference<>();
+      final CountDownLatch failed = new CountDownLatch(1);
+      client
+          .batch(
+              Arrays.asList(
+                  client.get(stallUrl + 2).readTimeout(10000),
+                  client.get(failUrl).throwIfNotSuccess()))
+          .parallelism(2)
+          .failFast()
+          .execute(
+              new BatchCallback() {
+                @Override
+                public void result(@NotNull BatchResult result) {
+                  failure.set(result);
+                  failed.countDown();
+                }
+              });
+      assertTrue("The failure wasn't delivered", failed.await(3, TimeUnit.SECONDS));
+      assertEquals(1, failure.get().index());
+      assertTrue(sent.await(1, TimeUnit.SECONDS));
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_connections_per_origin() throws Exception {
+    // Records the client port of every request, which tells connections apart
+    final List<Integer> ports = new ArrayList<>();
+    final String url =
+        serve(
+                "/ping",
+                new HttpHandler() {
+                  @Override
+                  public void handle(HttpExchange exchange) throws IOException {
+                    synchronized (ports) {
+                      if (!ports.contains(exchange.getRemoteAddress().getPort())) {
+                        ports.add(exchange.getRemoteAddress().getPort());
+                      }
+                    }
+                    exchange.sendResponseHeaders(200, 2);
+                    exchange.getResponseBody().write("ok".getBytes("UTF-8"));
+                    exchange.close();
+                  }
+                })
+            + "?";
+
+    final BridgeClient client = new BridgeClient();
+    client.config().connectionsPerOrigin(2);
+    try {
+      final int count = 50;
+      final CountDownLatch done = new CountDownLatch(count);
+      final AtomicInteger failures = new AtomicInteger();
+      for (int i = 0; i < count; i++) {
+        client
+            .get(url + i)
+            .request(
+                new Callback() {
+                  @Override
+                  public void response(
+                      @NotNull Request request,
+                      @Nullable Response response,
+                      @Nullable BridgeException e) {
+                    if (e != null) failures.incrementAndGet();
+                    done.countDown();
+                  }
+                });
+      }
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(0, failures.get());
+      assertEquals(count, client.originRequests());
+      assertTrue("Used " + ports.size() + " connections", ports.size() <= 2);
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_lines() throws Exception {
+    // Streams lines in pieces, splitting a multi-byte character, and holds the rest of the body
+    // back until the client has read the first line
+    final CountDownLatch firstLineRead = new CountDownLatch(1);
+    final String url =
+        serve(
+            "/lines",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = "{\"name\":\"Zo\u00eb\"}\r\nsecond\nthird".getBytes("UTF-8");
+                final int split = "{\"name\":\"Zo".length() + 1;
+                final int firstLineEnd = "{\"name\":\"Zo\u00eb\"}\r\n".getBytes("UTF-8").length;
+                exchange.sendResponseHeaders(200, 0);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(body, 0, split);
+                os.flush();
+                os.write(body, split, firstLineEnd - split);
+                os.flush();
+                try {
+                  firstLineRead.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                os.write(body, firstLineEnd, body.length - firstLineEnd);
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final LineStream stream = client.get(url).asLines();
+      assertEquals("{\"name\":\"Zo\u00eb\"}", stream.readLine());
+      firstLineRead.countDown();
+      assertEquals("second", stream.readLine());
+      assertEquals("third", stream.readLine());
+      assertNull(stream.readLine());
+      assertEquals(200, stream.response().code());
+
+      final List<String> lines = new ArrayList<>();
+      final CountDownLatch done = new CountDownLatch(1);
+      client
+          .get(url)
+          .asLines(
+              new LineCallback() {
+                @Override
+                public void onLine(@NotNull String line) {
+                  lines.add(line);
+                  firstLineRead.countDown();
+                }
+              },
+              new Callback() {
+                @Override
+                public void response(
+                    @NotNull Request request,
+                    @Nullable Response response,
+                    @Nullable BridgeException e) {
+                  assertNull(e);
+                  done.countDown();
+                }
+              });
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(3, lines.size());
+      assertEquals("third", lines.get(2));
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_lines_close_while_streaming() throws Exception {
+    final CountDownLatch sent = new CountDownLatch(1);
+    final String url = serve("/lines", stallAfter("first\nsecond", "text/plain", sent));
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final LineStream stream = client.get(url).readTimeout(10000).asLines();
+      assertEquals("first", stream.readLine());
+      assertTrue(sent.await(5, TimeUnit.SECONDS));
+      // The worker is blocked reading the rest of the body
+      Thread.sleep(200);
+      final long start = System.nanoTime();
+      stream.close();
+      final long closeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue("close() blocked for " + closeMs + "ms", closeMs < 500);
+      assertNull(stream.readLine());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_server_sent_events() throws Exception {
+    // The first connection sends two events and ends, the second checks Last-Event-ID and sends
+    // one more, and the third tells the client to stop with 204
+    final List<String> lastEventIds = new ArrayList<>();
+    final String url =
+        serve(
+            "/events",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final int connection;
+                synchronized (lastEventIds) {
+                  lastEventIds.add(exchange.getRequestHeaders().getFirst("Last-Event-ID"));
+                  connection = lastEventIds.size();
+                }
+                if (connection == 3) {
+                  exchange.sendResponseHeaders(204, -1);
+                  exchange.close();
+                  return;
+                }
+                final String body =
+                    connection == 1
+                        ? "retry: 10\n\nid: 1\nevent: greet\ndata: hello\ndata:world\n\n"
+                            + ": keep-alive\r\ndata: {\"a\":1}\r\n\r\ndata: incomplete"
+                        : "id: 2\ndata: second\n\n";
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, 0);
+                exchange.getResponseBody().write(body.getBytes("UTF-8"));
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final List<ServerSentEvent> events = new ArrayList<>();
+      final CountDownLatch closed = new CountDownLatch(1);
+      final EventSource source =
+          client
+              .get(url)
+              .asEvents(
+                  new EventCallback() {
+                    @Override
+                    public void event(@NotNull ServerSentEvent event) {
+                      events.add(event);
+                    }
+
+                    @Override
+                    public void closed() {
+                      closed.countDown();
+                    }
+                  });
+      assertTrue(closed.await(10, TimeUnit.SECONDS));
+      assertTrue(source.isClosed());
+      assertEquals(3, events.size());
+      assertEquals("greet", events.get(0).type());
+      assertEquals("hello\nworld", events.get(0).data());
+      assertEquals("1", events.get(0).id());
+      assertEquals("message", events.get(1).type());
+      assertEquals("{\"a\":1}", events.get(1).data());
+      assertEquals("second", events.get(2).data());
+      assertEquals("2", source.lastEventId());
+      assertNull(lastEventIds.get(0));
+      assertEquals("1", lastEventIds.get(1));
+      assertEquals("2", lastEventIds.get(2));
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_server_sent_events_close() throws Exception {
+    // An event stream is always mid-body, this one sends an event and then stalls
+    final CountDownLatch sent = new CountDownLatch(1);
+    final String url = serve("/events", stallAfter("data: hello\n\n", "text/event-stream", sent));
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final CountDownLatch received = new CountDownLatch(1);
+      final CountDownLatch closed = new CountDownLatch(1);
+      final EventSource source =
+          client
+              .get(url)
+              .asEvents(
+                  new EventCallback() {
+                    @Override
+                    public void event(@NotNull ServerSentEvent event) {
+                      received.countDown();
+                    }
+
+                    @Override
+                    public void closed() {
+                      closed.countDown();
+                    }
+                  });
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+      Thread.sleep(200);
+      final long start = System.nanoTime();
+      source.close();
+      final long closeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue("close() blocked for " + closeMs + "ms", closeMs < 500);
+      assertTrue(source.isClosed());
+      assertTrue(closed.await(1, TimeUnit.SECONDS));
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_download_progress() throws Exception {
+    // Sends a 4 MB body in small writes, so the client reads it in many pieces
+    final String url =
+        serve(
+            "/download",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final byte[] chunk = new byte[1024];
+                exchange.sendResponseHeaders(200, 4096 * chunk.length);
+                final OutputStream os = exchange.getResponseBody();
+                for (int i = 0; i < 4096; i++) os.write(chunk);
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    client.config().bufferSize(1024).progressInterval(10000);
+    try {
+      final List<Long> updates = new ArrayList<>();
+      final CountDownLatch done = new CountDownLatch(1);
+      client
+          .get(url)
+          .request(
+              new Callback() {
+                @Override
+                public void response(
+                    @NotNull Request request,
+                    @Nullable Response response,
+                    @Nullable BridgeException e) {
+                  assertNull(e);
+                  done.countDown();
+                }
+
+                @Override
+                public void progress(Request request, long current, long total, int percent) {
+                  assertEquals(4096 * 1024, total);
+                  updates.add(current);
+                }
+              });
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      // The interval lets only the first and final updates through
+      assertEquals(2, updates.size());
+      assertEquals(0L, (long) updates.get(0));
+      assertEquals(4096 * 1024L, (long) updates.get(1));
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_streamed_pipe_upload() throws Exception {
+    // Echoes the request's Content-Length and how many body bytes arrived
+    final String url =
+        serve(
+            "/upload",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[8192];
+                long received = 0;
+                int read;
+                while ((read = is.read(buffer)) != -1) received += read;
+                final byte[] body =
+                    (exchange.getRequestHeaders().getFirst("Content-Length") + "/" + received)
+                        .getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+              }
+            });
+
+    final File file = File.createTempFile("bridge", ".bin");
+    final BridgeClient client = new BridgeClient();
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.setLength(3 * 1024 * 1024);
+      raf.close();
+
+      final List<Long> progress = new ArrayList<>();
+      final Response response =
+          client
+              .post(url)
+              .body(Pipe.forFile(file))
+              .uploadProgress(
+                  new ProgressCallback() {
+                    @Override
+                    public void progress(Request request, long current, long total, int percent) {
+                      assertEquals(file.length(), total);
+                      progress.add(current);
+                    }
+                  })
+              .throwIfNotSuccess()
+              .response();
+      assertNotNull(response);
+      assertEquals("3145728/3145728", response.asString());
+      assertEquals(file.length(), (long) progress.get(progress.size() - 1));
+
+      // Without a known length, the body is buffered and still sent with its length
+      final byte[] data = "Hello, world!".getBytes();
+      final Response buffered =
+          client
+              .post(url)
+              .body(Pipe.forStream(new ByteArrayInputStream(data), "text/plain", "hello"))
+              .throwIfNotSuccess()
+              .response();
+      assertNotNull(buffered);
+      assertEquals("13/13", buffered.asString());
+      assertEquals(5L, buffered.contentLength());
+    } finally {
+      client.destroy();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void test_streamed_serialization() throws Exception {
+    // Echoes how the body was framed, followed by the body itself
+    final String url =
+        serve(
+            "/post",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final ByteArrayOutputStream received = new ByteArrayOutputStream();
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) received.write(buffer, 0, read);
+                final String framing =
+                    exchange.getRequestHeaders().containsKey("Content-Length")
+                        ? exchange.getRequestHeaders().getFirst("Content-Length")
+                        : exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+                final byte[] body = (framing + "|" + received.toString("UTF-8")).getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final RequestConvertTestObj object = new RequestConvertTestObj("Aidan", 1995, 1, 2);
+      final List<RequestConvertTestObj> objects = new ArrayList<>(2);
+      objects.add(object);
+      objects.add(new RequestConvertTestObj("Waverly", 1997, 2, 1));
+
+      final String eager = new String(new JsonConverter().serialize(object), "UTF-8");
+      final Response response = client.post(url).streamBody(object).throwIfNotSuccess().response();
+      assertNotNull(response);
+      assertEquals(eager.getBytes("UTF-8").length + "|" + eager, response.asString());
+
+      // Strings needing escapes are written the same as the eager path writes them
+      final RequestConvertTestObj escaped =
+          new RequestConvertTestObj("\"Ai\\dan\"\n\u00e9/", 1995, 1, 2);
+      final String eagerEscaped = new String(new JsonConverter().serialize(escaped), "UTF-8");
+      final Response escapedResponse =
+          client.post(url).streamBody(escaped).throwIfNotSuccess().response();
+      assertNotNull(escapedResponse);
+      assertEquals(
+          eagerEscaped.getBytes("UTF-8").length + "|" + eagerEscaped, escapedResponse.asString());
+
+      final List<Long> progress = new ArrayList<>();
+      final Response chunked =
+          client
+              .post(url)
+              .streamBody(objects, true)
+              .uploadProgress(
+                  new ProgressCallback() {
+                    @Override
+                    public void progress(Request request, long current, long total, int percent) {
+                      progress.add(current);
+                    }
+                  })
+              .throwIfNotSuccess()
+              .response();
+      assertNotNull(chunked);
+      final String[] parts = chunked.asString().split("\\|", 2);
+      assertEquals("chunked", parts[0]);
+      final AsonArray<Object> json = new AsonArray<>(parts[1]);
+      assertEquals(2, json.size());
+      assertEquals("Waverly", json.getJsonObject(1).get("name"));
+      // The total isn't known while chunked, so no progress is published
+      assertTrue(progress.isEmpty());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_streamed_bodies_not_merged() throws Exception {
+    final AtomicInteger hits = new AtomicInteger();
+    final String url = serve("/post", respond(200, 200, hits));
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      // Streamed bodies aren't hashed, so each is sent even if it's the same object
+      final RequestConvertTestObj object = new RequestConvertTestObj("Aidan", 1995, 1, 2);
+      final CountDownLatch done = new CountDownLatch(2);
+      for (int i = 0; i < 2; i++) {
+        client
+            .post(url)
+            .streamBody(object)
+            .request(
+                new Callback() {
+                  @Override
+                  public void response(
+                      @NotNull Request request, @Nullable Response response, BridgeException e) {
+                    assertNull(e);
+                    done.countDown();
+                  }
+                });
+      }
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(2, hits.get());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_cbor_converter() throws Exception {
+    // Echoes the body back with the request's Content-Type
+    final String url =
+        serve(
+            "/echo",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final ByteArrayOutputStream received = new ByteArrayOutputStream();
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) received.write(buffer, 0, read);
+                exchange
+                    .getResponseHeaders()
+                    .add("Content-Type", exchange.getRequestHeaders().getFirst("Content-Type"));
+                exchange.sendResponseHeaders(200, received.size());
+                exchange.getResponseBody().write(received.toByteArray());
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final CborTestObj object = new CborTestObj("Aidan", 1995, 0.1, -70000);
+      final Response response = client.post(url).body(object).throwIfNotSuccess().response();
+      assertNotNull(response);
+      assertEquals("application/cbor", response.contentType());
+      // A map of four entries: name, born, score and the nested data
+      assertEquals(0xa4, response.asBytes()[0] & 0xFF);
+      assertTrue(response.asBytes().length < new JsonConverter().serialize(object).length);
+
+      final CborTestObj result = response.asClass(CborTestObj.class);
+      assertNotNull(result);
+      assertEquals("Aidan", result.name);
+      assertEquals(1995, result.born);
+      assertEquals(0.1, result.score, 0);
+      assertEquals(-70000, result.id);
+
+      final List<CborTestObj> objects = new ArrayList<>(2);
+      objects.add(object);
+      objects.add(new CborTestObj("Waverly", 1997, 1.5, 2));
+      final List<CborTestObj> results =
+          client
+              .post(url)
+              .streamBody(objects)
+              .throwIfNotSuccess()
+              .response()
+              .asClassList(CborTestObj.class);
+      assertNotNull(results);
+      assertEquals(2, results.size());
+      assertEquals("Waverly", results.get(1).name);
+      assertEquals(1.5, results.get(1).score, 0);
+
+      // A truncated body fails to convert instead of yielding a partial object
+      final byte[] truncated = Arrays.copyOf(response.asBytes(), 10);
+      try {
+        client
+            .post(url)
+            .header("Content-Type", "application/cbor")
+            .body(truncated)
+            .response()
+            .asClass(CborTestObj.class);
+        fail("Expected a truncated CBOR body to fail conversion.");
+      } catch (IllegalStateException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_generated_converter() throws Exception {
+    // Generated at compile time by bridge-processor
+    final IConverter generated =
+        Bridge.config().converterFor("application/json", ResponseConvertTestObj.class);
+    assertTrue(generated instanceof ClassConverter);
+    // Has no no-arg constructor, so it's left to Ason
+    assertFalse(
+        Bridge.config().converterFor("application/json", RequestConvertTestObj.class)
+            instanceof ClassConverter);
+
+    final ResponseConvertTestObj object = new ResponseConvertTestObj();
+    object.name = "Aidan";
+    object.born = 1995;
+    object.id = 1;
+    object.sort = 2;
+    final JSONObject json = new JSONObject(new String(generated.serialize(object), "UTF-8"));
+    assertEquals("Aidan", json.getJSONObject("json").getString("name"));
+    assertEquals(2, json.getJSONObject("json").getJSONObject("data").getInt("sort"));
+
+    final byte[] body = ("[" + json + "," + json + "]").getBytes("UTF-8");
+    final String url =
+        serve(
+            "/people",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+              }
+            });
+    final Response response = Bridge.get(url).throwIfNotSuccess().response();
+    assertNotNull(response);
+    final ResponseConvertTestObj[] results = response.asClassArray(ResponseConvertTestObj.class);
+    assertNotNull(results);
+    assertEquals(2, results.length);
+    assertEquals("Aidan", results[1].name);
+    assertEquals(1995, results[1].born);
+    assertEquals(1, results[1].id);
+    assertEquals(2, results[1].sort);
+
+    // A nested class and a top-level one named like its converter each get their own
+    final ClassConverter<?> nested =
+        ClassConverter.generatedFor(ResponseConvertTestObj.Initial.class);
+    final ClassConverter<?> topLevel =
+        ClassConverter.generatedFor(ResponseConvertTestObj_Initial.class);
+    assertNotNull(nested);
+    assertNotNull(topLevel);
+    assertNotEquals(nested.getClass(), topLevel.getClass());
+    assertEquals(
+        'A',
+        ((ResponseConvertTestObj.Initial) nested.fromJson(new JSONObject("{\"initial\":\"A\"}")))
+            .initial);
+    // An empty string leaves a char at its default rather than failing
+    assertEquals(
+        '\0',
+        ((ResponseConvertTestObj.Initial) nested.fromJson(new JSONObject("{\"initial\":\"\"}")))
+            .initial);
+    assertEquals(
+        "B",
+        ((ResponseConvertTestObj_Initial) topLevel.fromJson(new JSONObject("{\"initial\":\"B\"}")))
+            .initial);
+
+    // A converter registered in place of the built-in one takes precedence
+    final BridgeClient client = new BridgeClient();
+    try {
+      client.config().converter("application/json", CborConverter.class);
+      assertTrue(
+          client.config().converterFor("application/json", ResponseConvertTestObj.class)
+              instanceof CborConverter);
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_header_binding() throws Exception {
+    // Echoes the body and Custom-Header, and adds headers of its own
+    final String url =
+        serve(
+            "/echo",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final ByteArrayOutputStream received = new ByteArrayOutputStream();
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) received.write(buffer, 0, read);
+                final com.sun.net.httpserver.Headers headers = exchange.getResponseHeaders();
+                headers.add("Content-Type", "application/json");
+                headers.add(
+                    "Custom-Header", exchange.getRequestHeaders().getFirst("Custom-Header"));
+                headers.add("X-Count", " 42 ");
+                headers.add("X-Tags", "one");
+                headers.add("X-Tags", "two");
+                exchange.sendResponseHeaders(200, received.size());
+                exchange.getResponseBody().write(received.toByteArray());
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final HeaderTestObj object = new HeaderTestObj();
+      object.name = "Aidan";
+      object.custom = "Hello";
+      final Request request = client.post(url).body(object).throwIfNotSuccess().request();
+      final HeaderTestObj result = request.response().asClass(HeaderTestObj.class);
+      assertNotNull(result);
+      assertEquals("Aidan", result.name);
+      assertEquals("Hello", result.custom);
+      assertEquals(42, result.count);
+      // HttpURLConnection doesn't keep the order of repeated headers
+      assertEquals(2, result.tags.size());
+      assertTrue(result.tags.containsAll(Arrays.asList("one", "two")));
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_response_decoding() throws Exception {
+    final String url =
+        serve(
+            "/",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                final com.sun.net.httpserver.Headers headers = exchange.getResponseHeaders();
+                final byte[] body;
+                if (path.equals("/latin")) {
+                  headers.add("Content-Type", "text/plain; charset=\"ISO-8859-1\"");
+                  body = "Caf\u00e9".getBytes("ISO-8859-1");
+                } else if (path.equals("/bom")) {
+                  headers.add("Content-Type", "application/json");
+                  final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                  os.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+                  os.write("[1,2,3]".getBytes("UTF-8"));
+                  body = os.toByteArray();
+                } else {
+                  headers.add("Content-Type", "application/json; charset=nonsense");
+                  headers.add("Content-Encoding", "gzip");
+                  final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                  final java.util.zip.GZIPOutputStream gzip =
+                      new java.util.zip.GZIPOutputStream(os);
+                  gzip.write("{\"name\":\"\u00c5sa\"}".getBytes("UTF-8"));
+                  gzip.close();
+                  body = os.toByteArray();
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final Response latin = client.get(url + "latin").response();
+      assertEquals("ISO-8859-1", latin.charset().name());
+      assertEquals("Caf\u00e9", latin.asCharSequence().toString());
+      assertEquals("Caf\u00e9", latin.asString());
+      assertSame(latin.asString(), latin.asString());
+      assertSame(latin.asString(), latin.asCharSequence());
+      assertEquals(4, latin.asByteBuffer().remaining());
+      assertTrue(latin.asByteBuffer().isReadOnly());
+
+      final Response bom = client.get(url + "bom").response();
+      assertEquals("[1,2,3]", bom.asString());
+      assertSame(bom.asAsonArray(), bom.asAsonArray());
+      assertSame(bom.asJsonArray(), bom.asJsonArray());
+      assertEquals(3, bom.asJsonArray().length());
+
+      // Unsupported charsets fall back to UTF-8, the body is only decompressed once
+      final Response gzip = client.get(url + "gzip").response();
+      assertEquals("UTF-8", gzip.charset().name());
+      assertSame(gzip.asBytes(), gzip.asBytes());
+      assertEquals("\u00c5sa", gzip.asJsonObject().getString("name"));
+      assertSame(gzip.asJsonObject(), gzip.asJsonObject());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_file_pipe_range() throws Exception {
+    final File file = File.createTempFile("bridge", ".txt");
+    try {
+      final FileOutputStream fos = new FileOutputStream(file);
+      fos.write("Hello, world!".getBytes());
+      fos.close();
+
+      final Pipe range = Pipe.forFile(file, 7, 5);
+      assertEquals(5, range.contentLength());
+      assertEquals(8, Pipe.forFile(file, 5, -1).contentLength());
+      assertNotEquals(range.hash(), Pipe.forFile(file, 0, 5).hash());
+      // Each write reopens the file, so a retried request sends the same bytes
+      for (int i = 0; i < 2; i++) {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        range.writeTo(os, null);
+        assertEquals("world", os.toString());
+      }
+
+      final java.security.MessageDigest digest = java.security.MessageDigest.getInstance("MD5");
+      assertTrue(range.digest(digest));
+      assertArrayEquals(
+          java.security.MessageDigest.getInstance("MD5").digest("world".getBytes()),
+          digest.digest());
+
+      // The stream ends with the range rather than the file
+      final InputStream stream = ((FilePipe) Pipe.forFile(file, 0, 5)).getStream();
+      final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[64];
+      int count;
+      while ((count = stream.read(buffer)) != -1) streamed.write(buffer, 0, count);
+      stream.close();
+      assertEquals("Hello", streamed.toString());
+
+      try {
+        Pipe.forFile(file, 10, 5).contentLength();
+        fail("Expected a range past the end of the file to fail.");
+      } catch (EOFException ignored) {
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void test_chunked_upload() throws Exception {
+    final byte[] data = new byte[100 * 1024 + 7];
+    new java.util.Random(0).nextBytes(data);
+    final byte[] received = new byte[data.length];
+    final AtomicInteger chunkRequests = new AtomicInteger();
+    final AtomicInteger failedOnce = new AtomicInteger();
+
+    // Writes each chunk where its Content-Range says, failing the chunk at 16KB once
+    final String chunkUrl =
+        serve(
+            "/chunk",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                chunkRequests.incrementAndGet();
+                final String range = exchange.getRequestHeaders().getFirst("Content-Range");
+                final int start = Integer.parseInt(range.substring(6, range.indexOf('-')));
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) body.write(buffer, 0, read);
+                final byte[] chunk = body.toByteArray();
+                if (start == 16 * 1024 && failedOnce.getAndIncrement() == 0) {
+                  exchange.sendResponseHeaders(500, -1);
+                } else {
+                  synchronized (received) {
+                    System.arraycopy(chunk, 0, received, start, chunk.length);
+                  }
+                  exchange.sendResponseHeaders(204, -1);
+                }
+                exchange.close();
+              }
+            });
+    final String finishUrl =
+        serve(
+            "/finish",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = "done".getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+              }
+            });
+
+    final File file = File.createTempFile("bridge", ".bin");
+    final BridgeClient client = new BridgeClient();
+    try {
+      final FileOutputStream fos = new FileOutputStream(file);
+      fos.write(data);
+      fos.close();
+
+      final List<Long> progress = new ArrayList<>();
+      final Response response =
+          client
+              .chunkedUpload(file)
+              .template(ChunkTemplate.contentRange(chunkUrl, finishUrl))
+              .chunkSize(16 * 1024)
+              .parallelism(3)
+              .retries(2, Backoff.fixed(0))
+              .progress(
+                  new ProgressCallback() {
+                    @Override
+                    public void progress(Request request, long current, long total, int percent) {
+                      assertEquals(data.length, total);
+                      progress.add(current);
+                    }
+                  })
+              .upload();
+      assertNotNull(response);
+      assertEquals("done", response.asString());
+      assertArrayEquals(data, received);
+      // 7 chunks, one of which was sent twice
+      assertEquals(8, chunkRequests.get());
+      assertEquals(data.length, (long) progress.get(progress.size() - 1));
+
+      // Without retries, the failed chunk fails the upload
+      failedOnce.set(0);
+      try {
+        client
+            .chunkedUpload(file)
+            .template(ChunkTemplate.contentRange(chunkUrl, finishUrl))
+            .chunkSize(16 * 1024)
+            .upload();
+        fail("Expected the upload to fail.");
+      } catch (BridgeException e) {
+        assertNotEquals(BridgeException.REASON_REQUEST_CANCELLED, e.reason());
+      }
+    } finally {
+      client.destroy();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void test_content_digest() throws Exception {
+    // Echoes the digest headers it received
+    final String url =
+        serve(
+            "/digest",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                while (is.read() != -1) {}
+                final byte[] body =
+                    (exchange.getRequestHeaders().getFirst("Content-MD5")
+                            + " "
+                            + exchange.getRequestHeaders().getFirst("Digest"))
+                        .getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+              }
+            });
+
+    final File file = File.createTempFile("bridge", ".txt");
+    final BridgeClient client = new BridgeClient();
+    try {
+      assertEquals(
+          "sQqNsWTgdUEFt6mb5y4/5Q== null",
+          client.post(url).body("Hello World").contentDigest("MD5").asString());
+
+      final FileOutputStream fos = new FileOutputStream(file);
+      fos.write("Hello World".getBytes());
+      fos.close();
+      final Pipe pipe = Pipe.forFile(file);
+      assertEquals(
+          "null SHA-256=pZGm1Av0IEBKARczz7exkNYsZb8LzaMrV7J32a2fFG4=",
+          client.post(url).body(pipe).contentDigest("SHA-256").asString());
+
+      // The pipe's identity follows the file's content without reading it
+      final String hash = pipe.hash();
+      assertEquals(hash, pipe.hash());
+      assertTrue(file.setLastModified(file.lastModified() - 10000));
+      assertNotEquals(hash, pipe.hash());
+
+      try {
+        client.post(url).contentDigest("NOPE");
+        fail("Expected an unknown algorithm to be rejected.");
+      } catch (IllegalArgumentException ignored) {
+      }
+    } finally {
+      client.destroy();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void test_deadline_while_reading() throws Exception {
+    // Starts the body after 600ms, then stalls
+    final CountDownLatch sent = new CountDownLatch(1);
+    final HttpHandler stall = stallAfter("abc", "text/plain", sent);
+    final String stallUrl =
+        serve(
+            "/stall",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                try {
+                  Thread.sleep(600);
+                } catch (InterruptedException e) {
+                  exchange.close();
+                  return;
+                }
+                stall.handle(exchange);
+              }
+            });
+    // Fails the first request, then succeeds
+    final AtomicInteger flakyHits = new AtomicInteger();
+    final String flakyUrl =
+        serve(
+            "/flaky",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(flakyHits.incrementAndGet() == 1 ? 500 : 200, -1);
+                exchange.close();
+              }
+            });
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      final AtomicReference<BridgeException> stallError = new AtomicReference<>();
+      final CountDownLatch stallDone = new CountDownLatch(1);
+      client
+          .get(stallUrl)
+          .deadline(1000)
+          .request(
+              new Callback() {
+                @Override
+                public void response(
+                    @NotNull Request request, @Nullable Response response, BridgeException e) {
+                  stallError.set(e);
+                  stallDone.countDown();
+                }
+              });
+      assertTrue(sent.await(5, TimeUnit.SECONDS));
+      Thread.sleep(250);
+
+      // The deadline passes while the retry below is waiting on the same timer thread, which
+      // tearing down the stalled connection must not hold up
+      final long start = System.nanoTime();
+      final CountDownLatch retried = new CountDownLatch(1);
+      client
+          .get(flakyUrl)
+          .retries(1, Backoff.fixed(200))
+          .throwIfNotSuccess()
+          .request(
+              new Callback() {
+                @Override
+                public void response(
+                    @NotNull Request request, @Nullable Response response, BridgeException e) {
+                  assertNull(e);
+                  retried.countDown();
+                }
+              });
+      assertTrue(retried.await(5, TimeUnit.SECONDS));
+      final long retryMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue("The retry took " + retryMs + "ms", retryMs < 600);
+      assertEquals(2, flakyHits.get());
+
+      assertTrue(stallDone.await(5, TimeUnit.SECONDS));
+      assertEquals(BridgeException.REASON_REQUEST_DEADLINE, stallError.get().reason());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_deadline() throws Exception {
+    final AtomicInteger hits = new AtomicInteger();
+    final String slowUrl = serve("/slow", respond(200, 2000, hits));
+    final String fastUrl = serve("/fast", respond(200, 0, hits));
+    // Fails the first two requests, then succeeds
+    final AtomicInteger flakyHits = new AtomicInteger();
+    final String flakyUrl =
+        serve(
+            "/flaky",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final int code = flakyHits.incrementAndGet() <= 2 ? 500 : 200;
+                exchange.sendResponseHeaders(code, -1);
+                exchange.close();
+              }
+            });
+    final BridgeClient client = new BridgeClient();
+    try {
+      // The connection is torn down when the deadline passes, rather than at the read timeout
+      final long start = System.nanoTime();
+      try {
+        client.get(slowUrl).deadline(200).request();
+        fail("Expected the deadline to pass.");
+      } catch (BridgeException e) {
+        assertEquals(BridgeException.REASON_REQUEST_DEADLINE, e.reason());
+      }
+      final long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue("The request took " + tookMs + "ms", tookMs < 1000);
+
+      // Retries that fit within the deadline are made
+      final Response response =
+          client
+              .get(flakyUrl)
+              .deadline(5000)
+              .retries(3, Backoff.fixed(50))
+              .throwIfNotSuccess()
+              .response();
+      assertNotNull(response);
+      assertEquals(200, response.code());
+      assertEquals(3, flakyHits.get());
+
+      // A retry that couldn't finish before the deadline isn't waited for
+      flakyHits.set(0);
+      try {
+        client
+            .get(flakyUrl)
+            .deadline(300)
+            .retries(3, Backoff.fixed(1000))
+            .throwIfNotSuccess()
+            .request();
+        fail("Expected the deadline to pass.");
+      } catch (BridgeException e) {
+        assertEquals(BridgeException.REASON_REQUEST_DEADLINE, e.reason());
+      }
+      assertEquals(1, flakyHits.get());
+
+      // Each request made from a builder gets the full deadline
+      final RequestBuilder builder = client.get(fastUrl).deadline(300);
+      assertEquals(200, builder.request().response().code());
+      Thread.sleep(400);
+      assertEquals(200, builder.request().response().code());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_backoff_bounds() {
+    final Backoff fixed = Backoff.fixed(50);
+    assertEquals(50, fixed.delayMs(1, 0));
+    assertEquals(50, fixed.delayMs(7, 50));
+
+    // Full jitter: anywhere from 0 up to base * 2^(attempt - 1), capped at max
+    final Backoff exponential = Backoff.exponential(10, 100);
+    long largest = 0;
+    for (int i = 0; i < 200; i++) {
+      assertTrue(exponential.delayMs(1, 0) <= 10);
+      final long third = exponential.delayMs(3, 0);
+      assertTrue(third >= 0 && third <= 40);
+      final long late = exponential.delayMs(64, 0);
+      assertTrue(late >= 0 && late <= 100);
+      largest = Math.max(largest, late);
+    }
+    assertTrue("Delays never grew past the base", largest > 10);
+
+    // Decorrelated jitter: between base and three times the previous delay, capped at max
+    final Backoff decorrelated = Backoff.decorrelatedJitter(10, 100);
+    long previous = 0;
+    for (int i = 0; i < 200; i++) {
+      final long delay = decorrelated.delayMs(i + 1, previous);
+      assertTrue(delay >= 10 && delay <= Math.min(100, Math.max(10, previous) * 3));
+      previous = delay;
+    }
+    assertEquals(10, Backoff.decorrelatedJitter(10, 10).delayMs(5, 10));
+
+    try {
+      Backoff.exponential(100, 10);
+      fail("Expected max < base to be rejected.");
+    } catch (IllegalArgumentException ignored) {
+    }
+    try {
+      Backoff.fixed(-1);
+      fail("Expected a negative delay to be rejected.");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  @Test
+  public void test_retry_budget() throws Exception {
+    final AtomicInteger hits = new AtomicInteger();
+    final String url = serve("/fail", respond(500, 0, hits));
+    final BridgeClient client = new BridgeClient();
+    try {
+      // No ratio, one retry per second: 10 retries over the 10 second window
+      final RetryBudget budget = RetryBudget.create(0, 1);
+      client.config().retryBudget(budget);
+      try {
+        client.get(url).retries(100, Backoff.fixed(0)).throwIfNotSuccess().request();
+        fail("Expected the request to fail.");
+      } catch (BridgeException ignored) {
+      }
+      assertEquals(11, hits.get());
+
+      // The budget is spent, so the next request isn't retried at all
+      hits.set(0);
+      try {
+        client.get(url).retries(100, Backoff.fixed(0)).throwIfNotSuccess().request();
+        fail("Expected the request to fail.");
+      } catch (BridgeException ignored) {
+      }
+      assertEquals(1, hits.get());
+
+      // Once the window has passed, the budget is back. Moving the budget's clock origin back
+      // stands in for waiting 10 seconds.
+      final java.lang.reflect.Field origin = RetryBudget.class.getDeclaredField("originNanos");
+      origin.setAccessible(true);
+      origin.setLong(budget, origin.getLong(budget) - TimeUnit.SECONDS.toNanos(11));
+      hits.set(0);
+      try {
+        client.get(url).retries(3, Backoff.fixed(0)).throwIfNotSuccess().request();
+        fail("Expected the request to fail.");
+      } catch (BridgeException ignored) {
+      }
+      assertEquals(4, hits.get());
+
+      // With a ratio, new requests earn retries: half a retry each
+      client.config().retryBudget(RetryBudget.create(0.5, 0));
+      final int[] expected = {2, 1, 2, 1};
+      for (int attempts : expected) {
+        hits.set(0);
+        try {
+          client.get(url).retries(5, Backoff.fixed(0)).throwIfNotSuccess().request();
+          fail("Expected the request to fail.");
+        } catch (BridgeException ignored) {
+        }
+        assertEquals(attempts, hits.get());
+      }
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_retry_on_defaults() throws Exception {
+    final AtomicInteger hits = new AtomicInteger();
+    final AtomicInteger retries = new AtomicInteger();
+    final RetryCallback countRetries =
+        new RetryCallback() {
+          @Override
+          public boolean onWillRetry(
+              @Nullable Response previousResponse,
+              BridgeException problem,
+              RequestBuilder newRequest) {
+            retries.incrementAndGet();
+            return true;
+          }
+        };
+    final String failUrl = serve("/fail", respond(500, 0, hits));
+    final String slowUrl = serve("/slow", respond(200, 2000, hits));
+    final BridgeClient client = new BridgeClient();
+    try {
+      // The first failure is retried, the open circuit it causes isn't
+      client.config().circuitBreaker(CircuitBreaker.create().window(1, 1).openDuration(60000));
+      try {
+        client
+            .get(failUrl)
+            .retries(3, Backoff.fixed(0), countRetries)
+            .throwIfNotSuccess()
+            .request();
+        fail("Expected the request to fail.");
+      } catch (BridgeException e) {
+        assertEquals(BridgeException.REASON_CIRCUIT_OPEN, e.reason());
+      }
+      assertEquals(1, hits.get());
+      assertEquals(1, retries.get());
+      client.config().circuitBreaker(null);
+
+      // An exceeded deadline isn't retried
+      retries.set(0);
+      try {
+        client.get(slowUrl).deadline(200).retries(3, Backoff.fixed(0), countRetries).request();
+        fail("Expected the request to fail.");
+      } catch (BridgeException e) {
+        assertEquals(BridgeException.REASON_REQUEST_DEADLINE, e.reason());
+      }
+      assertEquals(0, retries.get());
+
+      // Nor is a cancelled request
+      final CountDownLatch done = new CountDownLatch(1);
+      final AtomicReference<BridgeException> error = new AtomicReference<>();
+      final Request request =
+          client
+              .get(slowUrl)
+              .retries(3, Backoff.fixed(0), countRetries)
+              .request(
+                  new Callback() {
+                    @Override
+                    public void response(
+                        @NotNull Request request,
+                        @Nullable Response response,
+                        @Nullable BridgeException e) {
+                      error.set(e);
+                      done.countDown();
+                    }
+                  });
+      Thread.sleep(200);
+      request.cancel();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(BridgeException.REASON_REQUEST_CANCELLED, error.get().reason());
+      assertEquals(0, retries.get());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_circuit_breaker_states() throws Exception {
+    final AtomicInteger hits = new AtomicInteger();
+    final AtomicInteger status = new AtomicInteger(200);
+    final AtomicInteger delayMs = new AtomicInteger();
+    final String url =
+        serve(
+            "/endpoint",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                hits.incrementAndGet();
+                try {
+                  Thread.sleep(delayMs.get());
+                } catch (InterruptedException e) {
+                  exchange.close();
+                  return;
+                }
+                exchange.sendResponseHeaders(status.get(), -1);
+                exchange.close();
+              }
+            });
+    final String key = "127.0.0.1:" + new java.net.URL(url).getPort();
+    final List<String> transitions = new ArrayList<>();
+    final CircuitBreaker breaker =
+        CircuitBreaker.create()
+            .window(4, 4)
+            .failureRateThreshold(0.5f)
+            .openDuration(200)
+            .halfOpenProbes(2)
+            .listener(
+                new CircuitBreaker.StateListener() {
+                  @Override
+                  public void onStateChanged(@NotNull String key, int fromState, int toState) {
+                    synchronized (transitions) {
+                      transitions.add(
+                          CircuitBreaker.stateName(fromState)
+                              + "->"
+                              + CircuitBreaker.stateName(toState));
+                    }
+                  }
+                });
+    final BridgeClient client = new BridgeClient();
+    client.config().circuitBreaker(breaker);
+    try {
+      // Closed until the window has enough calls, then half of them failing trips it
+      assertEquals(200, client.get(url).response().code());
+      assertEquals(200, client.get(url).response().code());
+      status.set(500);
+      requestQuietly(client, url);
+      assertEquals(CircuitBreaker.STATE_CLOSED, breaker.state(key));
+      requestQuietly(client, url);
+      assertEquals(CircuitBreaker.STATE_OPEN, breaker.state(key));
+
+      // Open fails fast, without reaching the server
+      hits.set(0);
+      try {
+        client.get(url).request();
+        fail("Expected the circuit to be open.");
+      } catch (BridgeException e) {
+        assertEquals(BridgeException.REASON_CIRCUIT_OPEN, e.reason());
+      }
+      assertEquals(0, hits.get());
+
+      // After the open duration, a failed probe opens it again
+      Thread.sleep(250);
+      requestQuietly(client, url);
+      assertEquals(1, hits.get());
+      assertEquals(CircuitBreaker.STATE_OPEN, breaker.state(key));
+
+      // Only as many probes as needed are let through at once
+      Thread.sleep(250);
+      status.set(200);
+      delayMs.set(300);
+      final CountDownLatch probed = new CountDownLatch(2);
+      for (int i = 0; i < 2; i++) {
+        // Distinct URLs, so the async requests aren't merged into one
+        client
+            .get(url + "?probe=" + i)
+            .request(
+                new Callback() {
+                  @Override
+                  public void response(
+                      @NotNull Request request,
+                      @Nullable Response response,
+                      @Nullable BridgeException e) {
+                    assertNull(e);
+                    probed.countDown();
+                  }
+                });
+      }
+      Thread.sleep(100);
+      assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.state(key));
+      try {
+        client.get(url).request();
+        fail("Expected the extra probe to be rejected.");
+      } catch (BridgeException e) {
+        assertEquals(BridgeException.REASON_CIRCUIT_OPEN, e.reason());
+      }
+
+      // Enough successful probes close it
+      assertTrue(probed.await(5, TimeUnit.SECONDS));
+      assertEquals(CircuitBreaker.STATE_CLOSED, breaker.state(key));
+      synchronized (transitions) {
+        assertEquals(
+            Arrays.asList(
+                "CLOSED->OPEN",
+                "OPEN->HALF_OPEN",
+                "HALF_OPEN->OPEN",
+                "OPEN->HALF_OPEN",
+                "HALF_OPEN->CLOSED"),
+            transitions);
+      }
+    } finally {
+      client.destroy();
+    }
+  }
+
+  /** Makes a request, ignoring the exception an unsuccessful response throws. */
+  private static void requestQuietly(BridgeClient client, String url) {
+    try {
+      client.get(url).throwIfNotSuccess().request();
+    } catch (BridgeException ignored) {
+    }
+  }
+
+  @Test
+  public void test_circuit_breaker_stale_results() throws Exception {
+    // Responds with the status after the delay given in the query, e.g. "?500,0"
+    final String url =
+        serve(
+                "/endpoint",
+                new HttpHandler() {
+                  @Override
+                  public void handle(HttpExchange exchange) throws IOException {
+                    final String[] query = exchange.getRequestURI().getQuery().split(",");
+                    try {
+                      Thread.sleep(Long.parseLong(query[1]));
+                    } catch (InterruptedException e) {
+                      exchange.close();
+                      return;
+                    }
+                    exchange.sendResponseHeaders(Integer.parseInt(query[0]), -1);
+                    exchange.close();
+                  }
+                })
+            + "?";
+    final String key = "127.0.0.1:" + new java.net.URL(url).getPort();
+    final List<String> transitions = new ArrayList<>();
+    final CircuitBreaker breaker =
+        CircuitBreaker.create()
+            .window(2, 2)
+            .openDuration(200)
+            .halfOpenProbes(1)
+            .listener(
+                new CircuitBreaker.StateListener() {
+                  @Override
+                  public void onStateChanged(@NotNull String key, int fromState, int toState) {
+                    synchronized (transitions) {
+                      transitions.add(
+                          CircuitBreaker.stateName(fromState)
+                              + "->"
+                              + CircuitBreaker.stateName(toState));
+                    }
+                  }
+                });
+    final BridgeClient client = new BridgeClient();
+    client.config().circuitBreaker(breaker);
+    try {
+      final CountDownLatch staleDone = new CountDownLatch(1);
+      final CountDownLatch probeDone = new CountDownLatch(1);
+      final Callback countDown =
+          new Callback() {
+            @Override
+            public void response(
+                @NotNull Request request, @Nullable Response response, BridgeException e) {
+              (request.url().endsWith("800") ? staleDone : probeDone).countDown();
+            }
+          };
+      // Let through while closed, but only answers once the circuit is half-open
+      client.get(url + "200,800").request(countDown);
+      Thread.sleep(50);
+      requestQuietly(client, url + "500,0");
+      requestQuietly(client, url + "500,0");
+      assertEquals(CircuitBreaker.STATE_OPEN, breaker.state(key));
+
+      Thread.sleep(250);
+      client.get(url + "200,1500").request(countDown);
+      assertTrue(staleDone.await(5, TimeUnit.SECONDS));
+      // The late success isn't taken for the probe's
+      assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.state(key));
+
+      assertTrue(probeDone.await(5, TimeUnit.SECONDS));
+      assertEquals(CircuitBreaker.STATE_CLOSED, breaker.state(key));
+      synchronized (transitions) {
+        assertEquals(
+            Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+      }
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_hedged_requests() throws Exception {
+    // The first connection never gets an answer and waits to be closed, later ones are answered
+    final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    final AtomicInteger connections = new AtomicInteger();
+    final CountDownLatch loserClosed = new CountDownLatch(1);
+    new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  while (true) {
+                    final Socket socket = server.accept();
+                    final boolean first = connections.incrementAndGet() == 1;
+                    new Thread(
+                            new Runnable() {
+                              @Override
+                              public void run() {
+                                try {
+                                  final InputStream is = socket.getInputStream();
+                                  int matched = 0;
+                                  while (matched < 4) {
+                                    final int b = is.read();
+                                    if (b == -1) return;
+                                    matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : 0;
+                                  }
+                                  if (first) {
+                                    while (is.read() != -1) {}
+                                    loserClosed.countDown();
+                                  } else {
+                                    socket
+                                        .getOutputStream()
+                                        .write(
+                                            "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok"
+                                                .getBytes("UTF-8"));
+                                  }
+                                  socket.close();
+                                } catch (IOException ignored) {
+                                }
+                              }
+                            })
+                        .start();
+                  }
+                } catch (IOException ignored) {
+                }
+              }
+            })
+        .start();
+    final String url = "http://127.0.0.1:" + server.getLocalPort() + "/hedged";
+
+    final BridgeClient client = new BridgeClient();
+    try {
+      assertEquals("ok", client.get(url).hedge(100, 2).asString());
+      assertEquals(2, connections.get());
+      assertEquals(1, client.hedgesFired());
+      assertEquals(1, client.hedgesWon());
+      // The losing attempt's connection is torn down
+      assertTrue(loserClosed.await(5, TimeUnit.SECONDS));
+
+      // An attempt that answers within the delay isn't hedged
+      final String fastUrl = serve("/fast", respond(200, 0, new AtomicInteger()));
+      assertEquals("200", client.get(fastUrl).hedge(500, 2).asString());
+      assertEquals(1, client.hedgesFired());
+      assertEquals(1, client.hedgesWon());
+
+      // A Pipe can only be read once, so it can't be sent by more than one attempt
+      final Pipe pipe =
+          Pipe.forStream(new ByteArrayInputStream(new byte[1]), "text/plain", "hedged");
+      try {
+        client.get(url).body(pipe).hedge(100, 1);
+        fail("Expected a Pipe body to be rejected.");
+      } catch (IllegalStateException ignored) {
+      }
+      try {
+        client.get(url).hedge(100, 1).body(pipe);
+        fail("Expected a Pipe body to be rejected.");
+      } catch (IllegalStateException ignored) {
+      }
+    } finally {
+      client.destroy();
+      server.close();
+    }
+  }
+
+  @Test
+  public void test_latency_histogram_percentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.percentileMicros(50));
+    for (int micros = 1; micros <= 1000; micros++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+    assertEquals(1000, histogram.count());
+    assertEquals(1000, histogram.maxMicros());
+    assertEquals(500.5, histogram.meanMicros(), 0.001);
+    // Each value is reported as the top of its bucket, which is at most 1.6% above it
+    assertEquals(1, histogram.percentileMicros(0));
+    assertBetween(500, 508, histogram.percentileMicros(50));
+    assertBetween(900, 914, histogram.percentileMicros(90));
+    assertBetween(990, 1000, histogram.percentileMicros(99));
+    assertEquals(1000, histogram.percentileMicros(100));
+
+    // Values below 128us have buckets of their own
+    histogram.reset();
+    assertEquals(0, histogram.count());
+    for (int micros = 0; micros < 128; micros++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+    assertEquals(63, histogram.percentileMicros(50));
+    assertEquals(127, histogram.percentileMicros(100));
+
+    // Large values keep the same relative error, and values past an hour are clamped
+    histogram.reset();
+    histogram.record(TimeUnit.SECONDS.toNanos(90));
+    histogram.record(TimeUnit.HOURS.toNanos(2));
+    final long ninetySeconds = TimeUnit.SECONDS.toMicros(90);
+    assertBetween(ninetySeconds, (long) (ninetySeconds * 1.016), histogram.percentileMicros(50));
+    assertEquals(TimeUnit.HOURS.toMicros(1), histogram.maxMicros());
+    assertEquals(TimeUnit.HOURS.toMicros(1), histogram.percentileMicros(100));
+
+    try {
+      histogram.percentileMicros(101);
+      fail("Expected an out of range percentile to be rejected.");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  private static void assertBetween(long min, long max, long actual) {
+    assertTrue(actual + " isn't between " + min + " and " + max, actual >= min && actual <= max);
+  }
+
+  @Test
+  public void test_event_listener_sequence() throws Exception {
+    // Fails the first request, then echoes the body of the next
+    final AtomicInteger hits = new AtomicInteger();
+    final String echoUrl =
+        serve(
+            "/echo",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final ByteArrayOutputStream received = new ByteArrayOutputStream();
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) received.write(buffer, 0, read);
+                if (hits.incrementAndGet() == 1) {
+                  exchange.sendResponseHeaders(500, -1);
+                } else {
+                  exchange.sendResponseHeaders(200, received.size());
+                  exchange.getResponseBody().write(received.toByteArray());
+                }
+                exchange.close();
+              }
+            });
+    final String redirectUrl =
+        serve(
+            "/redirect",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", echoUrl);
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+              }
+            });
+    final List<String> events = new ArrayList<>();
+    final LatencyRecorder recorder =
+        new LatencyRecorder() {
+          private void add(String event) {
+            synchronized (events) {
+              events.add(event);
+            }
+          }
+
+          @Override
+          public void callStart(@NotNull Request request) {
+            super.callStart(request);
+            add("callStart");
+          }
+
+          @Override
+          public void dnsEnd(@NotNull Request request, @NotNull String host, long durationNanos) {
+            add("dnsEnd");
+          }
+
+          @Override
+          public void connectEnd(@NotNull Request request, boolean secure, long durationNanos) {
+            add("connectEnd");
+          }
+
+          @Override
+          public void requestBodyEnd(@NotNull Request request, long byteCount, long durationNanos) {
+            add("requestBodyEnd " + byteCount);
+          }
+
+          @Override
+          public void responseHeadersEnd(
+              @NotNull Request request, int code, long timeToFirstByteNanos) {
+            super.responseHeadersEnd(request, code, timeToFirstByteNanos);
+            add("responseHeadersEnd " + code);
+          }
+
+          @Override
+          public void responseBodyEnd(
+              @NotNull Request request, long byteCount, long durationNanos) {
+            add("responseBodyEnd " + byteCount);
+          }
+
+          @Override
+          public void retry(
+              @NotNull Request request, @NotNull BridgeException error, int attempt, long delayMs) {
+            add("retry " + attempt);
+          }
+
+          @Override
+          public void redirect(
+              @NotNull Request request, @NotNull String fromUrl, @NotNull String toUrl) {
+            add("redirect");
+          }
+
+          @Override
+          public void callEnd(
+              @NotNull Request request, @Nullable Response response, long durationNanos) {
+            super.callEnd(request, response, durationNanos);
+            add("callEnd");
+          }
+
+          @Override
+          public void callFailed(
+              @NotNull Request request, @NotNull BridgeException error, long durationNanos) {
+            super.callFailed(request, error, durationNanos);
+            add("callFailed");
+          }
+        };
+    final BridgeClient client = new BridgeClient();
+    client.config().eventListener(recorder);
+    try {
+      final Response response =
+          client
+              .post(redirectUrl)
+              .body("hello")
+              .retries(1, Backoff.fixed(0))
+              .throwIfNotSuccess()
+              .response();
+      assertNotNull(response);
+      assertEquals("hello", response.asString());
+      synchronized (events) {
+        assertEquals(
+            Arrays.asList(
+                "callStart",
+                // The redirect
+                "dnsEnd",
+                "connectEnd",
+                "requestBodyEnd 5",
+                "responseHeadersEnd 302",
+                "responseBodyEnd 0",
+                "redirect",
+                // The failed attempt
+                "dnsEnd",
+                "connectEnd",
+                "requestBodyEnd 5",
+                "responseHeadersEnd 500",
+                "retry 1",
+                // The retry
+                "dnsEnd",
+                "connectEnd",
+                "requestBodyEnd 5",
+                "responseHeadersEnd 200",
+                "responseBodyEnd 5",
+                "callEnd"),
+            events);
+      }
+      // One call, three attempts
+      assertEquals(1, recorder.calls("POST", "127.0.0.1").count());
+      assertEquals(3, recorder.timeToFirstByte("POST", "127.0.0.1").count());
+    } finally {
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_log_body_redaction() {
+    final List<String> logged = new ArrayList<>();
+    final BridgeClient client = new BridgeClient();
+    client
+        .config()
+        .logging(true)
+        .logger(
+            new BridgeLogger() {
+              @Override
+              public void d(@NotNull String tag, @NotNull String message) {
+                if (message.startsWith("Body: ")) logged.add(message.substring(6));
+              }
+
+              @Override
+              public void e(@NotNull String tag, @NotNull String message) {}
+            })
+        .logBodyLimit(31)
+        .logRedact("\"password\":\"[^\"]*\"");
+    try {
+      // Redacting shortens the body, which mustn't be mistaken for truncation
+      client.post("http://127.0.0.1/").body("{\"password\":\"hunter2\"}");
+      assertEquals("{***}", logged.get(0));
+
+      // A secret running past the limit is still redacted, rather than its start being logged
+      client.post("http://127.0.0.1/").body("{\"user\":\"aidan\",\"password\":\"hunter2\"}");
+      assertEquals("{\"user\":\"aidan\",***}", logged.get(1));
+
+      // What's left over is counted after redaction
+      client
+          .post("http://127.0.0.1/")
+          .body("{\"password\":\"hunter2\",\"note\":\"0123456789abcdefghij\"}");
+      assertEquals("{***,\"note\":\"0123456789abcdefgh... (4 more characters)", logged.get(2));
+    } finally {
+      client.config().logging(false).logger(null).logBodyLimit(256).logRedact();
+      client.destroy();
+    }
+  }
+
+  @Test
+  public void test_origin_queue_retries() throws Exception {
+    // Fails the first attempt at each path, and tracks how many requests are in flight at once
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger maxActive = new AtomicInteger();
+    final List<String> failed = new ArrayList<>();
+    final String url =
+        serve(
+            "/flaky",
+            new HttpHandler() {
+              @Override
+              public void handle(HttpExchange exchange) throws IOException {
+                final int now = active.incrementAndGet();
+                while (maxActive.get() < now) maxActive.compareAndSet(maxActive.get(), now);
+                final boolean first;
+                synchronized (failed) {
+                  first = !failed.contains(exchange.getRequestURI().toString());
+                  if (first) failed.add(exchange.getRequestURI().toString());
+                }
+                try {
+                  Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                }
+                active.decrementAndGet();
+                exchange.sendResponseHeaders(first ? 500 : 200, -1);
+                exchange.close();
+              }
+            });
+    final BridgeClient client = new BridgeClient();
+    client.config().connectionsPerOrigin(1);
+    try {
+      final int count = 10;
+      final CountDownLatch done = new CountDownLatch(count);
+      final AtomicInteger failures = new AtomicInteger();
+      for (int i = 0; i < count; i++) {
+        client
+            .get(url + "?" + i)
+            .retries(1, Backoff.fixed(i % 2 == 0 ? 0 : 10))
+            .throwIfNotSuccess()
+            .request(
+                new Callback() {
+                  @Override
+                  public void response(
+                      @NotNull Request request,
+                      @Nullable Response response,
+                      @Nullable BridgeException e) {
+                    if (e != null) failures.incrementAndGet();
+                    done.countDown();
+                  }
+                });
+      }
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(0, failures.get());
+      // Retries wait in the origin's queue rather than being sent alongside it
+      assertEquals(1, maxActive.get());
+      assertEquals(count * 2, client.originRequests());
+    } finally {
+      client.destroy();
+    }
+  }
 }
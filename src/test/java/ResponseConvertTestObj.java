@@ -18,4 +18,13 @@ class ResponseConvertTestObj {
   int sort;
 
   public ResponseConvertTestObj() {}
+
+  /** Its converter's name would collide with {@link ResponseConvertTestObj_Initial}'s without $. */
+  @ContentType(value = "application/json")
+  static class Initial {
+
+    char initial;
+
+    public Initial() {}
+  }
 }
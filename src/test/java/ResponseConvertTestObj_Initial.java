@@ -0,0 +1,10 @@
+import com.afollestad.bridge.annotations.ContentType;
+
+/** @author Aidan Follestad (afollestad) */
+@ContentType(value = "application/json")
+class ResponseConvertTestObj_Initial {
+
+  String initial;
+
+  public ResponseConvertTestObj_Initial() {}
+}